@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.OptionalBean;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.bean.provider.MaskProvider;
+import org.anchoranalysis.image.bean.provider.MaskProviderUnary;
+import org.anchoranalysis.image.bean.provider.ObjectCollectionProvider;
+import org.anchoranalysis.image.core.mask.Mask;
+import org.anchoranalysis.image.core.mask.MaskFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+
+/**
+ * Performs binary reconstruction of a mask from a seed, across all slices.
+ *
+ * <p>Every foreground voxel of the mask that is connected, through other foreground voxels of the
+ * mask, to a voxel that is foreground in both the mask and the seed, is foreground in the created
+ * mask. All other voxels are background. So if no foreground voxel of the seed overlaps the
+ * foreground of the mask, the created mask is entirely background, rather than an error.
+ *
+ * <p>Voxels are connected along the Z-axis as well as in the XY plane, and the reconstruction
+ * operates directly on the voxels, without conversion to ImageJ.
+ */
+public class BinaryReconstruction3D extends MaskProviderUnary {
+
+    // START BEAN PROPERTIES
+    /** The seed, from which the mask is reconstructed. It must have the same size as the mask. */
+    @BeanField @Getter @Setter private MaskProvider seed;
+
+    /**
+     * 6 for only the neighbors sharing a face, 18 to also include those sharing an edge, or 26 to
+     * also include those sharing a corner.
+     *
+     * <p>4 or 8 are also accepted, to reconstruct each slice independently.
+     */
+    @BeanField @Getter @Setter private int connectivity = 26;
+
+    /**
+     * If set, only voxels inside these objects are reconstructed, each object independently, so
+     * connections outside an object are ignored. The objects should not overlap.
+     */
+    @BeanField @OptionalBean @Getter @Setter private ObjectCollectionProvider objects;
+    // END BEAN PROPERTIES
+
+    @Override
+    protected Mask createFromMask(Mask mask) throws ProvisionFailedException {
+
+        Mask seedMask = seed.get();
+
+        Extent extent = mask.extent();
+        if (!seedMask.extent().equals(extent)) {
+            throw new ProvisionFailedException(
+                    String.format(
+                            "The mask (%s) and seed (%s) must have identical size",
+                            extent, seedMask.extent()));
+        }
+
+        Neighborhood neighborhood;
+        try {
+            neighborhood = new Neighborhood(connectivity);
+            HybridReconstruction.checkIndexable(extent);
+        } catch (IllegalArgumentException e) {
+            throw new ProvisionFailedException(e);
+        }
+
+        Mask out = MaskFactory.createMaskOff(mask.dimensions(), mask.binaryValuesInt());
+
+        byte[][] maskSlices = ReconstructVoxels.slices(mask.voxels());
+        byte[][] seedSlices = ReconstructVoxels.slices(seedMask.voxels());
+        byte[][] outSlices = ReconstructVoxels.slices(out.voxels());
+        byte maskOn = mask.binaryValuesByte().getOn();
+        byte seedOn = seedMask.binaryValuesByte().getOn();
+
+        if (objects != null) {
+            for (ObjectMask object : objects.get()) {
+                checkObject(object, extent);
+                new SeededFlood(
+                                extent,
+                                neighborhood,
+                                object.boundingBox().cornerMin(),
+                                object.extent(),
+                                ReconstructVoxels.slices(object.voxels()))
+                        .reconstruct(maskSlices, maskOn, seedSlices, seedOn, outSlices, maskOn);
+            }
+        } else {
+            new SeededFlood(extent, neighborhood, new Point3i(0, 0, 0), extent, null)
+                    .reconstruct(maskSlices, maskOn, seedSlices, seedOn, outSlices, maskOn);
+        }
+        return out;
+    }
+
+    /** Checks that an object lies inside the mask, and its off value is zero. */
+    private static void checkObject(ObjectMask object, Extent extent)
+            throws ProvisionFailedException {
+        if (object.binaryValues().getOff() != 0) {
+            throw new ProvisionFailedException("Binary Off must be 0");
+        }
+        if (!extent.contains(object.boundingBox())) {
+            throw new ProvisionFailedException("Each object must lie entirely inside the mask");
+        }
+    }
+}
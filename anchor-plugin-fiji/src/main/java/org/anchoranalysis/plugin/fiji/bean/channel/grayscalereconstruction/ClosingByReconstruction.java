@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.Positive;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Performs a closing by reconstruction: a dilation, followed by a reconstruction by erosion above
+ * the channel.
+ *
+ * <p>Dark structures that are removed entirely by the dilation are removed, but the remaining
+ * structures are restored with their original shape.
+ *
+ * <p>The structuring element of the dilation is the neighborhood, applied {@code iterations}
+ * times.
+ *
+ * @author Owen Feehan
+ */
+public class ClosingByReconstruction extends MorphologicalReconstructionBase {
+
+    // START BEAN PROPERTIES
+    /** How many times to successively dilate, before reconstructing. */
+    @BeanField @Positive @Getter @Setter private int iterations = 1;
+    // END BEAN PROPERTIES
+
+    @Override
+    protected void reconstruct(
+            byte[][] image, byte[][] out, Extent extent, Neighborhood neighborhood) {
+        NeighborhoodFilter.maximum(image, out, extent, neighborhood, iterations);
+        new HybridReconstruction(extent, neighborhood).reconstructByErosion(out, image);
+    }
+}
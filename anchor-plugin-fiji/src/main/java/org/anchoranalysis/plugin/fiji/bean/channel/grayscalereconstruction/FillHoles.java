@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Fills holes in a channel, being dark regions that are not connected to the boundary.
+ *
+ * <p>The marker is the maximum intensity, except on the boundary where it is the channel, and it
+ * is reconstructed by erosion above the channel. Every regional minimum not connected to the
+ * boundary is raised to the lowest level at which it becomes connected.
+ *
+ * <p>The boundary includes the first and last slices only when neighbors include adjacent slices,
+ * and there is more than one slice. An image with a single slice is filled identically with
+ * either kind of neighborhood.
+ *
+ * @author Owen Feehan
+ */
+public class FillHoles extends MorphologicalReconstructionBase {
+
+    @Override
+    protected void reconstruct(
+            byte[][] image, byte[][] out, Extent extent, Neighborhood neighborhood) {
+        boolean boundaryZ = neighborhood.isThreeDimensional() && extent.z() > 1;
+        for (int z = 0; z < extent.z(); z++) {
+            boolean boundarySlice = boundaryZ && (z == 0 || z == extent.z() - 1);
+            for (int y = 0; y < extent.y(); y++) {
+                boolean boundaryRow = boundarySlice || y == 0 || y == extent.y() - 1;
+                for (int x = 0; x < extent.x(); x++) {
+                    int offset = extent.offset(x, y);
+                    if (boundaryRow || x == 0 || x == extent.x() - 1) {
+                        out[z][offset] = image[z][offset];
+                    } else {
+                        out[z][offset] = (byte) UnsignedByteVoxelType.MAX_VALUE_INT;
+                    }
+                }
+            }
+        }
+        new HybridReconstruction(extent, neighborhood).reconstructByErosion(out, image);
+    }
+}
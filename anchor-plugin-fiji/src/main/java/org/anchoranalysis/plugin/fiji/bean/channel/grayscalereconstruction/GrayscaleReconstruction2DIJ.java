@@ -21,66 +21,129 @@
  */
 package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
 
-import ij.ImagePlus;
 import java.util.Optional;
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.Positive;
 import org.anchoranalysis.core.exception.OperationFailedException;
 import org.anchoranalysis.image.voxel.Voxels;
 import org.anchoranalysis.image.voxel.VoxelsUntyped;
 import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
 import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
 import org.anchoranalysis.image.voxel.object.ObjectMask;
-import org.anchoranalysis.io.imagej.convert.ConvertFromImagePlus;
-import org.anchoranalysis.io.imagej.convert.ConvertToImagePlus;
 import org.anchoranalysis.plugin.image.bean.object.segment.channel.watershed.minima.grayscalereconstruction.GrayscaleReconstructionByErosion;
+import org.anchoranalysis.spatial.box.Extent;
 
-/** Performs 2D grayscale reconstruction using ImageJ's implementation. */
+/**
+ * Performs 2D grayscale reconstruction on each slice independently, with 8-connectivity.
+ *
+ * <p>The reconstruction always has the same size as the marker, with as many slices, whether or
+ * not a containing object is specified, and whether or not {@code thresholdEachLevel}.
+ *
+ * <p>Unsigned 8-bit, unsigned 16-bit and float voxels are supported, except when {@code
+ * thresholdEachLevel}, which supports only unsigned 8-bit voxels.
+ *
+ * <p>By default, a hybrid queue-based algorithm is used, whose time is roughly linear in the
+ * number of voxels. Optionally, the algorithm of ImageJ's {@link GreyscaleReconstruct_} can
+ * instead be used, which performs a binary reconstruction at each of the 256 intensity levels,
+ * with the levels distributed across threads.
+ *
+ * <p>If a containing object is specified, the marker is instead reconstructed in place, and
+ * returned. Only the voxels inside the object are reconstructed, with values only propagating
+ * through them, and only the bounding-box of the object is visited, so the cost is proportional to
+ * the size of the object, rather than of the image. Voxels outside the object are unchanged.
+ *
+ * <p>The mask is unchanged, as is the marker when there is no containing object.
+ */
 public class GrayscaleReconstruction2DIJ extends GrayscaleReconstructionByErosion {
 
+    // START BEAN PROPERTIES
+    /**
+     * If true, the algorithm of ImageJ's {@link GreyscaleReconstruct_} is used, thresholding and
+     * reconstructing each intensity level separately, rather than the hybrid algorithm.
+     *
+     * <p>Both produce identical results, but the hybrid algorithm is much faster.
+     */
+    @BeanField @Getter @Setter private boolean thresholdEachLevel = false;
+
+    /**
+     * When {@code thresholdEachLevel}, the maximum number of threads to reconstruct levels.
+     *
+     * <p>By default, a single thread, as jobs are usually already run in parallel. See {@link
+     * org.anchoranalysis.plugin.fiji.bean.channel.provider.distance.DistanceTransform3D}.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
+    // END BEAN PROPERTIES
+
     @Override
     public VoxelsUntyped reconstruction(
             VoxelsUntyped mask, VoxelsUntyped marker, Optional<ObjectMask> containingMask)
             throws OperationFailedException {
 
-        if (containingMask.isPresent()) {
-            throw new OperationFailedException("A mask is not supported for this operation");
+        if (containingMask.isPresent() && thresholdEachLevel) {
+            throw new OperationFailedException(
+                    "A mask is not supported when thresholding each level");
         }
 
-        if (!marker.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)
-                || !mask.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
-            throw new OperationFailedException("Only unsigned byte supported for marker image");
+        if (thresholdEachLevel) {
+            if (!marker.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)
+                    || !mask.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+                throw new OperationFailedException(
+                        "Only unsigned byte supported when thresholding each level");
+            }
+            if (!marker.extent().equals(mask.extent())) {
+                throw new OperationFailedException(
+                        String.format(
+                                "The marker (%s) and mask (%s) must have identical size",
+                                marker.extent(), mask.extent()));
+            }
+            return new VoxelsUntyped(reconstructionEachLevel(mask.asByte(), marker.asByte()));
         }
 
-        Voxels<UnsignedByteBuffer> markerCast = marker.asByte();
-        Voxels<UnsignedByteBuffer> maskCast = mask.asByte();
-
-        // We flip everything because the IJ plugin is reconstruction by Dilation, whereas we want
-        // reconstruction by Erosion
-        markerCast.arithmetic().subtractFrom(UnsignedByteVoxelType.MAX_VALUE_INT);
-        mask.subtractFromMaxValue();
-
-        Voxels<UnsignedByteBuffer> ret = reconstructionByDilation(maskCast, markerCast);
-        ret.arithmetic().subtractFrom(UnsignedByteVoxelType.MAX_VALUE_INT);
-
-        return new VoxelsUntyped(ret);
+        return ReconstructVoxels.reconstructForBean(
+                mask, marker, new Neighborhood(8), containingMask);
     }
 
     /**
-     * Performs reconstruction by dilation using ImageJ's GreyscaleReconstruct_ plugin.
+     * Performs reconstruction by erosion on each slice, by thresholding and binary reconstructing
+     * each intensity level, in parallel.
      *
-     * @param mask the mask {@link Voxels}
-     * @param marker the marker {@link Voxels}
-     * @return the reconstructed {@link Voxels}
+     * <p>As each level is reconstructed by dilation, copies of the marker and mask are inverted,
+     * and then the result is inverted.
+     *
+     * @param mask the mask {@link Voxels}, which is unchanged
+     * @param marker the marker {@link Voxels}, which is unchanged
+     * @return the reconstructed {@link Voxels}, of the same size as {@code marker}
      */
-    private Voxels<UnsignedByteBuffer> reconstructionByDilation(
+    private Voxels<UnsignedByteBuffer> reconstructionEachLevel(
             Voxels<UnsignedByteBuffer> mask, Voxels<UnsignedByteBuffer> marker) {
+        Extent extent = marker.extent();
 
-        ImagePlus imageMask = ConvertToImagePlus.fromSlice(mask, 0, "mask");
-        ImagePlus imageMarker = ConvertToImagePlus.fromSlice(marker, 0, "marker");
-
-        GreyscaleReconstruct_ gr = new GreyscaleReconstruct_();
-        Object[] ret = gr.exec(imageMask, imageMarker, "recon", true, false);
+        GreyscaleReconstructEachLevel reconstruct =
+                new GreyscaleReconstructEachLevel(extent.x(), extent.y(), false, numberThreads);
+        Voxels<UnsignedByteBuffer> reconstructed =
+                VoxelsFactory.getUnsignedByte().createUninitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] reconstructedInverted =
+                    reconstruct.reconstructByDilation(
+                            invertedSlice(mask.sliceBuffer(z).array()),
+                            invertedSlice(marker.sliceBuffer(z).array()));
+            byte[] reconstructedSlice = reconstructed.sliceBuffer(z).array();
+            for (int offset = 0; offset < reconstructedSlice.length; offset++) {
+                reconstructedSlice[offset] = (byte) ~reconstructedInverted[offset];
+            }
+        }
+        return reconstructed;
+    }
 
-        ImagePlus ipRecon = (ImagePlus) ret[1];
-        return ConvertFromImagePlus.toVoxels(ipRecon).asByte();
+    /** A newly-created inverted copy of {@code slice}. */
+    private static byte[] invertedSlice(byte[] slice) {
+        byte[] inverted = new byte[slice.length];
+        for (int offset = 0; offset < slice.length; offset++) {
+            inverted[offset] = (byte) ~slice[offset];
+        }
+        return inverted;
     }
 }
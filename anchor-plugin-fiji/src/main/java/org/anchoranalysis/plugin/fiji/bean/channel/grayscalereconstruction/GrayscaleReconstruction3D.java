@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import java.util.Optional;
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.plugin.image.bean.object.segment.channel.watershed.minima.grayscalereconstruction.GrayscaleReconstructionByErosion;
+
+/**
+ * Performs grayscale reconstruction across all slices, with neighbors in adjacent slices.
+ *
+ * <p>Unlike {@link GrayscaleReconstruction2DIJ}, which reconstructs each slice independently,
+ * values propagate along the Z-axis as well as in the XY plane.
+ *
+ * <p>If a containing object is specified, the marker is instead reconstructed in place, and
+ * returned. Only the voxels inside the object are reconstructed, with values only propagating
+ * through them, and only the bounding-box of the object is visited, so the cost is proportional to
+ * the size of the object, rather than of the image. Voxels outside the object are unchanged.
+ *
+ * <p>Unsigned 8-bit, unsigned 16-bit and float voxels are supported, with a cost that does not
+ * depend on the number of distinct intensities.
+ *
+ * <p>The mask is unchanged, as is the marker when there is no containing object.
+ */
+public class GrayscaleReconstruction3D extends GrayscaleReconstructionByErosion {
+
+    // START BEAN PROPERTIES
+    /**
+     * 6 for only the neighbors sharing a face, 18 to also include those sharing an edge, or 26 to
+     * also include those sharing a corner.
+     *
+     * <p>4 or 8 are also accepted, to reconstruct each slice independently.
+     */
+    @BeanField @Getter @Setter private int connectivity = 26;
+    // END BEAN PROPERTIES
+
+    @Override
+    public VoxelsUntyped reconstruction(
+            VoxelsUntyped mask, VoxelsUntyped marker, Optional<ObjectMask> containingMask)
+            throws OperationFailedException {
+
+        Neighborhood neighborhood;
+        try {
+            neighborhood = new Neighborhood(connectivity);
+        } catch (IllegalArgumentException e) {
+            throw new OperationFailedException(e);
+        }
+
+        return ReconstructVoxels.reconstructForBean(mask, marker, neighborhood, containingMask);
+    }
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import ij.process.ByteProcessor;
+import ij.process.FloodFiller;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Like {@link GreyscaleReconstruct_} but headless, and with the intensity levels distributed
+ * across threads.
+ *
+ * <p>At each intensity level, the mask and seed are thresholded, the thresholded mask is binary
+ * reconstructed from the thresholded seed, and the level is retained wherever reconstructed, if
+ * greater than any level retained so far. Each level is independent, and the result is identical
+ * to {@link GreyscaleReconstruct_}.
+ *
+ * <p>Each thread has its own scratch-space, and keeps its own maximum of the levels it
+ * reconstructs, so the threads share no mutable state. The maxima of the threads are merged once
+ * all levels are complete.
+ *
+ * <p>Unlike {@link GreyscaleReconstruct_}, each level creates no new arrays, images or plugins,
+ * and the thresholded seed is never materialized.
+ */
+class GreyscaleReconstructEachLevel {
+
+    /** Thresholded mask voxels, that are not (yet) reconstructed. */
+    private static final byte MASK = (byte) 127;
+
+    /** Reconstructed voxels. */
+    private static final int RECONSTRUCTED = 255;
+
+    private final int width;
+    private final int height;
+    private final boolean connect4;
+
+    /** The maximum number of threads to use. */
+    private final int numberThreads;
+
+    /**
+     * Creates for images of a particular size.
+     *
+     * @param width the width of the mask and seed.
+     * @param height the height of the mask and seed.
+     * @param connect4 if true, uses 4-connected neighbors; otherwise, uses 8-connected.
+     * @param numberThreads the maximum number of threads to use, which should be at least one.
+     */
+    public GreyscaleReconstructEachLevel(
+            int width, int height, boolean connect4, int numberThreads) {
+        this.width = width;
+        this.height = height;
+        this.connect4 = connect4;
+        this.numberThreads = numberThreads;
+    }
+
+    /**
+     * Reconstructs a seed by dilation beneath a mask.
+     *
+     * @param mask the mask, which is unchanged.
+     * @param seed the seed, which is unchanged.
+     * @return a newly created array with the reconstruction.
+     */
+    public byte[] reconstructByDilation(byte[] mask, byte[] seed) {
+        int[] levels = levelsInSeed(seed);
+        AtomicInteger nextLevel = new AtomicInteger();
+
+        int numberTasks = Math.max(Math.min(numberThreads, levels.length), 1);
+        List<Scratch> scratches = new ArrayList<>(numberTasks);
+        for (int task = 0; task < numberTasks; task++) {
+            scratches.add(new Scratch());
+        }
+
+        if (numberTasks == 1) {
+            reconstructLevels(mask, seed, levels, nextLevel, scratches.get(0));
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(numberTasks);
+            for (Scratch scratch : scratches) {
+                tasks.add(
+                        ForkJoinTask.adapt(
+                                () -> reconstructLevels(mask, seed, levels, nextLevel, scratch)));
+            }
+            ForkJoinPool pool = new ForkJoinPool(numberTasks);
+            try {
+                pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return mergeMaxima(scratches);
+    }
+
+    /** Reconstructs levels, taken in turn from {@code levels}, until none remain. */
+    private void reconstructLevels(
+            byte[] mask, byte[] seed, int[] levels, AtomicInteger nextLevel, Scratch scratch) {
+        int index;
+        while ((index = nextLevel.getAndIncrement()) < levels.length) {
+            scratch.reconstruct(mask, seed, levels[index]);
+        }
+    }
+
+    /**
+     * The levels which must be reconstructed, from highest to lowest.
+     *
+     * <p>A level is only reconstructed if some seed value is at or above it. Level zero is never
+     * reconstructed, as it would be retained nowhere.
+     */
+    private static int[] levelsInSeed(byte[] seed) {
+        int max = 0;
+        for (byte value : seed) {
+            max = Math.max(max, value & 0xFF);
+        }
+        int[] levels = new int[max];
+        for (int i = 0; i < max; i++) {
+            levels[i] = max - i;
+        }
+        return levels;
+    }
+
+    /** Combines the maxima of each thread. */
+    private static byte[] mergeMaxima(List<Scratch> scratches) {
+        byte[] merged = scratches.get(0).maxima;
+        for (Scratch scratch : scratches.subList(1, scratches.size())) {
+            for (int offset = 0; offset < merged.length; offset++) {
+                if ((scratch.maxima[offset] & 0xFF) > (merged[offset] & 0xFF)) {
+                    merged[offset] = scratch.maxima[offset];
+                }
+            }
+        }
+        return merged;
+    }
+
+    /** Scratch-space for a single thread, reused for each level it reconstructs. */
+    private class Scratch {
+
+        /** The binary reconstruction at the current level. */
+        private final byte[] binary = new byte[width * height];
+
+        /** The maximum level at which each voxel is reconstructed, by this thread. */
+        private final byte[] maxima = new byte[width * height];
+
+        private final FloodFiller filler;
+
+        public Scratch() {
+            ByteProcessor processor = new ByteProcessor(width, height, binary, null);
+            processor.setColor(RECONSTRUCTED);
+            filler = new FloodFiller(processor);
+        }
+
+        /** Binary reconstructs the mask from the seed, when both are thresholded at a level. */
+        public void reconstruct(byte[] mask, byte[] seed, int level) {
+            for (int offset = 0; offset < binary.length; offset++) {
+                binary[offset] = (mask[offset] & 0xFF) >= level ? MASK : 0;
+            }
+
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    if ((seed[offset] & 0xFF) >= level && binary[offset] == MASK) {
+                        fill(x, y);
+                    }
+                    offset++;
+                }
+            }
+
+            for (int offset = 0; offset < binary.length; offset++) {
+                if ((binary[offset] & 0xFF) == RECONSTRUCTED && level > (maxima[offset] & 0xFF)) {
+                    maxima[offset] = (byte) level;
+                }
+            }
+        }
+
+        private void fill(int x, int y) {
+            if (connect4) {
+                filler.fill(x, y);
+            } else {
+                filler.fill8(x, y);
+            }
+        }
+    }
+}
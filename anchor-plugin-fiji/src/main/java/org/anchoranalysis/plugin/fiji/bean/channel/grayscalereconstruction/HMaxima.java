@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.NonNegative;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Suppresses regional maxima whose height is not greater than a threshold (the <i>h-maxima
+ * transform</i>), or alternatively extracts those maxima (the <i>h-domes</i>).
+ *
+ * <p>The marker is the channel minus {@code height}, saturating at zero, and it is reconstructed
+ * by dilation beneath the channel. Every regional maximum is lowered by up to {@code height}.
+ *
+ * <p>See Vincent L. Morphological grayscale reconstruction in image analysis: applications and
+ * efficient algorithms. IEEE Transactions on Image Processing 2(2) 176-201, 1993.
+ *
+ * @author Owen Feehan
+ */
+public class HMaxima extends MorphologicalReconstructionBase {
+
+    // START BEAN PROPERTIES
+    /** How much the intensity of each regional maximum is lowered. */
+    @BeanField @NonNegative @Getter @Setter private int height = 1;
+
+    /**
+     * If true, the channel minus the h-maxima transform is created instead, so only the domes
+     * removed by the transform remain, on a zero background.
+     */
+    @BeanField @Getter @Setter private boolean domes = false;
+    // END BEAN PROPERTIES
+
+    @Override
+    protected void reconstruct(
+            byte[][] image, byte[][] out, Extent extent, Neighborhood neighborhood) {
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                out[z][offset] = (byte) Math.max((image[z][offset] & 0xFF) - height, 0);
+            }
+        }
+
+        new HybridReconstruction(extent, neighborhood).reconstructByDilation(out, image);
+
+        if (domes) {
+            for (int z = 0; z < extent.z(); z++) {
+                for (int offset = 0; offset < extent.areaXY(); offset++) {
+                    out[z][offset] = (byte) ((image[z][offset] & 0xFF) - (out[z][offset] & 0xFF));
+                }
+            }
+        }
+    }
+}
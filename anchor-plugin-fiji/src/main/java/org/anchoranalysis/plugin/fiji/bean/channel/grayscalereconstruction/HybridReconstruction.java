@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Grayscale reconstruction, by dilation or by erosion, using the hybrid algorithm of Vincent.
+ *
+ * <p>See Vincent L. Morphological grayscale reconstruction in image analysis: applications and
+ * efficient algorithms. IEEE Transactions on Image Processing 2(2) 176-201, 1993.
+ *
+ * <p>The marker is first propagated by a raster scan, and then by an anti-raster scan, each
+ * taking the maximum of the already-scanned neighbors, beneath the mask. Any voxel that could
+ * still propagate to a neighbor after both scans is placed in a queue, from which values are
+ * propagated until stability. As few voxels remain in the queue after the scans, this runs in
+ * roughly linear time, irrespective of the number of gray levels, so the cost is the same for
+ * 8-bit, 16-bit and float voxels.
+ *
+ * <p>Reconstruction by erosion is the dual, taking minima above the mask. Rather than inverting
+ * the marker and mask, every value is negated as it is read and written, by {@link VoxelValues},
+ * so reconstruction by dilation of the negated values is performed without any additional passes.
+ *
+ * <p>Optionally, reconstruction can be restricted to a window of the volume, and also to a region
+ * inside the window. Voxels outside are left unchanged, and are not neighbors of any voxel, so
+ * values never propagate through them.
+ *
+ * <p>The voxels are indexed by slice, and by offset in a slice, and the queue contains the index
+ * of each voxel in the entire volume. As this index is an {@code int}, volumes with more than
+ * {@link Integer#MAX_VALUE} voxels are rejected.
+ */
+public class HybridReconstruction {
+
+    private final Extent extent;
+    private final Neighborhood neighborhood;
+
+    private final int[][] before;
+    private final int[][] after;
+    private final int[][] all;
+
+    /** The minimum corner of the window. */
+    private final ReadableTuple3i corner;
+
+    /** The size of the window. */
+    private final Extent window;
+
+    /**
+     * For each slice of the window, non-zero for voxels inside the region, or null if there is no
+     * region.
+     */
+    private final byte[][] region;
+
+    /**
+     * Creates to reconstruct voxels of a particular size, with a particular neighborhood.
+     *
+     * @param extent the size of the marker and mask.
+     * @param neighborhood which voxels are neighbors.
+     * @throws IllegalArgumentException if {@code extent} has more than {@link Integer#MAX_VALUE}
+     *     voxels.
+     */
+    public HybridReconstruction(Extent extent, Neighborhood neighborhood) {
+        this(extent, neighborhood, new Point3i(0, 0, 0), extent, null);
+    }
+
+    /**
+     * Creates to reconstruct only voxels inside a window, and optionally a region.
+     *
+     * @param extent the size of the marker and mask.
+     * @param neighborhood which voxels are neighbors.
+     * @param corner the minimum corner of the window.
+     * @param window the size of the window, which must lie inside {@code extent}.
+     * @param region for each slice of the window, non-zero for voxels inside the region, or null
+     *     to reconstruct every voxel in the window.
+     * @throws IllegalArgumentException if {@code extent} has more than {@link Integer#MAX_VALUE}
+     *     voxels.
+     */
+    public HybridReconstruction(
+            Extent extent,
+            Neighborhood neighborhood,
+            ReadableTuple3i corner,
+            Extent window,
+            byte[][] region) {
+        checkIndexable(extent);
+        this.extent = extent;
+        this.neighborhood = neighborhood;
+        this.before = neighborhood.before();
+        this.after = neighborhood.after();
+        this.all = neighborhood.all();
+        this.corner = corner;
+        this.window = window;
+        this.region = region;
+    }
+
+    /**
+     * Checks that every voxel in a volume can be indexed by an {@code int}.
+     *
+     * @param extent the size of the volume.
+     * @throws IllegalArgumentException if {@code extent} has more than {@link Integer#MAX_VALUE}
+     *     voxels.
+     */
+    static void checkIndexable(Extent extent) {
+        if (extent.calculateVolume() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Reconstruction supports at most %d voxels, but %s has %d voxels",
+                            Integer.MAX_VALUE, extent, extent.calculateVolume()));
+        }
+    }
+
+    /**
+     * Reconstructs an unsigned 8-bit marker by dilation beneath a mask.
+     *
+     * @param marker the marker, for each slice, which is replaced by the reconstruction.
+     * @param mask the mask, for each slice, which is unchanged.
+     */
+    public void reconstructByDilation(byte[][] marker, byte[][] mask) {
+        reconstructByDilation(VoxelValues.of(marker, false), VoxelValues.of(mask, false));
+    }
+
+    /**
+     * Reconstructs an unsigned 8-bit marker by erosion above a mask.
+     *
+     * @param marker the marker, for each slice, which is replaced by the reconstruction.
+     * @param mask the mask, for each slice, which is unchanged.
+     */
+    public void reconstructByErosion(byte[][] marker, byte[][] mask) {
+        reconstructByDilation(VoxelValues.of(marker, true), VoxelValues.of(mask, true));
+    }
+
+    /**
+     * Reconstructs a marker by dilation beneath a mask.
+     *
+     * <p>Where the marker is greater than the mask, it is first reduced to the mask.
+     *
+     * <p>If {@code marker} and {@code mask} both negate their values, this is a reconstruction by
+     * erosion.
+     *
+     * @param marker the marker, which is replaced by the reconstruction.
+     * @param mask the mask, which is unchanged.
+     */
+    void reconstructByDilation(VoxelValues marker, VoxelValues mask) {
+        limitToMask(marker, mask);
+        scanForward(marker, mask);
+        IntQueue queue = new IntQueue(window.areaXY());
+        scanBackward(marker, mask, queue);
+        propagate(marker, mask, queue);
+    }
+
+    /** Reduces the marker to the mask, wherever it is greater. */
+    private void limitToMask(VoxelValues marker, VoxelValues mask) {
+        for (int z = corner.z(); z < corner.z() + window.z(); z++) {
+            for (int y = corner.y(); y < corner.y() + window.y(); y++) {
+                for (int x = corner.x(); x < corner.x() + window.x(); x++) {
+                    int offset = extent.offset(x, y);
+                    float maskValue = mask.get(z, offset);
+                    if (inRegion(x, y, z) && marker.get(z, offset) > maskValue) {
+                        marker.set(z, offset, maskValue);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Propagates the maximum of the preceding neighbors, in raster order. */
+    private void scanForward(VoxelValues marker, VoxelValues mask) {
+        for (int z = corner.z(); z < corner.z() + window.z(); z++) {
+            for (int y = corner.y(); y < corner.y() + window.y(); y++) {
+                for (int x = corner.x(); x < corner.x() + window.x(); x++) {
+                    if (inRegion(x, y, z)) {
+                        int offset = extent.offset(x, y);
+                        float value = maxNeighbor(marker, x, y, z, before);
+                        marker.set(z, offset, min(value, mask.get(z, offset)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Propagates the maximum of the following neighbors, in anti-raster order, and queues any
+     * voxel that can still propagate to a following neighbor.
+     */
+    private void scanBackward(VoxelValues marker, VoxelValues mask, IntQueue queue) {
+        for (int z = corner.z() + window.z() - 1; z >= corner.z(); z--) {
+            for (int y = corner.y() + window.y() - 1; y >= corner.y(); y--) {
+                for (int x = corner.x() + window.x() - 1; x >= corner.x(); x--) {
+                    if (!inRegion(x, y, z)) {
+                        continue;
+                    }
+                    int offset = extent.offset(x, y);
+                    float value = maxNeighbor(marker, x, y, z, after);
+                    value = min(value, mask.get(z, offset));
+                    marker.set(z, offset, value);
+                    if (canPropagate(marker, mask, x, y, z, value)) {
+                        queue.push(z * extent.areaXY() + offset);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Propagates from each voxel in the queue to its neighbors, until the queue is empty. */
+    private void propagate(VoxelValues marker, VoxelValues mask, IntQueue queue) {
+        int areaXY = extent.areaXY();
+        while (!queue.isEmpty()) {
+            int index = queue.pop();
+            int z = index / areaXY;
+            int offset = index % areaXY;
+            int x = offset % extent.x();
+            int y = offset / extent.x();
+            float value = marker.get(z, offset);
+            boolean inside = allInside(x, y, z);
+            for (int[] neighbor : all) {
+                if (!inside && !isNeighbor(x, y, z, neighbor)) {
+                    continue;
+                }
+                int neighborZ = z + neighbor[2];
+                int neighborOffset = offset + neighbor[1] * extent.x() + neighbor[0];
+                float neighborValue = marker.get(neighborZ, neighborOffset);
+                float neighborMask = mask.get(neighborZ, neighborOffset);
+                if (neighborValue < value && neighborMask != neighborValue) {
+                    marker.set(neighborZ, neighborOffset, min(value, neighborMask));
+                    queue.push(neighborZ * areaXY + neighborOffset);
+                }
+            }
+        }
+    }
+
+    /** The maximum of a voxel's value and the values of some of its neighbors. */
+    private float maxNeighbor(VoxelValues marker, int x, int y, int z, int[][] neighbors) {
+        int offset = extent.offset(x, y);
+        float value = marker.get(z, offset);
+        boolean inside = allInside(x, y, z);
+        for (int[] neighbor : neighbors) {
+            if (inside || isNeighbor(x, y, z, neighbor)) {
+                int neighborOffset = offset + neighbor[1] * extent.x() + neighbor[0];
+                float neighborValue = marker.get(z + neighbor[2], neighborOffset);
+                if (neighborValue > value) {
+                    value = neighborValue;
+                }
+            }
+        }
+        return value;
+    }
+
+    /** Whether a voxel can increase any following neighbor, after the backward scan. */
+    private boolean canPropagate(
+            VoxelValues marker, VoxelValues mask, int x, int y, int z, float value) {
+        int offset = extent.offset(x, y);
+        boolean inside = allInside(x, y, z);
+        for (int[] neighbor : after) {
+            if (inside || isNeighbor(x, y, z, neighbor)) {
+                int neighborZ = z + neighbor[2];
+                int neighborOffset = offset + neighbor[1] * extent.x() + neighbor[0];
+                float neighborValue = marker.get(neighborZ, neighborOffset);
+                if (neighborValue < value && neighborValue < mask.get(neighborZ, neighborOffset)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether every neighbor of a voxel lies inside the window, and there is no region, so no
+     * neighbor needs to be checked individually.
+     */
+    private boolean allInside(int x, int y, int z) {
+        return region == null
+                && neighborhood.allInside(x - corner.x(), y - corner.y(), z - corner.z(), window);
+    }
+
+    /** Whether a neighbor of a voxel lies inside the window, and the region. */
+    private boolean isNeighbor(int x, int y, int z, int[] neighbor) {
+        int neighborX = x + neighbor[0] - corner.x();
+        int neighborY = y + neighbor[1] - corner.y();
+        int neighborZ = z + neighbor[2] - corner.z();
+        return window.contains(neighborX, neighborY, neighborZ)
+                && (region == null || region[neighborZ][window.offset(neighborX, neighborY)] != 0);
+    }
+
+    /**
+     * The minimum of two values.
+     *
+     * <p>Unlike {@link Math#min(float, float)}, this does not check for {@code NaN} or negative
+     * zero, which are irrelevant here, and is considerably faster.
+     */
+    private static float min(float first, float second) {
+        return first <= second ? first : second;
+    }
+
+    /** Whether a voxel, inside the window, lies inside the region. */
+    private boolean inRegion(int x, int y, int z) {
+        return region == null
+                || region[z - corner.z()][window.offset(x - corner.x(), y - corner.y())] != 0;
+    }
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+/**
+ * A first-in first-out queue of primitive integers, backed by a circular array.
+ *
+ * <p>This avoids boxing each element, as would occur with a {@link java.util.ArrayDeque}. The
+ * array doubles in size whenever it is full.
+ */
+class IntQueue {
+
+    private int[] elements;
+
+    /** The index of the element at the head of the queue. */
+    private int head = 0;
+
+    /** The number of elements in the queue. */
+    private int size = 0;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param initialCapacity how many elements can be added before the array must grow.
+     */
+    public IntQueue(int initialCapacity) {
+        elements = new int[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Adds an element to the tail of the queue.
+     *
+     * @param element the element to add.
+     */
+    public void push(int element) {
+        if (size == elements.length) {
+            grow();
+        }
+        int tail = head + size;
+        if (tail >= elements.length) {
+            tail -= elements.length;
+        }
+        elements[tail] = element;
+        size++;
+    }
+
+    /**
+     * Removes the element at the head of the queue.
+     *
+     * @return the removed element.
+     */
+    public int pop() {
+        int element = elements[head];
+        head++;
+        if (head == elements.length) {
+            head = 0;
+        }
+        size--;
+        return element;
+    }
+
+    /**
+     * Whether the queue contains no elements.
+     *
+     * @return true if there are no elements.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Doubles the size of the array, moving the elements so the head is at index zero. */
+    private void grow() {
+        int[] grown = new int[elements.length * 2];
+        int untilEnd = elements.length - head;
+        System.arraycopy(elements, head, grown, 0, untilEnd);
+        System.arraycopy(elements, 0, grown, untilEnd, head);
+        elements = grown;
+        head = 0;
+    }
+}
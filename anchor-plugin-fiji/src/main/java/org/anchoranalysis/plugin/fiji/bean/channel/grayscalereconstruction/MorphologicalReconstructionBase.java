@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.bean.provider.ChannelProviderUnary;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Base class for operations that build a marker from a channel, and then reconstruct the marker
+ * with the channel as mask, using {@link HybridReconstruction}.
+ *
+ * <p>The marker is built directly in a newly created channel, which is then reconstructed in
+ * place, and returned. The channel provided is unchanged.
+ *
+ * @author Owen Feehan
+ */
+public abstract class MorphologicalReconstructionBase extends ChannelProviderUnary {
+
+    // START BEAN PROPERTIES
+    /**
+     * 6 for only the neighbors sharing a face, 18 to also include those sharing an edge, or 26 to
+     * also include those sharing a corner.
+     *
+     * <p>4 or 8 are also accepted, to process each slice independently.
+     */
+    @BeanField @Getter @Setter private int connectivity = 26;
+    // END BEAN PROPERTIES
+
+    @Override
+    public Channel createFromChannel(Channel channel) throws ProvisionFailedException {
+
+        if (!channel.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+            throw new ProvisionFailedException("Only unsigned byte is supported for the channel");
+        }
+
+        Neighborhood neighborhood;
+        try {
+            neighborhood = new Neighborhood(connectivity);
+            HybridReconstruction.checkIndexable(channel.extent());
+        } catch (IllegalArgumentException e) {
+            throw new ProvisionFailedException(e);
+        }
+
+        Channel out =
+                ChannelFactory.instance()
+                        .createUninitialised(channel.dimensions(), UnsignedByteVoxelType.INSTANCE);
+        reconstruct(
+                ReconstructVoxels.slices(channel.voxels().asByte()),
+                ReconstructVoxels.slices(out.voxels().asByte()),
+                channel.extent(),
+                neighborhood);
+        return out;
+    }
+
+    /**
+     * Builds a marker from {@code image} into {@code out}, and reconstructs it.
+     *
+     * @param image the voxels of the channel, for each slice, which must be unchanged.
+     * @param out the voxels to create, for each slice, which initially have undefined values.
+     * @param extent the size of {@code image} and {@code out}.
+     * @param neighborhood which voxels are neighbors.
+     */
+    protected abstract void reconstruct(
+            byte[][] image, byte[][] out, Extent extent, Neighborhood neighborhood);
+}
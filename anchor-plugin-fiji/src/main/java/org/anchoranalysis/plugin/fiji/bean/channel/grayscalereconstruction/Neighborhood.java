@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * The neighbors of a voxel, divided into those that precede it in raster order, and those that
+ * follow it.
+ *
+ * <p>Each neighbor is an offset along the X, Y and Z axes, each of -1, 0 or 1.
+ *
+ * <p>A connectivity of 4 or 8 considers only neighbors in the same XY plane, whereas 6, 18 or 26
+ * also considers neighbors in adjacent slices.
+ */
+public class Neighborhood {
+
+    /** The neighbors that precede a voxel in raster order. */
+    private final List<int[]> before = new ArrayList<>();
+
+    /** The neighbors that follow a voxel in raster order. */
+    private final List<int[]> after = new ArrayList<>();
+
+    /** Whether any neighbors lie in adjacent slices. */
+    private final boolean threeDimensional;
+
+    /**
+     * Creates a neighborhood with a particular connectivity.
+     *
+     * @param connectivity in 2D, 4 for only the neighbors sharing an edge, or 8 to also include
+     *     the neighbors sharing a corner. In 3D, 6 for only the neighbors sharing a face, 18 to
+     *     also include those sharing an edge, or 26 to also include those sharing a corner.
+     * @throws IllegalArgumentException if {@code connectivity} is not one of 4, 8, 6, 18 or 26.
+     */
+    public Neighborhood(int connectivity) {
+        this.threeDimensional = connectivity == 6 || connectivity == 18 || connectivity == 26;
+        int maxNonZero = maxNonZeroOffsets(connectivity);
+        int extentZ = threeDimensional ? 1 : 0;
+        for (int z = -extentZ; z <= extentZ; z++) {
+            for (int y = -1; y <= 1; y++) {
+                for (int x = -1; x <= 1; x++) {
+                    int nonZero = Math.abs(x) + Math.abs(y) + Math.abs(z);
+                    if (nonZero > 0 && nonZero <= maxNonZero) {
+                        int[] offset = new int[] {x, y, z};
+                        if (z < 0 || (z == 0 && (y < 0 || (y == 0 && x < 0)))) {
+                            before.add(offset);
+                        } else {
+                            after.add(offset);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The neighbors that precede a voxel in raster order.
+     *
+     * @return offsets along the X, Y and Z axes, for each neighbor.
+     */
+    public int[][] before() {
+        return before.toArray(new int[0][]);
+    }
+
+    /**
+     * The neighbors that follow a voxel in raster order.
+     *
+     * @return offsets along the X, Y and Z axes, for each neighbor.
+     */
+    public int[][] after() {
+        return after.toArray(new int[0][]);
+    }
+
+    /**
+     * All neighbors.
+     *
+     * @return offsets along the X, Y and Z axes, for each neighbor.
+     */
+    public int[][] all() {
+        List<int[]> all = new ArrayList<>(before);
+        all.addAll(after);
+        return all.toArray(new int[0][]);
+    }
+
+    /**
+     * Whether any neighbors lie in adjacent slices.
+     *
+     * @return true for a connectivity of 6, 18 or 26, false for 4 or 8.
+     */
+    public boolean isThreeDimensional() {
+        return threeDimensional;
+    }
+
+    /**
+     * Whether every neighbor of a voxel lies inside an extent.
+     *
+     * @param x the position of the voxel along the X-axis.
+     * @param y the position of the voxel along the Y-axis.
+     * @param z the position of the voxel along the Z-axis.
+     * @param extent the extent.
+     * @return true if all neighbors lie inside {@code extent}.
+     */
+    public boolean allInside(int x, int y, int z, Extent extent) {
+        boolean insideXY = x > 0 && y > 0 && x < extent.x() - 1 && y < extent.y() - 1;
+        return insideXY && (!threeDimensional || (z > 0 && z < extent.z() - 1));
+    }
+
+    /** The maximum number of axes along which a neighbor may be offset. */
+    private static int maxNonZeroOffsets(int connectivity) {
+        switch (connectivity) {
+            case 4:
+            case 6:
+                return 1;
+            case 8:
+            case 18:
+                return 2;
+            case 26:
+                return 3;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unsupported connectivity: %d", connectivity));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Replaces each voxel with the maximum or minimum of itself and its neighbors, as a dilation or
+ * erosion whose structuring element is a {@link Neighborhood}.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class NeighborhoodFilter {
+
+    /**
+     * Dilates, by replacing each voxel with the maximum of itself and its neighbors.
+     *
+     * @param source the voxels to dilate, for each slice, which are unchanged.
+     * @param destination where the dilated voxels are placed, for each slice.
+     * @param extent the size of {@code source} and {@code destination}.
+     * @param neighborhood which voxels are neighbors.
+     * @param iterations how many times to successively dilate.
+     */
+    public static void maximum(
+            byte[][] source,
+            byte[][] destination,
+            Extent extent,
+            Neighborhood neighborhood,
+            int iterations) {
+        filter(source, destination, extent, neighborhood, iterations, 0);
+    }
+
+    /**
+     * Erodes, by replacing each voxel with the minimum of itself and its neighbors.
+     *
+     * @param source the voxels to erode, for each slice, which are unchanged.
+     * @param destination where the eroded voxels are placed, for each slice.
+     * @param extent the size of {@code source} and {@code destination}.
+     * @param neighborhood which voxels are neighbors.
+     * @param iterations how many times to successively erode.
+     */
+    public static void minimum(
+            byte[][] source,
+            byte[][] destination,
+            Extent extent,
+            Neighborhood neighborhood,
+            int iterations) {
+        filter(source, destination, extent, neighborhood, iterations, 0xFF);
+    }
+
+    /**
+     * Takes the maximum, after an exclusive-or of every value with {@code flip}, so {@code 0xFF}
+     * takes the minimum.
+     */
+    private static void filter(
+            byte[][] source,
+            byte[][] destination,
+            Extent extent,
+            Neighborhood neighborhood,
+            int iterations,
+            int flip) {
+        int[][] all = neighborhood.all();
+        byte[][] from = source;
+        byte[][] scratch = null;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            // alternate between the destination and scratch-space, so the last is the destination
+            byte[][] to;
+            if ((iterations - iteration) % 2 == 1) {
+                to = destination;
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[extent.z()][extent.areaXY()];
+                }
+                to = scratch;
+            }
+            filterOnce(from, to, extent, neighborhood, all, flip);
+            from = to;
+        }
+    }
+
+    private static void filterOnce(
+            byte[][] from,
+            byte[][] to,
+            Extent extent,
+            Neighborhood neighborhood,
+            int[][] neighbors,
+            int flip) {
+        for (int z = 0; z < extent.z(); z++) {
+            for (int y = 0; y < extent.y(); y++) {
+                for (int x = 0; x < extent.x(); x++) {
+                    int offset = extent.offset(x, y);
+                    int value = (from[z][offset] & 0xFF) ^ flip;
+                    boolean inside = neighborhood.allInside(x, y, z, extent);
+                    for (int[] neighbor : neighbors) {
+                        int neighborX = x + neighbor[0];
+                        int neighborY = y + neighbor[1];
+                        int neighborZ = z + neighbor[2];
+                        if (inside || extent.contains(neighborX, neighborY, neighborZ)) {
+                            int neighborOffset = offset + neighbor[1] * extent.x() + neighbor[0];
+                            int neighborValue = (from[neighborZ][neighborOffset] & 0xFF) ^ flip;
+                            value = Math.max(value, neighborValue);
+                        }
+                    }
+                    to[z][offset] = (byte) (value ^ flip);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Performs grayscale reconstruction by erosion on {@link Voxels}, with {@link
+ * HybridReconstruction}, optionally only inside an object.
+ *
+ * <p>Unsigned 8-bit, unsigned 16-bit and float voxels are supported.
+ *
+ * <p>The mask is unchanged.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class ReconstructVoxels {
+
+    /**
+     * Reconstructs a marker by erosion above a mask, replacing the marker.
+     *
+     * <p>When an object is specified, only voxels inside the object are reconstructed, and values
+     * only propagate through voxels inside the object. Only the bounding-box of the object is
+     * visited, and nothing is copied, so the cost is proportional to the size of the object,
+     * rather than of the marker. Every voxel outside the object is unchanged.
+     *
+     * @param mask the mask, which is unchanged.
+     * @param marker the marker, which is replaced by the reconstruction, and must have the same
+     *     size and data type as {@code mask}.
+     * @param neighborhood which voxels are neighbors.
+     * @param containingMask if present, only voxels inside this object are reconstructed.
+     * @throws OperationFailedException if the marker and mask differ in size or data type, or the
+     *     data type is not supported, or the marker has more than {@link Integer#MAX_VALUE}
+     *     voxels, or the object lies outside the marker, or its off value is not zero.
+     */
+    public static void reconstructByErosion(
+            VoxelsUntyped mask,
+            VoxelsUntyped marker,
+            Neighborhood neighborhood,
+            Optional<ObjectMask> containingMask)
+            throws OperationFailedException {
+
+        if (!marker.extent().equals(mask.extent())) {
+            throw new OperationFailedException(
+                    String.format(
+                            "The marker (%s) and mask (%s) must have identical size",
+                            marker.extent(), mask.extent()));
+        }
+
+        if (!marker.getVoxelDataType().equals(mask.getVoxelDataType())) {
+            throw new OperationFailedException(
+                    String.format(
+                            "The marker (%s) and mask (%s) must have identical data types",
+                            marker.getVoxelDataType(), mask.getVoxelDataType()));
+        }
+
+        Extent extent = marker.extent();
+        try {
+            HybridReconstruction.checkIndexable(extent);
+        } catch (IllegalArgumentException e) {
+            throw new OperationFailedException(e);
+        }
+
+        HybridReconstruction reconstruction;
+        if (containingMask.isPresent()) {
+            ObjectMask object = containingMask.get();
+            checkObject(object, extent);
+            reconstruction =
+                    new HybridReconstruction(
+                            extent,
+                            neighborhood,
+                            object.boundingBox().cornerMin(),
+                            object.extent(),
+                            slices(object.voxels()));
+        } else {
+            reconstruction = new HybridReconstruction(extent, neighborhood);
+        }
+        reconstruction.reconstructByDilation(
+                VoxelValues.of(marker, true), VoxelValues.of(mask, true));
+    }
+
+    /**
+     * Reconstructs by erosion, as a bean does, in place when an object is specified.
+     *
+     * <p>Without an object, the marker is unchanged, and a reconstructed copy is returned. With an
+     * object, the marker itself is reconstructed inside the object, and returned, so the cost is
+     * proportional to the size of the object.
+     *
+     * @param mask the mask, which is unchanged.
+     * @param marker the marker, which must have the same size and data type as {@code mask}.
+     * @param neighborhood which voxels are neighbors.
+     * @param containingMask if present, only voxels inside this object are reconstructed.
+     * @return the reconstruction, which is {@code marker} itself if an object is present.
+     * @throws OperationFailedException as for {@link #reconstructByErosion}.
+     */
+    public static VoxelsUntyped reconstructForBean(
+            VoxelsUntyped mask,
+            VoxelsUntyped marker,
+            Neighborhood neighborhood,
+            Optional<ObjectMask> containingMask)
+            throws OperationFailedException {
+        VoxelsUntyped reconstructed =
+                containingMask.isPresent() ? marker : new VoxelsUntyped(marker.any().duplicate());
+        reconstructByErosion(mask, reconstructed, neighborhood, containingMask);
+        return reconstructed;
+    }
+
+    /**
+     * The array of each slice in {@code voxels}.
+     *
+     * @param voxels the voxels.
+     * @return the array of each slice, indexed by position along the Z-axis.
+     */
+    public static byte[][] slices(Voxels<UnsignedByteBuffer> voxels) {
+        byte[][] slices = new byte[voxels.extent().z()][];
+        for (int z = 0; z < slices.length; z++) {
+            slices[z] = voxels.sliceBuffer(z).array();
+        }
+        return slices;
+    }
+
+    /** Checks that an object lies inside the marker, and its off value is zero. */
+    private static void checkObject(ObjectMask object, Extent extent)
+            throws OperationFailedException {
+        if (object.binaryValues().getOff() != 0) {
+            throw new OperationFailedException("Binary Off must be 0");
+        }
+        if (!extent.contains(object.boundingBox())) {
+            throw new OperationFailedException(
+                    "The containing object must lie entirely inside the marker");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Binary reconstruction, by flooding the foreground of a mask from seed voxels.
+ *
+ * <p>Every foreground voxel of the mask that is connected, through other foreground voxels of the
+ * mask, to a voxel that is foreground in both the mask and the seed, is reconstructed. If no
+ * voxel is foreground in both, nothing is reconstructed.
+ *
+ * <p>Each voxel is visited once, via a queue of primitive ints, so the time is linear in the
+ * number of voxels. As the queue contains the index of each voxel in the entire volume, volumes
+ * with more than {@link Integer#MAX_VALUE} voxels are rejected.
+ *
+ * <p>Reconstruction may be restricted to a window of the volume, and optionally also to a region
+ * inside the window, in which case voxels outside are never reconstructed, and the flood never
+ * passes through them.
+ */
+class SeededFlood {
+
+    private final Extent extent;
+    private final int[][] all;
+
+    /** The minimum corner of the window. */
+    private final ReadableTuple3i corner;
+
+    /** The size of the window. */
+    private final Extent window;
+
+    /**
+     * For each slice of the window, non-zero for voxels inside the region, or null if there is no
+     * region.
+     */
+    private final byte[][] region;
+
+    /**
+     * Creates to reconstruct only inside a window.
+     *
+     * @param extent the size of the mask, seed and reconstruction.
+     * @param neighborhood which voxels are neighbors.
+     * @param corner the minimum corner of the window.
+     * @param window the size of the window, which must lie inside {@code extent}.
+     * @param region for each slice of the window, non-zero for voxels inside the region, or null
+     *     to reconstruct every voxel in the window.
+     * @throws IllegalArgumentException if {@code extent} has more than {@link Integer#MAX_VALUE}
+     *     voxels.
+     */
+    public SeededFlood(
+            Extent extent,
+            Neighborhood neighborhood,
+            ReadableTuple3i corner,
+            Extent window,
+            byte[][] region) {
+        HybridReconstruction.checkIndexable(extent);
+        this.extent = extent;
+        this.all = neighborhood.all();
+        this.corner = corner;
+        this.window = window;
+        this.region = region;
+    }
+
+    /**
+     * Reconstructs the foreground of a mask from seeds.
+     *
+     * @param mask the mask, for each slice, which is unchanged.
+     * @param maskOn the value of foreground voxels in {@code mask}.
+     * @param seed the seed, for each slice, which is unchanged.
+     * @param seedOn the value of foreground voxels in {@code seed}.
+     * @param reconstruction for each slice, which is set to {@code reconstructionOn} for each
+     *     reconstructed voxel, and otherwise unchanged. It should initially not contain {@code
+     *     reconstructionOn} inside the window.
+     * @param reconstructionOn the value to assign to reconstructed voxels.
+     */
+    public void reconstruct(
+            byte[][] mask,
+            byte maskOn,
+            byte[][] seed,
+            byte seedOn,
+            byte[][] reconstruction,
+            byte reconstructionOn) {
+        IntQueue queue = new IntQueue(window.areaXY());
+        int areaXY = extent.areaXY();
+        for (int z = corner.z(); z < corner.z() + window.z(); z++) {
+            for (int y = corner.y(); y < corner.y() + window.y(); y++) {
+                for (int x = corner.x(); x < corner.x() + window.x(); x++) {
+                    int offset = extent.offset(x, y);
+                    if (seed[z][offset] == seedOn
+                            && mask[z][offset] == maskOn
+                            && reconstruction[z][offset] != reconstructionOn
+                            && inRegion(x, y, z)) {
+                        reconstruction[z][offset] = reconstructionOn;
+                        queue.push(z * areaXY + offset);
+                        flood(mask, maskOn, reconstruction, reconstructionOn, queue);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Reconstructs every voxel connected to those in the queue, until the queue is empty. */
+    private void flood(
+            byte[][] mask,
+            byte maskOn,
+            byte[][] reconstruction,
+            byte reconstructionOn,
+            IntQueue queue) {
+        int areaXY = extent.areaXY();
+        while (!queue.isEmpty()) {
+            int index = queue.pop();
+            int z = index / areaXY;
+            int offset = index % areaXY;
+            int x = offset % extent.x();
+            int y = offset / extent.x();
+            for (int[] neighbor : all) {
+                int neighborX = x + neighbor[0];
+                int neighborY = y + neighbor[1];
+                int neighborZ = z + neighbor[2];
+                if (!insideWindow(neighborX, neighborY, neighborZ)) {
+                    continue;
+                }
+                int neighborOffset = offset + neighbor[1] * extent.x() + neighbor[0];
+                if (mask[neighborZ][neighborOffset] == maskOn
+                        && reconstruction[neighborZ][neighborOffset] != reconstructionOn
+                        && inRegion(neighborX, neighborY, neighborZ)) {
+                    reconstruction[neighborZ][neighborOffset] = reconstructionOn;
+                    queue.push(neighborZ * areaXY + neighborOffset);
+                }
+            }
+        }
+    }
+
+    /** Whether a voxel lies inside the window. */
+    private boolean insideWindow(int x, int y, int z) {
+        return x >= corner.x()
+                && y >= corner.y()
+                && z >= corner.z()
+                && x < corner.x() + window.x()
+                && y < corner.y() + window.y()
+                && z < corner.z() + window.z();
+    }
+
+    /** Whether a voxel, inside the window, lies inside the region. */
+    private boolean inRegion(int x, int y, int z) {
+        return region == null
+                || region[z - corner.z()][window.offset(x - corner.x(), y - corner.y())] != 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+
+/**
+ * Reads and writes the values of voxels of any data type as floats, optionally negated.
+ *
+ * <p>Every unsigned 8-bit and 16-bit value is exactly representable as a float, so no precision
+ * is lost. Negating every value that is read and written turns a reconstruction by dilation into
+ * a reconstruction by erosion, without any additional pass over the voxels.
+ *
+ * <p>The voxels are indexed by slice, and by offset in a slice.
+ */
+abstract class VoxelValues {
+
+    /** One, or minus one to negate each value. */
+    protected final float sign;
+
+    /**
+     * Creates with a sign.
+     *
+     * @param negate if true, each value is negated when read and written.
+     */
+    protected VoxelValues(boolean negate) {
+        this.sign = negate ? -1.0f : 1.0f;
+    }
+
+    /**
+     * Accesses the values of voxels, which may be of unsigned 8-bit, unsigned 16-bit or float
+     * type.
+     *
+     * @param voxels the voxels.
+     * @param negate if true, each value is negated when read and written.
+     * @return a newly created instance, that reads and writes directly into {@code voxels}.
+     * @throws OperationFailedException if the data type is not supported.
+     */
+    public static VoxelValues of(VoxelsUntyped voxels, boolean negate)
+            throws OperationFailedException {
+        VoxelDataType dataType = voxels.getVoxelDataType();
+        int sizeZ = voxels.extent().z();
+        if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+            return new UnsignedByteValues(ReconstructVoxels.slices(voxels.asByte()), negate);
+        } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+            short[][] slices = new short[sizeZ][];
+            for (int z = 0; z < sizeZ; z++) {
+                slices[z] = voxels.asShort().sliceBuffer(z).array();
+            }
+            return new UnsignedShortValues(slices, negate);
+        } else if (dataType.equals(FloatVoxelType.INSTANCE)) {
+            float[][] slices = new float[sizeZ][];
+            for (int z = 0; z < sizeZ; z++) {
+                slices[z] = voxels.asFloat().sliceBuffer(z).array();
+            }
+            return new FloatValues(slices, negate);
+        } else {
+            throw new OperationFailedException(
+                    String.format("Unsupported data type for reconstruction: %s", dataType));
+        }
+    }
+
+    /**
+     * Accesses the values of unsigned 8-bit voxels.
+     *
+     * @param slices the voxels, for each slice.
+     * @param negate if true, each value is negated when read and written.
+     * @return a newly created instance, that reads and writes directly into {@code slices}.
+     */
+    public static VoxelValues of(byte[][] slices, boolean negate) {
+        return new UnsignedByteValues(slices, negate);
+    }
+
+    /**
+     * Reads the value of a voxel.
+     *
+     * @param z the slice.
+     * @param offset the offset in the slice.
+     * @return the value, negated if required.
+     */
+    public abstract float get(int z, int offset);
+
+    /**
+     * Writes the value of a voxel.
+     *
+     * @param z the slice.
+     * @param offset the offset in the slice.
+     * @param value the value, which is negated if required, and must then be representable by the
+     *     data type.
+     */
+    public abstract void set(int z, int offset, float value);
+
+    private static class UnsignedByteValues extends VoxelValues {
+
+        private final byte[][] slices;
+
+        public UnsignedByteValues(byte[][] slices, boolean negate) {
+            super(negate);
+            this.slices = slices;
+        }
+
+        @Override
+        public float get(int z, int offset) {
+            return sign * (slices[z][offset] & 0xFF);
+        }
+
+        @Override
+        public void set(int z, int offset, float value) {
+            slices[z][offset] = (byte) (int) (sign * value);
+        }
+    }
+
+    private static class UnsignedShortValues extends VoxelValues {
+
+        private final short[][] slices;
+
+        public UnsignedShortValues(short[][] slices, boolean negate) {
+            super(negate);
+            this.slices = slices;
+        }
+
+        @Override
+        public float get(int z, int offset) {
+            return sign * (slices[z][offset] & 0xFFFF);
+        }
+
+        @Override
+        public void set(int z, int offset, float value) {
+            slices[z][offset] = (short) (int) (sign * value);
+        }
+    }
+
+    private static class FloatValues extends VoxelValues {
+
+        private final float[][] slices;
+
+        public FloatValues(float[][] slices, boolean negate) {
+            super(negate);
+            this.slices = slices;
+        }
+
+        @Override
+        public float get(int z, int offset) {
+            return sign * slices[z][offset];
+        }
+
+        @Override
+        public void set(int z, int offset, float value) {
+            slices[z][offset] = sign * value;
+        }
+    }
+}
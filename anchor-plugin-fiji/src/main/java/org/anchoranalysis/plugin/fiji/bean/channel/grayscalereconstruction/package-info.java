@@ -19,5 +19,5 @@
  * <http://www.gnu.org/licenses/gpl-3.0.html>.
  * #L%
  */
-/** Morphological grayscale-reconstruction algorithm. */
+/** Morphological grayscale-reconstruction and binary-reconstruction algorithms. */
 package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
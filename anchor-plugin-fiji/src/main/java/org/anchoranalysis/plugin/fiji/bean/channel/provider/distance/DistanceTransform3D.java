@@ -21,17 +21,16 @@
  */
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
+import java.io.IOException;
 import java.util.Optional;
 import java.util.function.ToDoubleFunction;
 import lombok.Getter;
 import lombok.Setter;
 import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.NonNegative;
+import org.anchoranalysis.bean.annotation.Positive;
 import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
 import org.anchoranalysis.image.core.channel.Channel;
-import org.anchoranalysis.image.core.channel.convert.ChannelConverter;
-import org.anchoranalysis.image.core.channel.convert.ConversionPolicy;
-import org.anchoranalysis.image.core.channel.convert.ToUnsignedByte;
-import org.anchoranalysis.image.core.channel.convert.ToUnsignedShort;
 import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
 import org.anchoranalysis.image.core.dimensions.Dimensions;
 import org.anchoranalysis.image.core.dimensions.Resolution;
@@ -44,6 +43,7 @@ import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
 import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
 import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
 import org.anchoranalysis.plugin.image.bean.channel.provider.mask.FromMaskBase;
+import org.anchoranalysis.spatial.box.BoundingBox;
 
 /**
  * Euclidian Distance Transform from ImageJ that works on 2D as well as 3D z-stacks.
@@ -56,13 +56,25 @@ import org.anchoranalysis.plugin.image.bean.channel.provider.mask.FromMaskBase;
  * <p>The plugin uses aspect ratio (relative distance between z and xy slices) in its distance
  * calculations.
  *
+ * <p>When the z-dimension is suppressed, each slice is transformed independently, but all slices
+ * are processed together in a single run, directly into the output channel.
+ *
  * <p>As a simplification, when resolution is used, the XY plane is multipled by the average of the
  * x and y dimensions.
  *
+ * <p>The rows of each dimension are transformed in parallel, using up to {@code numberThreads}
+ * threads. Distances are placed directly into the 8-bit, 16-bit or float output, without an
+ * intermediate float channel.
+ *
+ * <p>Optionally, the intermediate squared distances are streamed through a temporary file, one
+ * slab of slices at a time, for volumes too large for the heap.
+ *
  * @author Owen Feehan
  */
 public class DistanceTransform3D extends FromMaskBase {
 
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
     // START PROPERTIES
     /** If true, suppresses the z-dimension in distance calculations. */
     @BeanField @Getter @Setter private boolean suppressZ = false;
@@ -73,12 +85,79 @@ public class DistanceTransform3D extends FromMaskBase {
     /** If true, creates a short (16-bit) output instead of byte (8-bit). */
     @BeanField @Getter @Setter private boolean createShort = false;
 
+    /**
+     * If true, creates a float (32-bit) output instead of byte (8-bit), so distances are exact.
+     *
+     * <p>This takes precedence over {@code createShort}.
+     */
+    @BeanField @Getter @Setter private boolean createFloat = false;
+
+    /**
+     * If true, the squared distance is output, rather than the distance.
+     *
+     * <p>This avoids a square-root for every voxel, and suffices when distances are only compared.
+     */
+    @BeanField @Getter @Setter private boolean squared = false;
+
+    /**
+     * If positive, distances are saturated at this distance.
+     *
+     * <p>It is always a distance, never a squared distance, in the units of the output when
+     * {@code squared} is false, i.e. after {@code multiplyBy}, the z-multiplier and any resolution
+     * are applied. When {@code squared} is true, the output instead saturates at the square of
+     * this value. The maximum is independent of the output type, but 8-bit and 16-bit outputs are
+     * additionally clamped to the largest value of their type.
+     *
+     * <p>The lower envelope of a row skips any voxel whose squared distance is already at or above
+     * the maximum, but every row is still loaded and stored, so this is only modestly faster.
+     * Zero disables any maximum.
+     */
+    @BeanField @NonNegative @Getter @Setter private float maxDistance = 0;
+
     /** If true, multiplies the values by the x-resolution, if it exists. */
     @BeanField @Getter @Setter private boolean applyResolution = false;
 
     /** If true and the z-resolution is undefined, the z dimension is ignored. */
     @BeanField @Getter @Setter private boolean ignoreZIfNaN = true;
 
+    /**
+     * If true, only the bounding-box of the foreground, grown by one voxel, is transformed.
+     *
+     * <p>Every voxel outside it is background, with distance zero, and the nearest background
+     * voxel of every voxel inside it also lies inside it, so the distances are unchanged. This is
+     * much faster when the foreground occupies only a small part of the mask. It takes precedence
+     * over {@code outOfCore}.
+     */
+    @BeanField @Getter @Setter private boolean restrictToBoundingBox = false;
+
+    /**
+     * If true, intermediate squared distances are stored in a temporary file, rather than on the
+     * heap, so volumes far larger than the heap can be transformed.
+     *
+     * <p>This only reduces memory for 8-bit and 16-bit outputs, as a float output is already used
+     * to store the intermediate squared distances.
+     *
+     * <p>Each slice is memory-mapped whole, so must need at most two gigabytes of squared
+     * distances, i.e. have at most 2<sup>29</sup> voxels.
+     */
+    @BeanField @Getter @Setter private boolean outOfCore = false;
+
+    /**
+     * When {@code outOfCore}, approximately how many megabytes of intermediate squared distances
+     * are held on the heap at once.
+     */
+    @BeanField @Positive @Getter @Setter private int slabMegabytes = 256;
+
+    /**
+     * The maximum number of threads to use when calculating the distance transform.
+     *
+     * <p>Anchor usually already runs one job per processor, so by default a single thread is
+     * used, and no thread pool is created. Only increase this when jobs are not themselves run in
+     * parallel, e.g. a single large volume, as each job would otherwise create its own pool, and
+     * the processors are oversubscribed.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
+
     // END PROPERTIES
 
     @Override
@@ -110,8 +189,79 @@ public class DistanceTransform3D extends FromMaskBase {
         return distanceMap.voxels().asByte();
     }
 
+    /**
+     * Updates a distance map, previously created by this bean for a mask, after the mask has
+     * changed only inside a box.
+     *
+     * <p>Only the voxels whose distance may be affected by the change are recomputed, so the work
+     * is proportional to the extent of the change, rather than to the entire volume. The result is
+     * identical to creating the distance map again, except in volumes whose diagonal reaches 4096
+     * voxels, where near-ties may differ by float rounding.
+     *
+     * <p>The distance map must be float, so it is exact, and is otherwise created identically to
+     * {@link #createFromMask}. When distances are multiplied along any dimension, the entire
+     * distance map is created again, as the passes then only approximate the nearest background
+     * voxel, so the voxels a change affects cannot be bounded.
+     *
+     * @param mask the changed mask.
+     * @param distances the distance map created for the mask before it changed, which is
+     *     replaced in-place.
+     * @param changed a box containing every voxel whose value in {@code mask} has changed.
+     * @throws ProvisionFailedException if the mask's binary values are not 0 and 255, or the
+     *     distance map is not float.
+     */
+    public void updateDistanceMap(Mask mask, Channel distances, BoundingBox changed)
+            throws ProvisionFailedException {
+        checkMask(mask);
+
+        if (!distances.getVoxelDataType().equals(FloatVoxelType.INSTANCE)) {
+            throw new ProvisionFailedException("The distance map must be float");
+        }
+
+        boolean excludeZDimension = suppressZ || hasNanZResolution(mask.resolution());
+        float[] multipliers = multipliers(mask, multiplyBy, 1, applyResolution);
+
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            if (isUnit(multipliers)) {
+                EDTIncremental.update(
+                        mask.voxels(),
+                        distances.voxels().asFloat(),
+                        squared,
+                        changed,
+                        excludeZDimension,
+                        maxDistanceOrUnbounded(),
+                        parallel);
+            } else {
+                EDT.compute(
+                        mask,
+                        EDTOutput.create(distances.voxels(), squared),
+                        excludeZDimension,
+                        multipliers,
+                        maxDistanceOrUnbounded(),
+                        parallel);
+            }
+        }
+    }
+
     private Channel createDistanceMapForMask(Mask mask, float multiplyByZRes)
             throws ProvisionFailedException {
+        checkMask(mask);
+
+        boolean excludeZDimension = suppressZ || hasNanZResolution(mask.resolution());
+
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            return createDistanceMapFromPlugin(
+                    mask,
+                    excludeZDimension,
+                    multiplyBy,
+                    multiplyByZRes,
+                    applyResolution,
+                    parallel);
+        }
+    }
+
+    /** Checks the binary values and the resolution of a mask. */
+    private void checkMask(Mask mask) throws ProvisionFailedException {
         if (mask.binaryValuesInt().getOn() != 255) {
             throw new ProvisionFailedException("Binary On must be 255");
         }
@@ -124,35 +274,10 @@ public class DistanceTransform3D extends FromMaskBase {
         if (mask.resolution().isPresent() && mask.extent().z() > 1 && !suppressZ) {
             checkZResolution(mask.resolution().get()); // NOSONAR
         }
-
-        boolean excludeZDimension = suppressZ || hasNanZResolution(mask.resolution());
-
-        if (excludeZDimension) {
-
-            Channel channelOut = createEmptyChannel(createShort, mask.dimensions());
-
-            for (int z = 0; z < mask.dimensions().extent().z(); z++) {
-                Mask slice = mask.extractSlice(z);
-                Channel distanceSlice =
-                        createDistanceMapFromPlugin(
-                                slice,
-                                true,
-                                multiplyBy,
-                                multiplyByZRes,
-                                createShort,
-                                applyResolution);
-                channelOut.voxels().replaceSlice(z, distanceSlice.voxels(), 0, true);
-            }
-
-            return channelOut;
-
-        } else {
-            return createDistanceMapFromPlugin(
-                    mask, false, multiplyBy, multiplyByZRes, createShort, applyResolution);
-        }
     }
 
-    private static boolean hasNanZResolution(Optional<Resolution> resolution) {
+    /** Whether the z-resolution exists and is NaN, in which case the z-dimension is ignored. */
+    static boolean hasNanZResolution(Optional<Resolution> resolution) {
         if (resolution.isPresent()) {
             return Double.isNaN(resolution.get().z());
         } else {
@@ -160,36 +285,90 @@ public class DistanceTransform3D extends FromMaskBase {
         }
     }
 
-    private static Channel createEmptyChannel(boolean createShort, Dimensions dims) {
-        VoxelDataType dataType =
-                createShort ? UnsignedShortVoxelType.INSTANCE : UnsignedByteVoxelType.INSTANCE;
-        return ChannelFactory.instance().createUninitialised(dims, dataType);
+    private Channel createEmptyChannel(Dimensions dims) {
+        if (restrictToBoundingBox) {
+            // voxels outside the bounding-box are never assigned, so must already be zero
+            return ChannelFactory.instance().create(dims, outputDataType());
+        } else {
+            return ChannelFactory.instance().createUninitialised(dims, outputDataType());
+        }
     }
 
-    private static Channel createDistanceMapFromPlugin(
+    private VoxelDataType outputDataType() {
+        if (createFloat) {
+            return FloatVoxelType.INSTANCE;
+        } else if (createShort) {
+            return UnsignedShortVoxelType.INSTANCE;
+        } else {
+            return UnsignedByteVoxelType.INSTANCE;
+        }
+    }
+
+    private Channel createDistanceMapFromPlugin(
             Mask mask,
             boolean suppressZ,
             float multFactor,
             float multFactorZ,
-            boolean createShort,
-            boolean applyResolution) {
+            boolean applyResolution,
+            ParallelRows parallel)
+            throws ProvisionFailedException {
 
-        float[] multipliers =
-                new float[] {
-                    multiplicationFactor(multFactor, applyResolution, mask, Resolution::x),
-                    multiplicationFactor(multFactor, applyResolution, mask, Resolution::y),
-                    multiplicationFactor(multFactorZ, applyResolution, mask, Resolution::z)
-                };
+        float[] multipliers = multipliers(mask, multFactor, multFactorZ, applyResolution);
 
-        Channel distanceAsFloat =
-                EDT.compute(
-                        mask,
-                        ChannelFactory.instance().get(FloatVoxelType.INSTANCE),
+        Channel distances = createEmptyChannel(mask.dimensions());
+        EDTOutput output = EDTOutput.create(distances.voxels(), squared);
+        float maxDistanceOrUnbounded = maxDistanceOrUnbounded();
+        if (restrictToBoundingBox) {
+            EDT.computeWithinBoundingBox(
+                    mask.voxels(),
+                    output,
+                    suppressZ,
+                    multipliers,
+                    maxDistanceOrUnbounded,
+                    parallel);
+        } else if (outOfCore) {
+            try {
+                EDT.computeOutOfCore(
+                        mask.voxels(),
+                        output,
                         suppressZ,
-                        multipliers);
+                        multipliers,
+                        maxDistanceOrUnbounded,
+                        slabMegabytes * BYTES_PER_MEGABYTE,
+                        parallel);
+            } catch (IOException e) {
+                throw new ProvisionFailedException(e);
+            }
+        } else {
+            EDT.compute(
+                    mask, output, suppressZ, multipliers, maxDistanceOrUnbounded, parallel);
+        }
+        return distances;
+    }
+
+    /** The maximum distance, or {@link EDT#UNBOUNDED} if there is no maximum. */
+    private float maxDistanceOrUnbounded() {
+        return maxDistance > 0 ? maxDistance : EDT.UNBOUNDED;
+    }
+
+    /** The multiplication factors for each dimension [x, y, z]. */
+    private static float[] multipliers(
+            Mask mask, float multFactor, float multFactorZ, boolean applyResolution) {
+        return new float[] {
+            multiplicationFactor(multFactor, applyResolution, mask, Resolution::x),
+            multiplicationFactor(multFactor, applyResolution, mask, Resolution::y),
+            multiplicationFactor(multFactorZ, applyResolution, mask, Resolution::z)
+        };
+    }
 
-        ChannelConverter<?> converter = createShort ? new ToUnsignedShort() : new ToUnsignedByte();
-        return converter.convert(distanceAsFloat, ConversionPolicy.CHANGE_EXISTING_CHANNEL);
+    /** Whether distances are not multiplied along any dimension. */
+    private static boolean isUnit(float[] multipliers) {
+        for (float multiplier : multipliers) {
+            if (multiplier != 1.0f) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void checkZResolution(Resolution resolution) throws ProvisionFailedException {
@@ -203,7 +382,8 @@ public class DistanceTransform3D extends FromMaskBase {
         }
     }
 
-    private static float multiplicationFactor(
+    /** The factor to multiply distances along a dimension by. */
+    static float multiplicationFactor(
             float multFactor,
             boolean applyResolution,
             Mask mask,
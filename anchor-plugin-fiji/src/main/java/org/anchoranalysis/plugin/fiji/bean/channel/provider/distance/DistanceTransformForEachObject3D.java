@@ -21,21 +21,23 @@
  */
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.util.Optional;
 import lombok.Getter;
 import lombok.Setter;
 import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.Positive;
 import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
 import org.anchoranalysis.image.bean.provider.ObjectCollectionProvider;
 import org.anchoranalysis.image.core.channel.Channel;
 import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
 import org.anchoranalysis.image.core.dimensions.Dimensions;
-import org.anchoranalysis.image.core.dimensions.Resolution;
-import org.anchoranalysis.image.voxel.Voxels;
-import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
 import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
 import org.anchoranalysis.image.voxel.object.ObjectMask;
 import org.anchoranalysis.plugin.image.bean.channel.provider.FromDimensionsBase;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
 
 /**
  * Like {@link DistanceTransform3D} but applies the distance transform separately for each object in
@@ -43,10 +45,35 @@ import org.anchoranalysis.plugin.image.bean.channel.provider.FromDimensionsBase;
  *
  * <p>A new channel is always created i.e. the input channel is unchanged.
  *
+ * <p>Objects are transformed concurrently, each on a single thread, with a scratch buffer per
+ * thread that is reused for successive objects, and is sized to the bounding-box of each object.
+ *
+ * <p>Where objects overlap, a voxel receives the maximum of the distances calculated for each
+ * object, irrespective of the order of the objects. This differs from copying each object's
+ * distances in turn to the output, where the last object in the collection would determine the
+ * voxel.
+ *
+ * <p>Alternatively, with {@code singlePass}, the objects are rasterized into a label image, and all
+ * objects are transformed together by a single pass along each dimension, where a change of label
+ * counts as background. This avoids the overhead of many small transforms. As distances are then
+ * no longer confined to each object's bounding-box, background beyond the bounding-box is also
+ * considered, and where objects overlap, the later object is used.
+ *
  * @author Owen Feehan
  */
 public class DistanceTransformForEachObject3D extends FromDimensionsBase {
 
+    /** The multiplication factors for each dimension, as the resolution is never applied. */
+    private static final float[] MULTIPLY_DIMENSIONS = new float[] {1.0f, 1.0f, 1.0f};
+
+    /**
+     * The number of locks to distribute rows of the destination across.
+     *
+     * <p>Each row of the destination is guarded by one of these locks, so that objects whose
+     * bounding-boxes overlap never write to the same row simultaneously.
+     */
+    private static final int NUMBER_LOCKS = 256;
+
     // START PROPERTIES
     @BeanField @Getter @Setter private ObjectCollectionProvider objects;
 
@@ -54,56 +81,166 @@ public class DistanceTransformForEachObject3D extends FromDimensionsBase {
 
     @BeanField @Getter @Setter private boolean createShort = false;
 
+    /**
+     * If true, all objects are transformed together as a label image, rather than each object
+     * separately.
+     */
+    @BeanField @Getter @Setter private boolean singlePass = false;
+
+    /**
+     * The maximum number of threads to use.
+     *
+     * <p>By default, a single thread, as jobs are usually already run in parallel. See {@link
+     * DistanceTransform3D}.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
     // END PROPERTIES
 
+    /** Per-thread state, reused for successive objects. */
+    private static class Worker {
+        private final EDTScratch scratch = new EDTScratch();
+
+        /** Each object is transformed on a single thread, so no thread-pool is ever created. */
+        private final ParallelRows parallel = new ParallelRows(1);
+    }
+
     @Override
     protected Channel createFromDimensions(Dimensions dimensions) throws ProvisionFailedException {
 
-        Channel out = ChannelFactory.instance().create(dimensions, UnsignedByteVoxelType.INSTANCE);
+        Channel out = ChannelFactory.instance().create(dimensions, outputDataType());
 
-        Voxels<UnsignedByteBuffer> voxelsOut = out.voxels().asByte();
+        ObjectCollection collection = objects.get();
+        for (ObjectMask object : collection) {
+            if (object.binaryValues().getOff() != 0) {
+                throw new ProvisionFailedException("Binary Off must be 0");
+            }
+        }
 
-        for (ObjectMask object : objects.get()) {
-            copyObjectToOutput(object, dimensions.resolution(), voxelsOut);
+        boolean excludeZDimension =
+                suppressZ || DistanceTransform3D.hasNanZResolution(dimensions.resolution());
+
+        EDTOutputUnsigned destination = createDestination(out);
+
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            if (singlePass) {
+                EDT.computeLabels(
+                        EDTLabels.fromObjects(collection, dimensions.extent()),
+                        destination,
+                        excludeZDimension,
+                        MULTIPLY_DIMENSIONS,
+                        EDT.UNBOUNDED,
+                        parallel);
+            } else {
+                transformEachObject(
+                        collection,
+                        excludeZDimension,
+                        dimensions.extent().x(),
+                        destination,
+                        parallel);
+            }
         }
 
         return out;
     }
 
+    private VoxelDataType outputDataType() {
+        if (createShort) {
+            return UnsignedShortVoxelType.INSTANCE;
+        } else {
+            return UnsignedByteVoxelType.INSTANCE;
+        }
+    }
+
+    /** Where the distances for all objects are placed, in the voxels of {@code channel}. */
+    private EDTOutputUnsigned createDestination(Channel channel) {
+        if (createShort) {
+            return new EDTOutputUnsignedShort(channel.voxels().asShort(), false);
+        } else {
+            return new EDTOutputUnsignedByte(channel.voxels().asByte(), false);
+        }
+    }
+
+    /** Transforms each object separately and concurrently. */
+    private static void transformEachObject(
+            ObjectCollection collection,
+            boolean excludeZDimension,
+            int destinationWidth,
+            EDTOutputUnsigned destination,
+            ParallelRows parallel) {
+        Object[] locks = createLocks();
+        parallel.forEachRow(
+                collection.size(),
+                Worker::new,
+                (worker, index) ->
+                        transformObject(
+                                collection.get(index),
+                                excludeZDimension,
+                                destinationWidth,
+                                destination,
+                                locks,
+                                worker));
+    }
+
     /**
-     * Performs a distance-transform on an individual object, and copies the output to voxels for
-     * all objects.
+     * Performs a distance-transform on an individual object, and places the distances for voxels
+     * inside the object in the destination.
      *
-     * @param object the object to copy
-     * @param resolution the image-resolution
-     * @param destination voxels into which
-     * @throws ProvisionFailedException
+     * @param object the object to transform.
+     * @param excludeZDimension if true, each slice of the object is transformed independently.
+     * @param destinationWidth the size of the destination along the X-axis.
+     * @param destination where the distances are placed, for voxels across all objects.
+     * @param locks the locks guarding rows of {@code destination}.
+     * @param worker the state of the current thread.
      */
-    private void copyObjectToOutput(
+    private static void transformObject(
             ObjectMask object,
-            Optional<Resolution> resolution,
-            Voxels<UnsignedByteBuffer> destination)
-            throws ProvisionFailedException {
-
-        Voxels<UnsignedByteBuffer> voxelsDistance = distanceTransformForObject(object, resolution);
-
-        ObjectMask objectAtOrigin = object.shiftToOrigin();
-
-        voxelsDistance.extract().objectCopyTo(objectAtOrigin, destination, object.boundingBox());
+            boolean excludeZDimension,
+            int destinationWidth,
+            EDTOutputUnsigned destination,
+            Object[] locks,
+            Worker worker) {
+
+        // The squared distances are placed back in the scratch buffer, and afterwards copied.
+        EDT.compute(
+                object.voxels(),
+                worker.scratch,
+                new EDTOutputFloat(worker.scratch, true),
+                excludeZDimension,
+                MULTIPLY_DIMENSIONS,
+                EDT.UNBOUNDED,
+                worker.parallel);
+
+        Extent extent = object.extent();
+        ReadableTuple3i corner = object.boundingBox().cornerMin();
+        for (int z = 0; z < extent.z(); z++) {
+            float[] squaredDistances = worker.scratch.slice(z);
+            byte[] mask = object.voxels().sliceBuffer(z).array();
+            int destinationZ = corner.z() + z;
+            for (int y = 0; y < extent.y(); y++) {
+                int destinationY = corner.y() + y;
+                synchronized (locks[lockIndex(destinationZ, destinationY)]) {
+                    destination.placeMaximumWithin(
+                            destinationZ,
+                            destinationY * destinationWidth + corner.x(),
+                            squaredDistances,
+                            y * extent.x(),
+                            extent.x(),
+                            mask);
+                }
+            }
+        }
     }
 
-    private Voxels<UnsignedByteBuffer> distanceTransformForObject(
-            ObjectMask object, Optional<Resolution> resolution) throws ProvisionFailedException {
-
-        DistanceTransform3D transform = new DistanceTransform3D();
-        transform.setSuppressZ(suppressZ);
-        transform.setCreateShort(createShort);
+    private static Object[] createLocks() {
+        Object[] locks = new Object[NUMBER_LOCKS];
+        for (int i = 0; i < NUMBER_LOCKS; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
 
-        return transform.createDistanceMapForVoxels(
-                object.binaryVoxels()
-                        .duplicate(), // TODO duplicated presumably because the voxel-buffer is
-                // consumed?
-                resolution,
-                1.0f);
+    /** The index of the lock guarding a particular row in the destination. */
+    private static int lockIndex(int z, int y) {
+        return Math.floorMod(z * 31 + y, NUMBER_LOCKS);
     }
 }
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.Positive;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.core.exception.CreateException;
+import org.anchoranalysis.image.bean.provider.ChannelProviderUnary;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+
+/**
+ * Euclidean distance transform of a label image, where each voxel's distance is to the nearest
+ * voxel with a different label.
+ *
+ * <p>This is equivalent to applying {@link DistanceTransform3D} separately to each label, but all
+ * labels are transformed together by a single pass along each dimension, where a change of label
+ * counts as background.
+ *
+ * <p>Voxels with label zero are background, and have distance zero.
+ *
+ * <p>The labels must be of unsigned byte or unsigned short type.
+ *
+ * <p>A new channel is always created i.e. the input channel is unchanged.
+ */
+public class DistanceTransformLabels3D extends ChannelProviderUnary {
+
+    /** The multiplication factors for each dimension, as the resolution is never applied. */
+    private static final float[] MULTIPLY_DIMENSIONS = new float[] {1.0f, 1.0f, 1.0f};
+
+    // START PROPERTIES
+    /** If true, each slice is transformed independently. */
+    @BeanField @Getter @Setter private boolean suppressZ = false;
+
+    /** If true, an unsigned short channel is created, otherwise unsigned byte. */
+    @BeanField @Getter @Setter private boolean createShort = false;
+
+    /**
+     * The maximum number of threads to use when calculating the distance transform.
+     *
+     * <p>By default, a single thread, as jobs are usually already run in parallel. See {@link
+     * DistanceTransform3D}.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
+    // END PROPERTIES
+
+    @Override
+    public Channel createFromChannel(Channel channel) throws ProvisionFailedException {
+        EDTLabels labels;
+        try {
+            labels = EDTLabels.fromVoxels(channel.voxels());
+        } catch (CreateException e) {
+            throw new ProvisionFailedException(e);
+        }
+
+        boolean excludeZDimension =
+                suppressZ || DistanceTransform3D.hasNanZResolution(channel.resolution());
+
+        Channel out =
+                ChannelFactory.instance()
+                        .createUninitialised(channel.dimensions(), outputDataType());
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            EDT.computeLabels(
+                    labels,
+                    EDTOutput.create(out.voxels(), false),
+                    excludeZDimension,
+                    MULTIPLY_DIMENSIONS,
+                    EDT.UNBOUNDED,
+                    parallel);
+        }
+        return out;
+    }
+
+    private VoxelDataType outputDataType() {
+        if (createShort) {
+            return UnsignedShortVoxelType.INSTANCE;
+        } else {
+            return UnsignedByteVoxelType.INSTANCE;
+        }
+    }
+}
@@ -22,13 +22,16 @@
 
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.nio.FloatBuffer;
+import java.io.IOException;
+import java.util.Optional;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
-import org.anchoranalysis.image.core.channel.Channel;
-import org.anchoranalysis.image.core.channel.factory.ChannelFactorySingleType;
 import org.anchoranalysis.image.core.mask.Mask;
 import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
 
 /**
  * An Euclidian Distance transform derived from Fiji_Plugins.jar in Imagej
@@ -76,33 +79,519 @@ import org.anchoranalysis.image.voxel.Voxels;
  *
  * <p>After this step, the list of parabolae is iterated to calculate the values for g(x).
  *
+ * <p>As each row is independent of the others, the rows of each dimension are distributed across
+ * threads via {@link ParallelRows}.
+ *
+ * <p>The first two passes store squared distances in a float scratch buffer. The final pass takes
+ * the square root (unless squared distances are requested) and places the distances directly in an
+ * {@link EDTOutput}. A float output is itself used as the scratch buffer.
+ *
+ * <p>Distances may be saturated at a maximum. As each pass only ever adds to the squared distances
+ * of the previous pass, any intermediate value at or above the squared maximum can be saturated
+ * without changing the result. Parabolae whose minimum is at or above it are ignored, and rows
+ * without any such parabola are simply filled, rather than evaluating the envelope. Every row is
+ * still loaded and stored, so only the work of the envelope is skipped.
+ *
+ * <p>When distances are not multiplied along any dimension, and every squared distance in the
+ * volume is small enough to be exactly represented as a float, an integer kernel is automatically
+ * used for each row, which calculates the intersections of parabolae exactly.
+ *
+ * <p>For volumes whose scratch buffer does not fit on the heap, the squared distances of the Z
+ * pass can instead be stored in a memory-mapped temporary file, and the passes along Y and X then
+ * performed on one slab of neighbouring slices at a time, as each slice is independent of the
+ * others for these passes.
+ *
  * <p>The license in FIJI indicates this particular plugin is GPL/PD (Public Domain).
  */
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 class EDT {
+
+    /** A maximum distance indicating that distances are never saturated. */
+    public static final float UNBOUNDED = Float.POSITIVE_INFINITY;
+
     /**
      * Computes the Euclidean Distance Transform for a given mask.
      *
      * @param mask the input {@link Mask} to compute the distance transform for
-     * @param factory the {@link ChannelFactorySingleType} to create the output channel
-     * @param suppressZ if true, suppresses calculations in the Z dimension
+     * @param output where the distances are placed, with the same extent as {@code mask}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
      * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
-     * @return a {@link Channel} containing the computed Euclidean Distance Transform
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param parallel how the rows of each dimension are distributed across threads
      */
-    public static Channel compute(
+    public static void compute(
             Mask mask,
-            ChannelFactorySingleType factory,
+            EDTOutput output,
             boolean suppressZ,
-            float[] multiplyDimensions) {
+            float[] multiplyDimensions,
+            float maxDistance,
+            ParallelRows parallel) {
+        EDTScratch scratch =
+                output.scratch().orElseGet(() -> EDTScratch.allocate(mask.extent()));
+        compute(
+                mask.voxels(),
+                scratch,
+                output,
+                suppressZ,
+                multiplyDimensions,
+                maxDistance,
+                parallel);
+    }
 
-        Channel result = factory.createEmptyInitialised(mask.dimensions());
+    /**
+     * Computes the Euclidean Distance Transform for voxels, using an existing scratch buffer.
+     *
+     * @param mask the input voxels, where zero indicates background, and any other value
+     *     foreground
+     * @param scratch a buffer for the intermediate squared distances, which is resized to the
+     *     extent of {@code mask}
+     * @param output where the distances are placed, with the same extent as {@code mask}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void compute(
+            Voxels<UnsignedByteBuffer> mask,
+            EDTScratch scratch,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            ParallelRows parallel) {
+        compute(
+                mask,
+                scratch,
+                output,
+                suppressZ,
+                multiplyDimensions,
+                maxDistance,
+                isIntegerExact(mask.extent(), suppressZ, multiplyDimensions),
+                parallel);
+    }
 
-        Voxels<FloatBuffer> voxelsResult = result.voxels().asFloat();
+    /**
+     * Like {@link #compute(Voxels, EDTScratch, EDTOutput, boolean, float[], float, ParallelRows)}
+     * but with a particular choice of kernel.
+     *
+     * <p>When a region of a larger volume is transformed, the kernel should be chosen for the
+     * entire volume, so the distances are identical to those from transforming the entire volume.
+     *
+     * @param mask the input voxels, where zero indicates background, and any other value
+     *     foreground
+     * @param scratch a buffer for the intermediate squared distances, which is resized to the
+     *     extent of {@code mask}
+     * @param output where the distances are placed, with the same extent as {@code mask}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param integerKernel if true, the integer kernel of {@link LowerEnvelope} is used, which
+     *     requires that {@link #isIntegerExact} is true for {@code mask}
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void compute(
+            Voxels<UnsignedByteBuffer> mask,
+            EDTScratch scratch,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            boolean integerKernel,
+            ParallelRows parallel) {
+        scratch.reuseFor(mask.extent());
 
-        float zMult = suppressZ ? 1.0f : multiplyDimensions[2];
-        new EDTDimensionZ(mask.voxels(), voxelsResult, zMult).compute();
-        new EDTDimensionY(voxelsResult, multiplyDimensions[1]).compute();
-        new EDTDimensionX(voxelsResult, multiplyDimensions[0]).compute();
-        return result;
+        float capSquared = maxDistance * maxDistance;
+        if (suppressZ) {
+            seedEachSlice(mask, 0, scratch, parallel);
+        } else {
+            new EDTDimensionZ(mask, scratch, multiplyDimensions[2])
+                    .compute(parallel, capSquared, integerKernel);
+        }
+        computeXY(
+                scratch,
+                output,
+                multiplyDimensions,
+                capSquared,
+                integerKernel,
+                Optional.empty(),
+                Optional.empty(),
+                parallel);
+    }
+
+    /**
+     * Like {@link #compute(Voxels, EDTScratch, EDTOutput, boolean, float[], float, ParallelRows)}
+     * but holding at most a slab of the squared distances on the heap at any time.
+     *
+     * <p>The squared distances of the Z pass are stored in a memory-mapped temporary file, and
+     * each slab is copied to the heap, for the passes along Y and X, before the next slab.
+     *
+     * <p>If the output is itself reusable as the scratch buffer, no additional memory is needed
+     * for the squared distances, and the volume is transformed in memory as usual.
+     *
+     * @param mask the input voxels, where zero indicates background, and any other value
+     *     foreground
+     * @param output where the distances are placed, with the same extent as {@code mask}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param slabBytes the approximate maximum number of bytes of squared distances to hold on
+     *     the heap, although a slab always contains at least one slice
+     * @param parallel how the rows of each dimension are distributed across threads
+     * @throws IOException if a single slice is too large to memory-map, or the temporary file
+     *     cannot be created or mapped
+     */
+    public static void computeOutOfCore(
+            Voxels<UnsignedByteBuffer> mask,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            long slabBytes,
+            ParallelRows parallel)
+            throws IOException {
+        if (output.scratch().isPresent()) {
+            compute(
+                    mask,
+                    output.scratch().get(), // NOSONAR
+                    output,
+                    suppressZ,
+                    multiplyDimensions,
+                    maxDistance,
+                    parallel);
+            return;
+        }
+
+        Extent extent = mask.extent();
+        int slicesPerSlab = slicesPerSlab(extent, slabBytes);
+        float capSquared = maxDistance * maxDistance;
+        boolean integerKernel = isIntegerExact(extent, suppressZ, multiplyDimensions);
+        EDTScratch scratch = new EDTScratch();
+
+        if (suppressZ) {
+            for (int slab = 0; slab < extent.z(); slab += slicesPerSlab) {
+                scratch.reuseFor(
+                        extent.duplicateChangeZ(Math.min(slicesPerSlab, extent.z() - slab)));
+                seedEachSlice(mask, slab, scratch, parallel);
+                computeXYSlab(
+                        scratch,
+                        output,
+                        slab,
+                        multiplyDimensions,
+                        capSquared,
+                        integerKernel,
+                        parallel);
+            }
+        } else {
+            try (EDTScratchFile file = new EDTScratchFile(extent, slicesPerSlab)) {
+                new EDTDimensionZ(mask, file, multiplyDimensions[2])
+                        .compute(parallel, capSquared, integerKernel);
+                for (int slab = 0; slab < extent.z(); slab += slicesPerSlab) {
+                    scratch.reuseFor(
+                            extent.duplicateChangeZ(Math.min(slicesPerSlab, extent.z() - slab)));
+                    file.copySlabTo(slab, scratch);
+                    computeXYSlab(
+                            scratch,
+                            output,
+                            slab,
+                            multiplyDimensions,
+                            capSquared,
+                            integerKernel,
+                            parallel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #compute(Voxels, EDTScratch, EDTOutput, boolean, float[], float, ParallelRows)}
+     * but only transforming the bounding-box of the foreground, grown by one voxel.
+     *
+     * <p>Every voxel outside the bounding-box of the foreground is background, so has distance
+     * zero, and is left unchanged in {@code output}, which should therefore already be zero.
+     *
+     * <p>Inside the bounding-box, the nearest background voxel always lies inside the
+     * bounding-box grown by one voxel. Any background voxel further out can be moved to the
+     * nearest position in the grown box, which is outside the bounding-box, so is also background,
+     * and is no further away. So the distances are identical to those of the entire volume, but
+     * the work is proportional to the size of the foreground's bounding-box.
+     *
+     * <p>The kernel is chosen for the entire volume, rather than the bounding-box, so that the
+     * rounding is also identical.
+     *
+     * @param mask the input voxels, where zero indicates background, and any other value
+     *     foreground
+     * @param output where the distances are placed, with the same extent as {@code mask}, and
+     *     with zero for every voxel
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void computeWithinBoundingBox(
+            Voxels<UnsignedByteBuffer> mask,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            ParallelRows parallel) {
+        Optional<BoundingBox> foreground =
+                MaskRegion.foregroundGrownByOne(mask, suppressZ, parallel);
+        if (!foreground.isPresent()) {
+            // every voxel is background
+            return;
+        }
+
+        BoundingBox region = foreground.get();
+        compute(
+                MaskRegion.extract(mask, region.cornerMin(), region.extent()),
+                EDTScratch.allocate(region.extent()),
+                new EDTOutputRegion(
+                        output, region.cornerMin(), region.extent().x(), mask.extent().x()),
+                suppressZ,
+                multiplyDimensions,
+                maxDistance,
+                isIntegerExact(mask.extent(), suppressZ, multiplyDimensions),
+                parallel);
+    }
+
+    /**
+     * Computes the Euclidean Distance Transform for labelled voxels, where each voxel's distance
+     * is to the nearest voxel with a different label.
+     *
+     * <p>This is equivalent to transforming the voxels of each label separately, as a change of
+     * label is treated as background, but with a single pass along each dimension for all labels.
+     * Voxels with label zero have distance zero.
+     *
+     * @param labels the label of each voxel
+     * @param output where the distances are placed, with the same extent as {@code labels}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void computeLabels(
+            EDTLabels labels,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            ParallelRows parallel) {
+        EDTScratch scratch =
+                output.scratch().orElseGet(() -> EDTScratch.allocate(labels.getExtent()));
+        scratch.reuseFor(labels.getExtent());
+
+        float capSquared = maxDistance * maxDistance;
+        boolean integerKernel =
+                isIntegerExact(labels.getExtent(), suppressZ, multiplyDimensions);
+        if (suppressZ) {
+            seedEachSlice(labels, scratch, parallel);
+        } else {
+            new EDTDimensionZ(labels, scratch, multiplyDimensions[2])
+                    .compute(parallel, capSquared, integerKernel);
+        }
+        computeXY(
+                scratch,
+                output,
+                multiplyDimensions,
+                capSquared,
+                integerKernel,
+                Optional.of(labels),
+                Optional.empty(),
+                parallel);
+    }
+
+    /**
+     * Computes the Euclidean Distance Transform from seed voxels, and also the feature transform,
+     * replacing each voxel's feature with the feature of its nearest seed.
+     *
+     * <p>With a distinct feature for each object, this produces a discrete Voronoi partition, in
+     * linear time.
+     *
+     * @param features the feature of each voxel, where non-zero features are seeds, which are
+     *     replaced in-place
+     * @param output where the distances to the nearest seed are placed, with the same extent as
+     *     {@code features}
+     * @param suppressZ if true, suppresses calculations in the Z dimension, so each slice is
+     *     transformed independently
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link #UNBOUNDED}, and voxels
+     *     with no seed closer than it have feature zero
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void computeFeatures(
+            EDTFeatures features,
+            EDTOutput output,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance,
+            ParallelRows parallel) {
+        EDTScratch scratch =
+                output.scratch().orElseGet(() -> EDTScratch.allocate(features.getExtent()));
+        scratch.reuseFor(features.getExtent());
+
+        float capSquared = maxDistance * maxDistance;
+        if (suppressZ) {
+            seedEachSlice(features, scratch, parallel);
+        } else {
+            new EDTDimensionZ(features, scratch, multiplyDimensions[2])
+                    .compute(parallel, capSquared, false);
+        }
+        // the float kernel is always used, so ties between seeds are resolved identically
+        computeXY(
+                scratch,
+                output,
+                multiplyDimensions,
+                capSquared,
+                false,
+                Optional.empty(),
+                Optional.of(features),
+                parallel);
+    }
+
+    /** The passes along Y and then X, after the scratch buffer has been initialized. */
+    private static void computeXY(
+            EDTScratch scratch,
+            EDTOutput output,
+            float[] multiplyDimensions,
+            float capSquared,
+            boolean integerKernel,
+            Optional<EDTLabels> labels,
+            Optional<EDTFeatures> features,
+            ParallelRows parallel) {
+        new EDTDimensionY(scratch, multiplyDimensions[1], labels, features)
+                .compute(parallel, capSquared, integerKernel);
+        new EDTDimensionX(scratch, output, multiplyDimensions[0], labels, features)
+                .compute(parallel, capSquared, integerKernel);
+    }
+
+    /** The passes along Y and then X, for a slab of slices in the scratch buffer. */
+    private static void computeXYSlab(
+            EDTScratch scratch,
+            EDTOutput output,
+            int firstSlice,
+            float[] multiplyDimensions,
+            float capSquared,
+            boolean integerKernel,
+            ParallelRows parallel) {
+        computeXY(
+                scratch,
+                new EDTOutputRegion(
+                        output,
+                        new Point3i(0, 0, firstSlice),
+                        scratch.getExtent().x(),
+                        scratch.getExtent().x()),
+                multiplyDimensions,
+                capSquared,
+                integerKernel,
+                Optional.empty(),
+                Optional.empty(),
+                parallel);
+    }
+
+    /**
+     * Whether the integer kernel of {@link LowerEnvelope} can be used.
+     *
+     * <p>This requires that distances are not multiplied along any dimension that is transformed,
+     * and that the largest possible squared distance is below {@link
+     * LowerEnvelope#INTEGER_LIMIT}, so every finite squared distance is an exact integer.
+     *
+     * @param extent the size of the entire volume.
+     * @param suppressZ if true, each slice is transformed independently.
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @return true if the integer kernel can be used.
+     */
+    static boolean isIntegerExact(
+            Extent extent, boolean suppressZ, float[] multiplyDimensions) {
+        if (multiplyDimensions[0] != 1.0f
+                || multiplyDimensions[1] != 1.0f
+                || (!suppressZ && multiplyDimensions[2] != 1.0f)) {
+            return false;
+        }
+        long largestSquared =
+                square(extent.x() - 1L)
+                        + square(extent.y() - 1L)
+                        + (suppressZ ? 0 : square(extent.z() - 1L));
+        return largestSquared < LowerEnvelope.INTEGER_LIMIT;
+    }
+
+    private static long square(long value) {
+        return value * value;
+    }
+
+    /**
+     * The number of neighbouring slices in each slab, so that a slab occupies at most {@code
+     * slabBytes}, and can be memory-mapped.
+     */
+    private static int slicesPerSlab(Extent extent, long slabBytes) {
+        long bytesPerSlice = (long) extent.areaXY() * Float.BYTES;
+        long maximumSlices = Math.min(slabBytes, Integer.MAX_VALUE) / bytesPerSlice;
+        return (int) Math.max(1, Math.min(maximumSlices, extent.z()));
+    }
+
+    /**
+     * Initializes the scratch buffer from the mask, without any transform along Z.
+     *
+     * <p>This is identical to the Z pass for a single slice: background voxels become zero, and
+     * foreground voxels become {@link Float#MAX_VALUE}.
+     *
+     * @param firstSlice the index of the slice in the mask, corresponding to the first slice in
+     *     the scratch buffer, whose extent determines the number of slices
+     */
+    private static void seedEachSlice(
+            Voxels<UnsignedByteBuffer> mask,
+            int firstSlice,
+            EDTScratch scratch,
+            ParallelRows parallel) {
+        int areaXY = mask.extent().areaXY();
+        parallel.forEachRow(
+                scratch.getExtent().z(),
+                () -> null,
+                (unused, z) -> {
+                    byte[] in = mask.sliceBuffer(firstSlice + z).array();
+                    float[] out = scratch.slice(z);
+                    for (int offset = 0; offset < areaXY; offset++) {
+                        out[offset] = in[offset] == 0 ? 0 : Float.MAX_VALUE;
+                    }
+                });
+    }
+
+    /** Like {@link #seedEachSlice(Voxels, int, EDTScratch, ParallelRows)} but from labels. */
+    private static void seedEachSlice(
+            EDTLabels labels, EDTScratch scratch, ParallelRows parallel) {
+        int areaXY = labels.getExtent().areaXY();
+        parallel.forEachRow(
+                labels.getExtent().z(),
+                () -> null,
+                (unused, z) -> {
+                    float[] out = scratch.slice(z);
+                    for (int offset = 0; offset < areaXY; offset++) {
+                        out[offset] = labels.get(z, offset) == 0 ? 0 : Float.MAX_VALUE;
+                    }
+                });
+    }
+
+    /**
+     * Like {@link #seedEachSlice(Voxels, int, EDTScratch, ParallelRows)} but from features, where
+     * non-zero features are seeds.
+     */
+    private static void seedEachSlice(
+            EDTFeatures features, EDTScratch scratch, ParallelRows parallel) {
+        int areaXY = features.getExtent().areaXY();
+        parallel.forEachRow(
+                features.getExtent().z(),
+                () -> null,
+                (unused, z) -> {
+                    int[] in = features.slice(z);
+                    float[] out = scratch.slice(z);
+                    for (int offset = 0; offset < areaXY; offset++) {
+                        out[offset] = in[offset] != 0 ? 0 : Float.MAX_VALUE;
+                    }
+                });
     }
 }
@@ -19,102 +19,222 @@
  * <http://www.gnu.org/licenses/gpl-3.0.html>.
  * #L%
  */
-
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-/** Base class for computing Euclidean Distance Transform along a single dimension. */
+import java.util.Optional;
+
+/**
+ * Base class for computing Euclidean Distance Transform along a single dimension.
+ *
+ * <p>Each row is transformed independently of every other row, so rows may be processed in
+ * parallel, with each worker using its own {@link LowerEnvelope} as scratch space.
+ *
+ * <p>Rows are divided into groups (e.g. the rows of a single z-slice) and neighbouring rows in the
+ * same group are loaded and stored together as a block. When a row's voxels are far apart in
+ * memory, this lets a block be read and written sequentially rather than a voxel at a time.
+ *
+ * <p>When {@link EDTLabels} are present, each voxel only considers voxels with the same label.
+ *
+ * <p>When {@link EDTFeatures} are present, each voxel's feature is replaced by the feature of the
+ * voxel it is nearest to.
+ */
 abstract class EDTDimensionBase {
-    private int extent;
-    /*
-     * parabola k is defined by y[k] (v in the paper)
-     * and f[k] (f(v[k]) in the paper): (y, f) is the
-     * coordinate of the minimum of the parabola.
-     * z[k] determines the left bound of the interval
-     * in which the k-th parabola determines the lower
-     * envelope.
+
+    /**
+     * How many neighbouring rows form a block, when the voxels of a row are not contiguous in
+     * memory.
+     *
+     * <p>16 floats fill a typical 64-byte cache line.
      */
+    protected static final int ROWS_PER_TILE = 16;
+
+    /** The number of voxels in each row. */
+    private final int extent;
+
+    /** The number of groups of rows. */
+    private final int numberGroups;
 
-    private int k; // NOSONAR
-    private float[] f, z; // NOSONAR
-    private int[] y;
+    /** The number of rows in each group. */
+    private final int rowsPerGroup;
+
+    /** The maximum number of rows in a block. */
+    private final int rowsPerBlock;
+
+    /** The number of blocks in each group. */
+    private final int blocksPerGroup;
+
+    /** If present, the label of each voxel. */
+    private final Optional<EDTLabels> labels;
+
+    /** If present, the feature of each voxel, which is carried to the voxels nearest to it. */
+    private final Optional<EDTFeatures> features;
 
     /**
      * Constructs an EDTDimensionBase with a given extent.
      *
      * @param extent the extent of the dimension being processed
+     * @param numberGroups the number of groups of rows
+     * @param rowsPerGroup the number of rows in each group
+     * @param rowsPerBlock the maximum number of rows that are loaded and stored together
+     * @param labels if present, the label of each voxel
+     * @param features if present, the feature of each voxel
      */
-    protected EDTDimensionBase(int extent) {
+    protected EDTDimensionBase(
+            int extent,
+            int numberGroups,
+            int rowsPerGroup,
+            int rowsPerBlock,
+            Optional<EDTLabels> labels,
+            Optional<EDTFeatures> features) {
         this.extent = extent;
-        f = new float[extent + 1];
-        z = new float[extent + 1];
-        y = new int[extent + 1];
+        this.numberGroups = numberGroups;
+        this.rowsPerGroup = rowsPerGroup;
+        this.rowsPerBlock = rowsPerBlock;
+        this.blocksPerGroup = (rowsPerGroup + rowsPerBlock - 1) / rowsPerBlock;
+        this.labels = labels;
+        this.features = features;
     }
 
-    /** Computes the Euclidean Distance Transform for all rows in this dimension. */
-    public final void compute() {
-        while (nextRow()) {
-            computeRow();
-        }
+    /**
+     * Computes the Euclidean Distance Transform for all rows in this dimension.
+     *
+     * @param parallel how the blocks of rows are distributed across threads
+     * @param capSquared squared distances are saturated at this value, which may be {@link
+     *     Float#POSITIVE_INFINITY} so they are never saturated
+     * @param integerKernel if true, the integer kernel of {@link LowerEnvelope} is used, which
+     *     requires that the multiplication constant is one, and that every finite squared
+     *     distance is an integer below {@link LowerEnvelope#INTEGER_LIMIT}
+     */
+    public final void compute(ParallelRows parallel, float capSquared, boolean integerKernel) {
+        parallel.forEachRow(
+                numberGroups * blocksPerGroup,
+                () ->
+                        new Scratch(
+                                extent,
+                                rowsPerBlock,
+                                labels.isPresent() || features.isPresent(),
+                                capSquared,
+                                integerKernel),
+                this::computeBlock);
     }
 
     /**
-     * Gets the value at a specific column in the current row.
+     * Copies the values of neighbouring rows into {@code values}.
+     *
+     * <p>This must be safe to call concurrently for different blocks.
      *
-     * @param column the column index
-     * @return the value at the specified column
+     * @param group the index of the group the rows belong to
+     * @param firstRow the index of the first row to load, relative to the group
+     * @param numberRows the number of rows to load
+     * @param values the arrays to copy the values into, one for each row
      */
-    protected abstract float get(int column);
+    protected abstract void loadBlock(int group, int firstRow, int numberRows, float[][] values);
 
     /**
-     * Sets the value at a specific column in the current row.
+     * Copies transformed values of neighbouring rows from {@code values}.
      *
-     * @param column the column index
-     * @param value the value to set
+     * <p>This must be safe to call concurrently for different blocks.
+     *
+     * @param group the index of the group the rows belong to
+     * @param firstRow the index of the first row to store, relative to the group
+     * @param numberRows the number of rows to store
+     * @param values the transformed values to copy, one array for each row
      */
-    protected abstract void set(int column, float value);
+    protected abstract void storeBlock(int group, int firstRow, int numberRows, float[][] values);
 
     /**
-     * Gets the multiplication constant for this dimension.
+     * Copies the labels of neighbouring rows into {@code rowLabels}.
      *
-     * @return the multiplication constant
+     * <p>This must be safe to call concurrently for different blocks.
+     *
+     * @param labels the labels to copy from
+     * @param group the index of the group the rows belong to
+     * @param firstRow the index of the first row to load, relative to the group
+     * @param numberRows the number of rows to load
+     * @param rowLabels the arrays to copy the labels into, one for each row
      */
-    protected abstract float getMultiplyConstant();
+    protected abstract void loadLabels(
+            EDTLabels labels, int group, int firstRow, int numberRows, int[][] rowLabels);
+
+    /**
+     * Copies the features of neighbouring rows into {@code rowFeatures}.
+     *
+     * <p>This must be safe to call concurrently for different blocks.
+     *
+     * @param features the features to copy from
+     * @param group the index of the group the rows belong to
+     * @param firstRow the index of the first row to load, relative to the group
+     * @param numberRows the number of rows to load
+     * @param rowFeatures the arrays to copy the features into, one for each row
+     */
+    protected abstract void loadFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures);
+
+    /**
+     * Copies the replaced features of neighbouring rows from {@code rowFeatures}.
+     *
+     * <p>This must be safe to call concurrently for different blocks.
+     *
+     * @param features the features to copy to
+     * @param group the index of the group the rows belong to
+     * @param firstRow the index of the first row to store, relative to the group
+     * @param numberRows the number of rows to store
+     * @param rowFeatures the features to copy, one array for each row
+     */
+    protected abstract void storeFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures);
 
     /**
-     * Moves to the next row for processing.
+     * Gets the multiplication constant for this dimension.
      *
-     * @return true if there is a next row to process, false otherwise
+     * @return the multiplication constant
      */
-    protected abstract boolean nextRow();
-
-    private final void computeRow() {
-        // calculate the parabolae ("lower envelope")
-        f[0] = Float.MAX_VALUE;
-        y[0] = -1;
-        z[0] = Float.MAX_VALUE;
-        k = 0;
-        float fx, s; // NOSONAR
-        for (int x = 0; x < extent; x++) {
-            fx = get(x);
-            for (; ; ) { // NOSONAR
-                // calculate the intersection
-                s = ((fx + x * x) - (f[k] + y[k] * y[k])) / 2 / (x - y[k]);
-                if (s > z[k]) break;
-                if (--k < 0) break;
+    protected abstract float getMultiplyConstant();
+
+    private void computeBlock(Scratch scratch, int block) {
+        int group = block / blocksPerGroup;
+        int firstRow = (block % blocksPerGroup) * rowsPerBlock;
+        int numberRows = Math.min(rowsPerBlock, rowsPerGroup - firstRow);
+
+        loadBlock(group, firstRow, numberRows, scratch.rows);
+        if (labels.isPresent()) {
+            loadLabels(labels.get(), group, firstRow, numberRows, scratch.rowIntegers);
+            for (int i = 0; i < numberRows; i++) {
+                scratch.envelope.transformRuns(
+                        scratch.rows[i], scratch.rowIntegers[i], getMultiplyConstant());
             }
-            k++;
-            y[k] = x;
-            f[k] = fx;
-            z[k] = s;
-        }
-        z[++k] = Float.MAX_VALUE;
-        // calculate g(x)
-        int i = 0;
-        for (int x = 0; x < extent; x++) {
-            while (z[i + 1] < x) {
-                i++;
+        } else if (features.isPresent()) {
+            loadFeatures(features.get(), group, firstRow, numberRows, scratch.rowIntegers);
+            for (int i = 0; i < numberRows; i++) {
+                scratch.envelope.transformRow(
+                        scratch.rows[i], scratch.rowIntegers[i], getMultiplyConstant());
             }
-            set(x, getMultiplyConstant() * (x - y[i]) * (x - y[i]) + f[i]);
+            storeFeatures(features.get(), group, firstRow, numberRows, scratch.rowIntegers);
+        } else {
+            for (int i = 0; i < numberRows; i++) {
+                scratch.envelope.transformRow(scratch.rows[i], getMultiplyConstant());
+            }
+        }
+        storeBlock(group, firstRow, numberRows, scratch.rows);
+    }
+
+    /** Scratch-space used by a single worker. */
+    private static class Scratch {
+        private final LowerEnvelope envelope;
+        private final float[][] rows;
+
+        /** The labels or features of each row, if either are present. */
+        private final int[][] rowIntegers;
+
+        public Scratch(
+                int extent,
+                int rowsPerBlock,
+                boolean withIntegers,
+                float capSquared,
+                boolean integerKernel) {
+            envelope = new LowerEnvelope(extent, capSquared, integerKernel);
+            rows = new float[rowsPerBlock][extent];
+            rowIntegers = withIntegers ? new int[rowsPerBlock][extent] : null;
         }
     }
 }
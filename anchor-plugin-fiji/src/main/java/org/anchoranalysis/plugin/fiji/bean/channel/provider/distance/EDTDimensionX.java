@@ -22,29 +22,46 @@
 
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.nio.FloatBuffer;
+import java.util.Optional;
 import lombok.Getter;
-import org.anchoranalysis.image.voxel.Voxels;
 
-/** Computes the Euclidean Distance Transform along the X dimension. */
+/**
+ * Computes the Euclidean Distance Transform along the X dimension.
+ *
+ * <p>As this is the final pass, the distances are placed in an {@link EDTOutput}, rather than
+ * replacing the squared distances they are derived from.
+ */
 class EDTDimensionX extends EDTOneDimension {
 
     /** The constant to multiply the distance values by. */
     @Getter private float multiplyConstant;
 
+    /** Where the distances are placed. */
+    private EDTOutput output;
+
     /**
      * Creates a new instance for computing EDT along the X dimension.
      *
-     * @param out the {@link Voxels} to store the output
+     * @param in the {@link EDTScratch} containing squared distances from the previous passes
+     * @param output where the distances are placed
      * @param multiplyConstant the constant to multiply the distance values by
+     * @param labels if present, the label of each voxel
+     * @param features if present, the feature of each voxel
      */
-    public EDTDimensionX(Voxels<FloatBuffer> out, float multiplyConstant) {
-        super(out, true);
+    public EDTDimensionX(
+            EDTScratch in,
+            EDTOutput output,
+            float multiplyConstant,
+            Optional<EDTLabels> labels,
+            Optional<EDTFeatures> features) {
+        super(in, true, labels, features);
+        this.output = output;
         this.multiplyConstant = multiplyConstant;
     }
 
     @Override
-    protected final void set(int x, float value) {
-        putIntoBuffer(x, (float) Math.sqrt(value));
+    protected final void storeBlock(int group, int firstRow, int numberRows, float[][] values) {
+        // Rows along X are never tiled, so there is exactly one row
+        output.place(group, firstRow * values[0].length, values[0]);
     }
 }
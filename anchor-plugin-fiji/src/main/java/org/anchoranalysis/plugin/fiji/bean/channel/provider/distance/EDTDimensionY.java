@@ -22,9 +22,8 @@
 
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.nio.FloatBuffer;
+import java.util.Optional;
 import lombok.Getter;
-import org.anchoranalysis.image.voxel.Voxels;
 
 /** Computes the Euclidean Distance Transform along the Y dimension. */
 class EDTDimensionY extends EDTOneDimension {
@@ -35,16 +34,17 @@ class EDTDimensionY extends EDTOneDimension {
     /**
      * Creates a new instance for computing EDT along the Y dimension.
      *
-     * @param out the {@link Voxels} to store the output
+     * @param scratch the {@link EDTScratch} to load values from and store them in
      * @param multiplyConstant the constant to multiply the distance values by
+     * @param labels if present, the label of each voxel
+     * @param features if present, the feature of each voxel
      */
-    public EDTDimensionY(Voxels<FloatBuffer> out, float multiplyConstant) {
-        super(out, false);
+    public EDTDimensionY(
+            EDTScratch scratch,
+            float multiplyConstant,
+            Optional<EDTLabels> labels,
+            Optional<EDTFeatures> features) {
+        super(scratch, false, labels, features);
         this.multiplyConstant = multiplyConstant;
     }
-
-    @Override
-    protected final void set(int x, float value) {
-        putIntoBuffer(x, value);
-    }
 }
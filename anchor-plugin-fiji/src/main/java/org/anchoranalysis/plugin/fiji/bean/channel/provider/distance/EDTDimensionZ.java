@@ -22,17 +22,35 @@
 
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.nio.FloatBuffer;
+import java.util.Optional;
 import lombok.Getter;
 import org.anchoranalysis.image.voxel.Voxels;
 import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
 
-/** Computes the Euclidean Distance Transform along the Z dimension. */
+/**
+ * Computes the Euclidean Distance Transform along the Z dimension.
+ *
+ * <p>Neighbouring XY offsets are processed together, so each slice is read sequentially.
+ */
 class EDTDimensionZ extends EDTDimensionBase {
+
+    /** If non-null, the mask the squared distances are initialized from. */
     private byte[][] inSlice;
+
+    /** If non-null, the labels the squared distances are initialized from. */
+    private EDTLabels labels;
+
+    /** If non-null, the features whose non-zero voxels are the seeds. */
+    private int[][] featureSlice;
+
+    /** If non-null, the arrays the squared distances are stored in. */
     private float[][] outSlice;
-    private int offset;
-    private int bufferXYSize;
+
+    /** If non-null, the file the squared distances are stored in, instead of {@code outSlice}. */
+    private EDTScratchFile outFile;
+
+    /** The number of slices. */
+    private final int sizeZ;
 
     /** The constant to multiply the distance values by. */
     @Getter private float multiplyConstant;
@@ -41,44 +59,176 @@ class EDTDimensionZ extends EDTDimensionBase {
      * Creates a new instance for computing EDT along the Z dimension.
      *
      * @param in the input {@link Voxels} containing unsigned byte data
-     * @param out the output {@link Voxels} to store float results
+     * @param out the output {@link EDTScratch} to store float results
+     * @param multiplyConstant the constant to multiply the distance values by
+     */
+    public EDTDimensionZ(Voxels<UnsignedByteBuffer> in, EDTScratch out, float multiplyConstant) {
+        this(in, multiplyConstant);
+        outSlice = new float[sizeZ][];
+        for (int i = 0; i < sizeZ; i++) {
+            outSlice[i] = out.slice(i);
+        }
+    }
+
+    /**
+     * Creates a new instance for computing EDT along the Z dimension, storing the squared
+     * distances in a file rather than on the heap.
+     *
+     * @param in the input {@link Voxels} containing unsigned byte data
+     * @param out the file to store float results in
      * @param multiplyConstant the constant to multiply the distance values by
      */
     public EDTDimensionZ(
-            Voxels<UnsignedByteBuffer> in, Voxels<FloatBuffer> out, float multiplyConstant) {
-        super(in.extent().z());
+            Voxels<UnsignedByteBuffer> in, EDTScratchFile out, float multiplyConstant) {
+        this(in, multiplyConstant);
+        outFile = out;
+    }
+
+    private EDTDimensionZ(Voxels<UnsignedByteBuffer> in, float multiplyConstant) {
+        super(
+                in.extent().z(),
+                1,
+                in.extent().areaXY(),
+                ROWS_PER_TILE,
+                Optional.empty(),
+                Optional.empty());
 
         this.multiplyConstant = multiplyConstant;
+        this.sizeZ = in.extent().z();
 
-        int sizeZ = in.extent().z();
+        inSlice = new byte[sizeZ][];
+        for (int i = 0; i < sizeZ; i++) {
+            inSlice[i] = in.sliceBuffer(i).array();
+        }
+    }
 
-        bufferXYSize = in.extent().areaXY();
+    /**
+     * Creates a new instance for computing EDT along the Z dimension, for labelled voxels.
+     *
+     * @param labels the label of each voxel
+     * @param out the output {@link EDTScratch} to store float results
+     * @param multiplyConstant the constant to multiply the distance values by
+     */
+    public EDTDimensionZ(EDTLabels labels, EDTScratch out, float multiplyConstant) {
+        super(
+                labels.getExtent().z(),
+                1,
+                labels.getExtent().areaXY(),
+                ROWS_PER_TILE,
+                Optional.of(labels),
+                Optional.empty());
 
-        inSlice = new byte[sizeZ][];
+        this.multiplyConstant = multiplyConstant;
+
+        this.sizeZ = labels.getExtent().z();
+
+        this.labels = labels;
         outSlice = new float[sizeZ][];
         for (int i = 0; i < sizeZ; i++) {
-            inSlice[i] = in.sliceBuffer(i).array();
-            outSlice[i] = out.sliceBuffer(i).array();
+            outSlice[i] = out.slice(i);
+        }
+    }
+
+    /**
+     * Creates a new instance for computing EDT along the Z dimension, carrying features.
+     *
+     * @param features the feature of each voxel, where non-zero features are seeds
+     * @param out the output {@link EDTScratch} to store float results
+     * @param multiplyConstant the constant to multiply the distance values by
+     */
+    public EDTDimensionZ(EDTFeatures features, EDTScratch out, float multiplyConstant) {
+        super(
+                features.getExtent().z(),
+                1,
+                features.getExtent().areaXY(),
+                ROWS_PER_TILE,
+                Optional.empty(),
+                Optional.of(features));
+
+        this.multiplyConstant = multiplyConstant;
+
+        this.sizeZ = features.getExtent().z();
+
+        featureSlice = new int[sizeZ][];
+        outSlice = new float[sizeZ][];
+        for (int i = 0; i < sizeZ; i++) {
+            featureSlice[i] = features.slice(i);
+            outSlice[i] = out.slice(i);
         }
-        offset = -1;
     }
 
     @Override
-    public final float get(int x) {
-        return inSlice[x][offset] == 0 ? 0 : Float.MAX_VALUE;
+    protected final void loadBlock(int group, int firstRow, int numberRows, float[][] values) {
+        if (inSlice != null) {
+            for (int z = 0; z < inSlice.length; z++) {
+                byte[] in = inSlice[z];
+                for (int i = 0; i < numberRows; i++) {
+                    values[i][z] = in[firstRow + i] == 0 ? 0 : Float.MAX_VALUE;
+                }
+            }
+        } else if (labels != null) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int i = 0; i < numberRows; i++) {
+                    values[i][z] = labels.get(z, firstRow + i) == 0 ? 0 : Float.MAX_VALUE;
+                }
+            }
+        } else {
+            for (int z = 0; z < featureSlice.length; z++) {
+                int[] in = featureSlice[z];
+                for (int i = 0; i < numberRows; i++) {
+                    values[i][z] = in[firstRow + i] != 0 ? 0 : Float.MAX_VALUE;
+                }
+            }
+        }
     }
 
     @Override
-    public final void set(int x, float value) {
-        outSlice[x][offset] = value;
+    protected final void storeBlock(int group, int firstRow, int numberRows, float[][] values) {
+        if (outFile != null) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int i = 0; i < numberRows; i++) {
+                    outFile.put(z, firstRow + i, values[i][z]);
+                }
+            }
+        } else {
+            for (int z = 0; z < sizeZ; z++) {
+                float[] out = outSlice[z];
+                for (int i = 0; i < numberRows; i++) {
+                    out[firstRow + i] = values[i][z];
+                }
+            }
+        }
     }
 
-    /**
-     * Moves to the next row (XY plane) for processing.
-     *
-     * @return true if there is a next row to process, false otherwise
-     */
-    public final boolean nextRow() {
-        return ++offset < bufferXYSize;
+    @Override
+    protected final void loadLabels(
+            EDTLabels labels, int group, int firstRow, int numberRows, int[][] rowLabels) {
+        for (int z = 0; z < sizeZ; z++) {
+            for (int i = 0; i < numberRows; i++) {
+                rowLabels[i][z] = labels.get(z, firstRow + i);
+            }
+        }
+    }
+
+    @Override
+    protected final void loadFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures) {
+        for (int z = 0; z < featureSlice.length; z++) {
+            int[] in = featureSlice[z];
+            for (int i = 0; i < numberRows; i++) {
+                rowFeatures[i][z] = in[firstRow + i];
+            }
+        }
+    }
+
+    @Override
+    protected final void storeFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures) {
+        for (int z = 0; z < featureSlice.length; z++) {
+            int[] out = featureSlice[z];
+            for (int i = 0; i < numberRows; i++) {
+                out[firstRow + i] = rowFeatures[i][z];
+            }
+        }
     }
 }
@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.Getter;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * A feature for each voxel, which the distance transform replaces with the feature of the nearest
+ * seed voxel, i.e. a feature transform.
+ *
+ * <p>Voxels with a non-zero feature are seeds, from which distances are measured. Every other voxel
+ * initially has feature zero, and a voxel remains zero only if no seed is reachable, or every seed is
+ * beyond the maximum distance.
+ */
+class EDTFeatures {
+
+    /** The size of the region. */
+    @Getter private final Extent extent;
+
+    /** An array of features for each slice, which are replaced in-place. */
+    private final int[][] slices;
+
+    private EDTFeatures(Extent extent, int[][] slices) {
+        this.extent = extent;
+        this.slices = slices;
+    }
+
+    /**
+     * Creates with each object as a seed, whose feature is its label.
+     *
+     * @param objects the objects, which must each lie inside {@code extent}.
+     * @param extent the size of the region.
+     * @return newly created features, where the first object has feature one, the second two,
+     *     and so on.
+     */
+    public static EDTFeatures fromObjects(ObjectCollection objects, Extent extent) {
+        return new EDTFeatures(extent, RasterizeObjects.labels(objects, extent));
+    }
+
+    /**
+     * The features for a particular slice.
+     *
+     * @param z the index of the slice.
+     * @return the array of features, which may be modified.
+     */
+    public int[] slice(int z) {
+        return slices[z];
+    }
+}
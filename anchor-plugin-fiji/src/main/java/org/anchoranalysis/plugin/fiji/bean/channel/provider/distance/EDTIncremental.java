@@ -0,0 +1,462 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.nio.FloatBuffer;
+import java.util.Objects;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Updates an existing distance map after its mask has changed only inside a box, with work
+ * proportional to the voxels the change can affect, rather than to the entire volume.
+ *
+ * <p>Only voxels whose nearest background voxel may be inside the changed box can change
+ * distance. A voxel is unaffected if its previous distance is less than its distance to the box,
+ * as its nearest background voxel is then outside the box, and unchanged, and any background
+ * voxel added inside the box is further away. The affected voxels are found by scanning outwards
+ * from the changed box, stopping once no further voxel can be affected, so the rest of the
+ * distance map is never visited.
+ *
+ * <p>The affected voxels are recomputed, by the usual separable passes, on a region grown by a
+ * margin around them, treating voxels beyond the region as foreground. A recomputed distance is
+ * never too small, and is exact whenever the ball of that radius around the voxel lies inside the
+ * region, or the region reaches the edge of the volume, as no closer background voxel can then
+ * have been missed. Otherwise the margin is doubled and the region recomputed, until every
+ * affected voxel is exact.
+ *
+ * <p>As this relies on each pass finding the exact minimum along a row, distances must not be
+ * multiplied along any dimension.
+ *
+ * <p>With the integer kernel of {@link LowerEnvelope}, used whenever every squared distance in the
+ * volume is below {@link LowerEnvelope#INTEGER_LIMIT}, the result is bit-identical to transforming
+ * the entire volume again. Otherwise, the float kernel calculates the intersection of parabolae
+ * from coordinates relative to the region, rather than to the volume, which may round differently.
+ * A voxel almost equally near to two background voxels may then have a distance that differs in
+ * its least significant bits.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class EDTIncremental {
+
+    /** The margin initially grown around the affected voxels, before any doubling. */
+    private static final int INITIAL_MARGIN = 16;
+
+    /**
+     * The relative tolerance when comparing a previous distance to a squared distance to the box.
+     *
+     * <p>Distances that are not squared are squared again, with a small loss of precision, so this
+     * errs on the side of treating a voxel as affected.
+     */
+    private static final double TOLERANCE = 1e-5;
+
+    /**
+     * When scanning for affected voxels, how much smaller than its distance to the changed box a
+     * voxel's previous distance may be, for voxels further out to still be affected.
+     *
+     * <p>This exceeds the square-root of three, the furthest a voxel can be from a point on a
+     * line through the volume, so allows for the discrete positions of voxels.
+     */
+    private static final double SLACK = 2.0;
+
+    /** The multiplication factors for each dimension, as distances are never multiplied. */
+    private static final float[] MULTIPLY_DIMENSIONS = new float[] {1.0f, 1.0f, 1.0f};
+
+    /**
+     * Updates a distance map in-place, after its mask has changed.
+     *
+     * @param mask the changed mask, where zero indicates background, and any other value
+     *     foreground
+     * @param distances the distances calculated for the mask before it changed, with the same
+     *     extent as {@code mask}, which are replaced in-place
+     * @param squared if true, {@code distances} are squared distances
+     * @param changed a box containing every voxel whose value in {@code mask} has changed
+     * @param suppressZ if true, each slice was transformed independently
+     * @param maxDistance distances are saturated at this value, or {@link EDT#UNBOUNDED}
+     * @param parallel how the rows of each dimension are distributed across threads
+     */
+    public static void update(
+            Voxels<UnsignedByteBuffer> mask,
+            Voxels<FloatBuffer> distances,
+            boolean squared,
+            BoundingBox changed,
+            boolean suppressZ,
+            float maxDistance,
+            ParallelRows parallel) {
+        Extent extent = mask.extent();
+        Box changedBox = Box.clamped(changed, extent);
+        Box affected = affectedBox(distances, squared, changedBox, suppressZ);
+        if (affected == null) {
+            return;
+        }
+
+        // the same kernel as for the entire volume, as the kernels can differ at near-ties
+        boolean integerKernel = EDT.isIntegerExact(extent, suppressZ, MULTIPLY_DIMENSIONS);
+        EDTScratch scratch = new EDTScratch();
+        int margin = INITIAL_MARGIN;
+        while (true) { // NOSONAR
+            Box region = affected.grow(margin, suppressZ, extent);
+            transformRegion(
+                    mask, region, scratch, suppressZ, maxDistance, integerKernel, parallel);
+            if (region.isEntire(extent)
+                    || allExact(distances, squared, changedBox, region, scratch, suppressZ)) {
+                replaceAffected(distances, squared, changedBox, region, scratch, suppressZ);
+                return;
+            }
+            margin *= 2;
+        }
+    }
+
+    /**
+     * The bounding-box of all affected voxels, or null if no voxel is affected.
+     *
+     * <p>Shells of voxels around the changed box are scanned, one voxel further out at a time,
+     * until a shell contains no voxel whose previous distance is within {@link #SLACK} of its
+     * distance to the box. As the distance map changes by at most the distance between two voxels,
+     * any affected voxel further out would imply such a voxel in every shell nearer the box, so
+     * only the affected voxels and a single further shell are ever visited.
+     */
+    private static Box affectedBox(
+            Voxels<FloatBuffer> distances, boolean squared, Box changed, boolean suppressZ) {
+        Extent extent = distances.extent();
+        ShellScan scan = new ShellScan(distances, squared, changed, suppressZ);
+        Box inner = null;
+        for (int margin = 0; ; margin++) { // NOSONAR
+            Box outer = changed.grow(margin, suppressZ, extent);
+            if (inner != null && outer.equals(inner)) {
+                // the shell lies entirely outside the volume
+                return scan.affected();
+            }
+            if (!scan.visitShell(outer, inner)) {
+                return scan.affected();
+            }
+            inner = outer;
+        }
+    }
+
+    /** Transforms the mask inside a region, placing the squared distances in {@code scratch}. */
+    private static void transformRegion(
+            Voxels<UnsignedByteBuffer> mask,
+            Box region,
+            EDTScratch scratch,
+            boolean suppressZ,
+            float maxDistance,
+            boolean integerKernel,
+            ParallelRows parallel) {
+        Voxels<UnsignedByteBuffer> regionMask =
+                MaskRegion.extract(
+                        mask, new Point3i(region.minX, region.minY, region.minZ), region.extent());
+        EDT.compute(
+                regionMask,
+                scratch,
+                new EDTOutputFloat(scratch, true),
+                suppressZ,
+                MULTIPLY_DIMENSIONS,
+                maxDistance,
+                integerKernel,
+                parallel);
+    }
+
+    /**
+     * Whether the recomputed distance of every affected voxel is exact, as the ball around it
+     * lies inside the region, wherever the region does not reach the edge of the volume.
+     */
+    private static boolean allExact(
+            Voxels<FloatBuffer> distances,
+            boolean squared,
+            Box changed,
+            Box region,
+            EDTScratch scratch,
+            boolean suppressZ) {
+        Extent extent = distances.extent();
+        Extent regionExtent = region.extent();
+        for (int z = region.minZ; z <= region.maxZ; z++) {
+            float[] slice = distances.sliceBuffer(z).array();
+            float[] recomputed = scratch.slice(z - region.minZ);
+            for (int y = region.minY; y <= region.maxY; y++) {
+                for (int x = region.minX; x <= region.maxX; x++) {
+                    float previous = slice[y * extent.x() + x];
+                    if (isAffected(previous, squared, changed, x, y, z, suppressZ)) {
+                        float distance =
+                                recomputed[
+                                        (y - region.minY) * regionExtent.x() + (x - region.minX)];
+                        if (!region.containsBall(x, y, z, distance, suppressZ, extent)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Replaces the distance of every affected voxel with its recomputed distance. */
+    private static void replaceAffected(
+            Voxels<FloatBuffer> distances,
+            boolean squared,
+            Box changed,
+            Box region,
+            EDTScratch scratch,
+            boolean suppressZ) {
+        Extent extent = distances.extent();
+        Extent regionExtent = region.extent();
+        for (int z = region.minZ; z <= region.maxZ; z++) {
+            float[] slice = distances.sliceBuffer(z).array();
+            float[] recomputed = scratch.slice(z - region.minZ);
+            for (int y = region.minY; y <= region.maxY; y++) {
+                for (int x = region.minX; x <= region.maxX; x++) {
+                    int offset = y * extent.x() + x;
+                    if (isAffected(slice[offset], squared, changed, x, y, z, suppressZ)) {
+                        float distance =
+                                recomputed[
+                                        (y - region.minY) * regionExtent.x() + (x - region.minX)];
+                        slice[offset] = squared ? distance : (float) Math.sqrt(distance);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Whether the distance of a voxel may change, given its previous distance. */
+    private static boolean isAffected(
+            float previous, boolean squared, Box changed, int x, int y, int z, boolean suppressZ) {
+        if (suppressZ && (z < changed.minZ || z > changed.maxZ)) {
+            // the slice is transformed independently of the changed slices
+            return false;
+        }
+        double previousSquared = squared ? previous : (double) previous * previous;
+        return previousSquared * (1 + TOLERANCE)
+                >= squaredDistanceToBox(changed, x, y, z, suppressZ);
+    }
+
+    /** The squared distance from a voxel to the nearest voxel in a box. */
+    private static long squaredDistanceToBox(Box box, int x, int y, int z, boolean suppressZ) {
+        return square(outside(x, box.minX, box.maxX))
+                + square(outside(y, box.minY, box.maxY))
+                + (suppressZ ? 0 : square(outside(z, box.minZ, box.maxZ)));
+    }
+
+    /** How far a coordinate is outside a range, or zero if inside it. */
+    private static int outside(int value, int min, int max) {
+        if (value < min) {
+            return min - value;
+        } else if (value > max) {
+            return value - max;
+        } else {
+            return 0;
+        }
+    }
+
+    private static long square(long value) {
+        return value * value;
+    }
+
+    /** Visits shells of voxels around the changed box, recording the affected voxels. */
+    private static class ShellScan {
+        private final Voxels<FloatBuffer> distances;
+        private final boolean squared;
+        private final Box changed;
+        private final boolean suppressZ;
+        private final int sizeX;
+
+        /** The bounding-box of the affected voxels visited so far, empty if there are none. */
+        private int minX = Integer.MAX_VALUE;
+
+        private int minY = Integer.MAX_VALUE;
+        private int minZ = Integer.MAX_VALUE;
+        private int maxX = -1;
+        private int maxY = -1;
+        private int maxZ = -1;
+
+        public ShellScan(
+                Voxels<FloatBuffer> distances, boolean squared, Box changed, boolean suppressZ) {
+            this.distances = distances;
+            this.squared = squared;
+            this.changed = changed;
+            this.suppressZ = suppressZ;
+            this.sizeX = distances.extent().x();
+        }
+
+        /**
+         * Visits every voxel inside {@code outer} but outside {@code inner}.
+         *
+         * @param outer the outer box of the shell.
+         * @param inner the inner box of the shell, which lies inside {@code outer}, or null if the
+         *     shell is the entire outer box.
+         * @return true if any visited voxel has a previous distance within {@link #SLACK} of its
+         *     distance to the changed box, so voxels further out may also be affected.
+         */
+        public boolean visitShell(Box outer, Box inner) {
+            boolean near = false;
+            for (int z = outer.minZ; z <= outer.maxZ; z++) {
+                float[] slice = distances.sliceBuffer(z).array();
+                for (int y = outer.minY; y <= outer.maxY; y++) {
+                    if (inner != null && inner.containsRow(y, z)) {
+                        // only the voxels either side of the inner box
+                        if (outer.minX < inner.minX) {
+                            near |= visit(slice, outer.minX, y, z);
+                        }
+                        if (outer.maxX > inner.maxX) {
+                            near |= visit(slice, outer.maxX, y, z);
+                        }
+                    } else {
+                        for (int x = outer.minX; x <= outer.maxX; x++) {
+                            near |= visit(slice, x, y, z);
+                        }
+                    }
+                }
+            }
+            return near;
+        }
+
+        /** The bounding-box of the affected voxels visited so far, or null if there are none. */
+        public Box affected() {
+            return maxX >= 0 ? new Box(minX, minY, minZ, maxX, maxY, maxZ) : null;
+        }
+
+        /** Visits a voxel, returning true if its previous distance is near its distance. */
+        private boolean visit(float[] slice, int x, int y, int z) {
+            float previous = slice[y * sizeX + x];
+            if (isAffected(previous, squared, changed, x, y, z, suppressZ)) {
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+                return true;
+            }
+            double previousDistance = squared ? Math.sqrt(previous) : previous;
+            double withSlack = previousDistance + SLACK;
+            return withSlack * withSlack >= squaredDistanceToBox(changed, x, y, z, suppressZ);
+        }
+    }
+
+    /** A box, with inclusive minimum and maximum corners, that is cheap to grow and combine. */
+    private static class Box {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        private Box(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        /** A box, clamped so that it lies inside {@code extent}. */
+        public static Box clamped(BoundingBox box, Extent extent) {
+            ReadableTuple3i min = box.cornerMin();
+            Point3i max = box.calculateCornerMaxInclusive();
+            return new Box(
+                    clamp(min.x(), extent.x()),
+                    clamp(min.y(), extent.y()),
+                    clamp(min.z(), extent.z()),
+                    clamp(max.x(), extent.x()),
+                    clamp(max.y(), extent.y()),
+                    clamp(max.z(), extent.z()));
+        }
+
+        /** Grows the box by a margin on every side, clamped to {@code extent}. */
+        public Box grow(int margin, boolean suppressZ, Extent extent) {
+            int marginZ = suppressZ ? 0 : margin;
+            return new Box(
+                    Math.max(minX - margin, 0),
+                    Math.max(minY - margin, 0),
+                    Math.max(minZ - marginZ, 0),
+                    Math.min(maxX + margin, extent.x() - 1),
+                    Math.min(maxY + margin, extent.y() - 1),
+                    Math.min(maxZ + marginZ, extent.z() - 1));
+        }
+
+        public Extent extent() {
+            return new Extent(maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+        }
+
+        /** Whether the box contains any voxel in a particular row. */
+        public boolean containsRow(int y, int z) {
+            return y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Box)) {
+                return false;
+            }
+            Box box = (Box) other;
+            return minX == box.minX
+                    && minY == box.minY
+                    && minZ == box.minZ
+                    && maxX == box.maxX
+                    && maxY == box.maxY
+                    && maxZ == box.maxZ;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        /** Whether the box covers the entire volume. */
+        public boolean isEntire(Extent extent) {
+            return minX == 0
+                    && minY == 0
+                    && minZ == 0
+                    && maxX == extent.x() - 1
+                    && maxY == extent.y() - 1
+                    && maxZ == extent.z() - 1;
+        }
+
+        /**
+         * Whether no voxel outside the box, and inside {@code extent}, is closer to a point than a
+         * squared distance.
+         */
+        public boolean containsBall(
+                int x, int y, int z, float squaredDistance, boolean suppressZ, Extent extent) {
+            return ballInside(x, minX, maxX, extent.x(), squaredDistance)
+                    && ballInside(y, minY, maxY, extent.y(), squaredDistance)
+                    && (suppressZ || ballInside(z, minZ, maxZ, extent.z(), squaredDistance));
+        }
+
+        /** Whether a ball lies inside a range along one axis, ignoring the edges of the volume. */
+        private static boolean ballInside(
+                int value, int min, int max, int size, float squaredDistance) {
+            return (min == 0 || squaredDistance <= square(value - min + 1L))
+                    && (max == size - 1 || squaredDistance <= square(max + 1L - value));
+        }
+
+        private static int clamp(int value, int size) {
+            return Math.max(0, Math.min(value, size - 1));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.Getter;
+import org.anchoranalysis.core.exception.CreateException;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * A label for each voxel, where zero indicates background, and each other value a distinct
+ * object.
+ *
+ * <p>When transforming labels, each voxel's distance is to the nearest voxel with a different
+ * label.
+ *
+ * <p>Labels are either stored explicitly, or derived on the fly from a mask.
+ */
+class EDTLabels {
+
+    /** The size of the labelled region. */
+    @Getter private final Extent extent;
+
+    /** An array of labels for each slice, or null if labels are derived from {@code mask}. */
+    private final int[][] slices;
+
+    /** An array of mask values for each slice, or null if labels are stored in {@code slices}. */
+    private final byte[][] mask;
+
+    private EDTLabels(Extent extent) {
+        this(extent, new int[extent.z()][extent.areaXY()]);
+    }
+
+    private EDTLabels(Extent extent, int[][] slices) {
+        this.extent = extent;
+        this.slices = slices;
+        this.mask = null;
+    }
+
+    private EDTLabels(Voxels<UnsignedByteBuffer> mask) {
+        this.extent = mask.extent();
+        this.slices = null;
+        this.mask = new byte[extent.z()][];
+        for (int z = 0; z < extent.z(); z++) {
+            this.mask[z] = mask.sliceBuffer(z).array();
+        }
+    }
+
+    /**
+     * Creates from a mask, so background and foreground voxels have distinct non-zero labels.
+     *
+     * <p>Each voxel's distance is then to the nearest voxel of the opposite phase, i.e. the
+     * distance to background inside the mask, and the distance to foreground outside it. The
+     * labels are derived from the mask when needed, rather than copied.
+     *
+     * @param mask the mask, where zero indicates background, and any other value foreground.
+     * @return labels that refer to {@code mask}.
+     */
+    public static EDTLabels fromMask(Voxels<UnsignedByteBuffer> mask) {
+        return new EDTLabels(mask);
+    }
+
+    /**
+     * Creates from voxels whose intensity values are labels.
+     *
+     * @param voxels the voxels, which must be of unsigned byte or unsigned short type.
+     * @return newly created labels, copied from {@code voxels}.
+     * @throws CreateException if the voxels are of any other type.
+     */
+    public static EDTLabels fromVoxels(VoxelsUntyped voxels) throws CreateException {
+        EDTLabels labels = new EDTLabels(voxels.extent());
+        int areaXY = labels.extent.areaXY();
+        if (voxels.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+            for (int z = 0; z < labels.slices.length; z++) {
+                byte[] in = voxels.asByte().sliceBuffer(z).array();
+                int[] out = labels.slices[z];
+                for (int i = 0; i < areaXY; i++) {
+                    out[i] = in[i] & 0xFF;
+                }
+            }
+        } else if (voxels.getVoxelDataType().equals(UnsignedShortVoxelType.INSTANCE)) {
+            for (int z = 0; z < labels.slices.length; z++) {
+                short[] in = voxels.asShort().sliceBuffer(z).array();
+                int[] out = labels.slices[z];
+                for (int i = 0; i < areaXY; i++) {
+                    out[i] = in[i] & 0xFFFF;
+                }
+            }
+        } else {
+            throw new CreateException(
+                    "Labels must be of unsigned byte or unsigned short type, but are of type "
+                            + voxels.getVoxelDataType());
+        }
+        return labels;
+    }
+
+    /**
+     * Creates by rasterizing objects, so that each object has a distinct label.
+     *
+     * <p>The first object is labelled one, the second two, and so on. Where objects overlap, the
+     * later object's label is used.
+     *
+     * @param objects the objects, which must each lie inside {@code extent}.
+     * @param extent the size of the labelled region.
+     * @return newly created labels.
+     */
+    public static EDTLabels fromObjects(ObjectCollection objects, Extent extent) {
+        return new EDTLabels(extent, RasterizeObjects.labels(objects, extent));
+    }
+
+    /**
+     * The label of a particular voxel.
+     *
+     * @param z the index of the slice.
+     * @param offset the offset of the voxel in the slice.
+     * @return the label.
+     */
+    public int get(int z, int offset) {
+        if (slices != null) {
+            return slices[z][offset];
+        } else {
+            return mask[z][offset] == 0 ? 1 : 2;
+        }
+    }
+}
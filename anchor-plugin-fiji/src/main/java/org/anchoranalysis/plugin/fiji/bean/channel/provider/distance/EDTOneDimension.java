@@ -22,63 +22,113 @@
 
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
-import java.nio.FloatBuffer;
-import org.anchoranalysis.image.voxel.Voxels;
+import java.util.Optional;
 import org.anchoranalysis.spatial.box.Extent;
 
 /** Base class for computing Euclidean Distance Transform along a single dimension (X or Y). */
 abstract class EDTOneDimension extends EDTDimensionBase {
 
-    private Voxels<FloatBuffer> stack;
-    private FloatBuffer slice;
-    private int offset;
-    private int lastOffset;
+    private float[][] slices;
     private int rowStride;
     private int columnStride;
-    private int sliceIndex;
 
     /**
      * Creates a new instance for computing EDT along a single dimension.
      *
-     * @param out the {@link Voxels} to store the output
+     * @param scratch the {@link EDTScratch} to load values from, and by default to store them in
      * @param iterateX if true, iterate along X dimension; if false, iterate along Y dimension
+     * @param labels if present, the label of each voxel
+     * @param features if present, the feature of each voxel
      */
-    protected EDTOneDimension(Voxels<FloatBuffer> out, boolean iterateX) {
-        super(iterateX ? out.extent().x() : out.extent().y());
-        stack = out;
+    protected EDTOneDimension(
+            EDTScratch scratch,
+            boolean iterateX,
+            Optional<EDTLabels> labels,
+            Optional<EDTFeatures> features) {
+        // When iterating along Y, neighbouring columns are tiled, so memory is read sequentially.
+        super(
+                iterateX ? scratch.getExtent().x() : scratch.getExtent().y(),
+                scratch.getExtent().z(),
+                iterateX ? scratch.getExtent().y() : scratch.getExtent().x(),
+                iterateX ? 1 : ROWS_PER_TILE,
+                labels,
+                features);
 
-        Extent extent = out.extent();
+        Extent extent = scratch.getExtent();
 
         columnStride = iterateX ? 1 : extent.x();
         rowStride = iterateX ? extent.x() : 1;
-        offset = extent.areaXY();
-        lastOffset = rowStride * (iterateX ? extent.y() : extent.x());
-        sliceIndex = -1;
+
+        slices = new float[extent.z()][];
+        for (int z = 0; z < extent.z(); z++) {
+            slices[z] = scratch.slice(z);
+        }
     }
 
     @Override
-    protected final float get(int x) {
-        return slice.get(x * columnStride + offset);
+    protected final void loadBlock(int group, int firstRow, int numberRows, float[][] values) {
+        float[] slice = slices[group];
+        int extent = values[0].length;
+        for (int x = 0; x < extent; x++) {
+            int index = x * columnStride + firstRow * rowStride;
+            for (int i = 0; i < numberRows; i++) {
+                values[i][x] = slice[index];
+                index += rowStride;
+            }
+        }
     }
 
     @Override
-    protected final boolean nextRow() {
-        offset += rowStride;
-        if (offset >= lastOffset) {
-            if (++sliceIndex >= stack.extent().z()) return false;
-            offset = 0;
-            slice = stack.sliceBuffer(sliceIndex);
+    protected void storeBlock(int group, int firstRow, int numberRows, float[][] values) {
+        float[] slice = slices[group];
+        int extent = values[0].length;
+        for (int x = 0; x < extent; x++) {
+            int index = x * columnStride + firstRow * rowStride;
+            for (int i = 0; i < numberRows; i++) {
+                slice[index] = values[i][x];
+                index += rowStride;
+            }
         }
-        return true;
     }
 
-    /**
-     * Puts a value into the buffer at a specific position.
-     *
-     * @param x the x-coordinate
-     * @param value the value to put into the buffer
-     */
-    protected void putIntoBuffer(int x, float value) {
-        slice.put(x * columnStride + offset, value);
+    @Override
+    protected final void loadLabels(
+            EDTLabels labels, int group, int firstRow, int numberRows, int[][] rowLabels) {
+        int extent = rowLabels[0].length;
+        for (int x = 0; x < extent; x++) {
+            int index = x * columnStride + firstRow * rowStride;
+            for (int i = 0; i < numberRows; i++) {
+                rowLabels[i][x] = labels.get(group, index);
+                index += rowStride;
+            }
+        }
+    }
+
+    @Override
+    protected final void loadFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures) {
+        int[] slice = features.slice(group);
+        int extent = rowFeatures[0].length;
+        for (int x = 0; x < extent; x++) {
+            int index = x * columnStride + firstRow * rowStride;
+            for (int i = 0; i < numberRows; i++) {
+                rowFeatures[i][x] = slice[index];
+                index += rowStride;
+            }
+        }
+    }
+
+    @Override
+    protected final void storeFeatures(
+            EDTFeatures features, int group, int firstRow, int numberRows, int[][] rowFeatures) {
+        int[] slice = features.slice(group);
+        int extent = rowFeatures[0].length;
+        for (int x = 0; x < extent; x++) {
+            int index = x * columnStride + firstRow * rowStride;
+            for (int i = 0; i < numberRows; i++) {
+                slice[index] = rowFeatures[i][x];
+                index += rowStride;
+            }
+        }
     }
 }
@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import org.anchoranalysis.core.exception.friendly.AnchorImpossibleSituationException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+
+/**
+ * Where the final pass of the distance transform places its distances.
+ *
+ * <p>The final pass calculates squared distances, which are converted to distances (unless
+ * squared distances are requested) and directly placed in the output's voxels, so no intermediate
+ * channel or conversion pass is needed.
+ */
+@AllArgsConstructor(access = AccessLevel.PROTECTED)
+abstract class EDTOutput {
+
+    /** If true, squared distances are placed, skipping the square-root. */
+    private final boolean squared;
+
+    /**
+     * Creates an output that places distances in particular voxels.
+     *
+     * @param voxels the voxels to place distances in, which must be unsigned 8-bit, unsigned
+     *     16-bit or float.
+     * @param squared if true, the squared distances are placed, rather than the distances.
+     * @return a newly created output.
+     */
+    public static EDTOutput create(VoxelsUntyped voxels, boolean squared) {
+        VoxelDataType dataType = voxels.getVoxelDataType();
+        if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+            return new EDTOutputUnsignedByte(voxels.asByte(), squared);
+        } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+            return new EDTOutputUnsignedShort(voxels.asShort(), squared);
+        } else if (dataType.equals(FloatVoxelType.INSTANCE)) {
+            return new EDTOutputFloat(voxels.asFloat(), squared);
+        } else {
+            throw new AnchorImpossibleSituationException();
+        }
+    }
+
+    /**
+     * Voxels that can be reused as the scratch buffer for the earlier passes, if they exist.
+     *
+     * @return the voxels, if the output can be reused, otherwise {@link Optional#empty}.
+     */
+    public Optional<EDTScratch> scratch() {
+        return Optional.empty();
+    }
+
+    /**
+     * Places distances for a contiguous run of voxels in a slice.
+     *
+     * <p>This must be safe to call concurrently for different runs of voxels.
+     *
+     * @param z the index of the slice.
+     * @param offset the offset of the first voxel in the slice.
+     * @param squaredDistances the squared distance for each voxel in the run.
+     */
+    public abstract void place(int z, int offset, float[] squaredDistances);
+
+    /**
+     * Converts a squared distance to the value to place.
+     *
+     * @param squaredDistance the squared distance.
+     * @return the squared distance, or its square-root, as requested.
+     */
+    protected final float convert(float squaredDistance) {
+        return squared ? squaredDistance : (float) Math.sqrt(squaredDistance);
+    }
+}
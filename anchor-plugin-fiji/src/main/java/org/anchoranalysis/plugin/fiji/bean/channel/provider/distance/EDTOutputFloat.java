@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+import org.anchoranalysis.image.voxel.Voxels;
+
+/**
+ * Places distances in float voxels, without any loss of precision.
+ *
+ * <p>As the voxels are the same type as the scratch buffer of the earlier passes, they are reused as
+ * that scratch buffer, and each row is replaced in-place by the final pass.
+ */
+class EDTOutputFloat extends EDTOutput {
+
+    private final EDTScratch voxels;
+
+    /**
+     * Creates to place distances in particular voxels.
+     *
+     * @param voxels the voxels to place distances in.
+     * @param squared if true, the squared distances are placed, rather than the distances.
+     */
+    public EDTOutputFloat(Voxels<FloatBuffer> voxels, boolean squared) {
+        this(new EDTScratch(voxels), squared);
+    }
+
+    /**
+     * Creates to place distances in a scratch buffer.
+     *
+     * @param voxels the scratch buffer to place distances in.
+     * @param squared if true, the squared distances are placed, rather than the distances.
+     */
+    public EDTOutputFloat(EDTScratch voxels, boolean squared) {
+        super(squared);
+        this.voxels = voxels;
+    }
+
+    @Override
+    public Optional<EDTScratch> scratch() {
+        return Optional.of(voxels);
+    }
+
+    @Override
+    public void place(int z, int offset, float[] squaredDistances) {
+        float[] slice = voxels.slice(z);
+        for (int i = 0; i < squaredDistances.length; i++) {
+            slice[offset + i] = convert(squaredDistances[i]);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Places distances for a region of a volume in an output for the entire volume.
+ *
+ * <p>Voxels are indexed relative to the region, and are shifted to their position in the volume,
+ * before being placed in the output. A contiguous run of voxels must lie in a single row.
+ */
+class EDTOutputRegion extends EDTOutput {
+
+    /** Where the distances for the entire volume are placed. */
+    private final EDTOutput volume;
+
+    /** The position in the volume of the minimum corner of the region. */
+    private final ReadableTuple3i corner;
+
+    /** The size of the region along the X-axis. */
+    private final int regionWidth;
+
+    /** The size of the volume along the X-axis. */
+    private final int volumeWidth;
+
+    /**
+     * Creates to place distances for a region in an output for the entire volume.
+     *
+     * @param volume where the distances for the entire volume are placed.
+     * @param corner the position in the volume of the minimum corner of the region.
+     * @param regionWidth the size of the region along the X-axis.
+     * @param volumeWidth the size of the volume along the X-axis.
+     */
+    public EDTOutputRegion(
+            EDTOutput volume, ReadableTuple3i corner, int regionWidth, int volumeWidth) {
+        // The conversion is performed by the output for the entire volume
+        super(true);
+        this.volume = volume;
+        this.corner = corner;
+        this.regionWidth = regionWidth;
+        this.volumeWidth = volumeWidth;
+    }
+
+    @Override
+    public void place(int z, int offset, float[] squaredDistances) {
+        volume.place(corner.z() + z, volumeOffset(offset), squaredDistances);
+    }
+
+    /** The offset in a slice of the volume, of an offset in a slice of the region. */
+    private int volumeOffset(int offset) {
+        int y = offset / regionWidth;
+        int x = offset % regionWidth;
+        return (corner.y() + y) * volumeWidth + corner.x() + x;
+    }
+}
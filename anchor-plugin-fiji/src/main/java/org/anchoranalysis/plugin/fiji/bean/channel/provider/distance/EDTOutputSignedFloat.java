@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+
+/**
+ * Places signed distances in float voxels, positive inside a mask and negative outside it.
+ *
+ * <p>Like {@link EDTOutputFloat}, the voxels are reused as the scratch buffer of the earlier passes.
+ */
+class EDTOutputSignedFloat extends EDTOutput {
+
+    private final EDTScratch voxels;
+
+    /** The mask for each slice, where zero indicates outside. */
+    private final byte[][] mask;
+
+    /**
+     * Creates to place signed distances in particular voxels.
+     *
+     * @param voxels the voxels to place distances in.
+     * @param mask the mask, determining the sign of each distance, with the same extent as {@code
+     *     voxels}.
+     * @param squared if true, the signed squared distances are placed, rather than the distances.
+     */
+    public EDTOutputSignedFloat(
+            Voxels<FloatBuffer> voxels, Voxels<UnsignedByteBuffer> mask, boolean squared) {
+        super(squared);
+        this.voxels = new EDTScratch(voxels);
+        int sizeZ = mask.extent().z();
+        this.mask = new byte[sizeZ][];
+        for (int z = 0; z < sizeZ; z++) {
+            this.mask[z] = mask.sliceBuffer(z).array();
+        }
+    }
+
+    @Override
+    public Optional<EDTScratch> scratch() {
+        return Optional.of(voxels);
+    }
+
+    @Override
+    public void place(int z, int offset, float[] squaredDistances) {
+        float[] slice = voxels.slice(z);
+        byte[] inside = mask[z];
+        for (int i = 0; i < squaredDistances.length; i++) {
+            float distance = convert(squaredDistances[i]);
+            slice[offset + i] = inside[offset + i] != 0 ? distance : -distance;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+/**
+ * Places distances in unsigned integer voxels.
+ *
+ * <p>Distances (or squared distances) are clamped to the maximum value of the data-type, and
+ * truncated to an integer.
+ */
+abstract class EDTOutputUnsigned extends EDTOutput {
+
+    /** The maximum value of the data-type. */
+    private final float maxValue;
+
+    /**
+     * Creates for a data-type with a particular maximum value.
+     *
+     * @param squared if true, the squared distances are placed, rather than the distances.
+     * @param maxValue the maximum value of the data-type.
+     */
+    protected EDTOutputUnsigned(boolean squared, int maxValue) {
+        super(squared);
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Places distances for a contiguous run of voxels in a slice, but only where a mask is on, and
+     * only where the distance is greater than the existing value.
+     *
+     * <p>As voxels are only ever increased, the result does not depend on the order in which
+     * overlapping runs are placed.
+     *
+     * @param z the index of the slice.
+     * @param offset the offset of the first voxel in the slice.
+     * @param squaredDistances the squared distances, from which the run is taken.
+     * @param sourceOffset the index of the first element of the run in {@code squaredDistances}
+     *     and {@code mask}.
+     * @param length the number of voxels in the run.
+     * @param mask a non-zero value indicates the corresponding voxel is placed, indexed identically
+     *     to {@code squaredDistances}.
+     */
+    public abstract void placeMaximumWithin(
+            int z,
+            int offset,
+            float[] squaredDistances,
+            int sourceOffset,
+            int length,
+            byte[] mask);
+
+    /**
+     * Converts a squared distance to an integer value, clamped to the range of the data-type.
+     *
+     * @param squaredDistance the squared distance.
+     * @return the value to place.
+     */
+    protected final int quantize(float squaredDistance) {
+        float distance = convert(squaredDistance);
+        return (int) Math.min(distance, maxValue);
+    }
+}
@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedShortBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+
+/**
+ * Places distances in unsigned 16-bit voxels.
+ *
+ * <p>See {@link EDTOutputUnsigned} for how distances are converted.
+ */
+class EDTOutputUnsignedShort extends EDTOutputUnsigned {
+
+    private final short[][] slices;
+
+    /**
+     * Creates to place distances in particular voxels.
+     *
+     * @param voxels the voxels to place distances in.
+     * @param squared if true, the squared distances are placed, rather than the distances.
+     */
+    public EDTOutputUnsignedShort(Voxels<UnsignedShortBuffer> voxels, boolean squared) {
+        super(squared, UnsignedShortVoxelType.MAX_VALUE_INT);
+        int sizeZ = voxels.extent().z();
+        slices = new short[sizeZ][];
+        for (int z = 0; z < sizeZ; z++) {
+            slices[z] = voxels.sliceBuffer(z).array();
+        }
+    }
+
+    @Override
+    public void place(int z, int offset, float[] squaredDistances) {
+        short[] slice = slices[z];
+        for (int i = 0; i < squaredDistances.length; i++) {
+            slice[offset + i] = (short) quantize(squaredDistances[i]);
+        }
+    }
+
+    @Override
+    public void placeMaximumWithin(
+            int z,
+            int offset,
+            float[] squaredDistances,
+            int sourceOffset,
+            int length,
+            byte[] mask) {
+        short[] slice = slices[z];
+        for (int i = 0; i < length; i++) {
+            if (mask[sourceOffset + i] != 0) {
+                int value = quantize(squaredDistances[sourceOffset + i]);
+                if (value > (slice[offset + i] & 0xFFFF)) {
+                    slice[offset + i] = (short) value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.nio.FloatBuffer;
+import lombok.Getter;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Float scratch buffer for the squared distances of the earlier passes, with an array per slice.
+ *
+ * <p>The arrays may be larger than needed, so a buffer can be reused for successively transforming
+ * differently sized regions, only growing when a region is larger than any before it.
+ */
+class EDTScratch {
+
+    /** The extent of the region the buffer currently represents. */
+    @Getter private Extent extent;
+
+    /** An array for each slice, each containing at least as many elements as the area of a slice. */
+    private float[][] slices;
+
+    /** Creates an empty buffer, which must be sized by {@link #reuseFor} before it is used. */
+    public EDTScratch() {
+        slices = new float[0][];
+    }
+
+    /**
+     * Creates a buffer that uses existing voxels as its storage.
+     *
+     * @param voxels the voxels.
+     */
+    public EDTScratch(Voxels<FloatBuffer> voxels) {
+        extent = voxels.extent();
+        slices = new float[extent.z()][];
+        for (int z = 0; z < extent.z(); z++) {
+            slices[z] = voxels.sliceBuffer(z).array();
+        }
+    }
+
+    /**
+     * Creates a newly allocated buffer of a particular size.
+     *
+     * @param extent the size of the buffer.
+     * @return the newly allocated buffer.
+     */
+    public static EDTScratch allocate(Extent extent) {
+        EDTScratch scratch = new EDTScratch();
+        scratch.reuseFor(extent);
+        return scratch;
+    }
+
+    /**
+     * Changes the size of the region the buffer represents, allocating only where the existing
+     * arrays are too small.
+     *
+     * <p>Existing values are not preserved.
+     *
+     * @param extent the new size.
+     */
+    public void reuseFor(Extent extent) {
+        this.extent = extent;
+        if (slices.length < extent.z()) {
+            float[][] existing = slices;
+            slices = new float[extent.z()][];
+            System.arraycopy(existing, 0, slices, 0, existing.length);
+        }
+        for (int z = 0; z < extent.z(); z++) {
+            if (slices[z] == null || slices[z].length < extent.areaXY()) {
+                slices[z] = new float[extent.areaXY()];
+            }
+        }
+    }
+
+    /**
+     * The array for a particular slice.
+     *
+     * @param z the index of the slice.
+     * @return the array, which may be longer than the area of a slice.
+     */
+    public float[] slice(int z) {
+        return slices[z];
+    }
+}
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import lombok.Getter;
+import org.anchoranalysis.spatial.box.Extent;
+
+/**
+ * Float scratch buffer for the squared distances of the earlier passes, stored in a temporary file
+ * rather than on the heap.
+ *
+ * <p>The file is memory-mapped in slabs of neighbouring slices, so the operating system pages
+ * slices to and from disk as needed, and the heap only ever holds the slab currently being
+ * processed.
+ *
+ * <p>The file is deleted by {@link #close}. Some platforms, such as Windows, cannot delete a file
+ * while any part of it remains mapped, and a mapping is only released when garbage-collected. On
+ * such platforms, deletion is instead attempted when the JVM exits, and the file is left behind in
+ * the temporary directory if it is still mapped then.
+ */
+class EDTScratchFile implements AutoCloseable {
+
+    /** The number of bytes in a float. */
+    private static final int BYTES_PER_FLOAT = 4;
+
+    /** The extent of the region the buffer represents. */
+    @Getter private final Extent extent;
+
+    /** The number of neighbouring slices mapped together. */
+    @Getter private final int slicesPerSlab;
+
+    /** The path of the temporary file. */
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /** A view of the mapped file for each slice, only ever accessed with absolute indices. */
+    private final FloatBuffer[] slices;
+
+    /**
+     * Creates a temporary file, large enough for the squared distances of a region.
+     *
+     * @param extent the size of the region.
+     * @param slicesPerSlab the number of neighbouring slices to map together, so that no mapping
+     *     exceeds two gigabytes.
+     * @throws IOException if a slab would exceed two gigabytes, or the file cannot be created or
+     *     mapped.
+     */
+    public EDTScratchFile(Extent extent, int slicesPerSlab) throws IOException {
+        this.extent = extent;
+        this.slicesPerSlab = slicesPerSlab;
+        checkSlabSize(extent, slicesPerSlab);
+
+        this.path = Files.createTempFile("distanceTransform", ".scratch");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.slices = new FloatBuffer[extent.z()];
+        try {
+            mapSlabs();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Assigns the squared distance of a voxel.
+     *
+     * <p>This is safe to call concurrently for different voxels.
+     *
+     * @param z the index of the slice.
+     * @param offset the offset of the voxel in the slice.
+     * @param value the squared distance.
+     */
+    public void put(int z, int offset, float value) {
+        slices[z].put(offset, value);
+    }
+
+    /**
+     * Copies a slab of neighbouring slices into a heap scratch buffer.
+     *
+     * @param firstSlice the index of the first slice of the slab.
+     * @param destination the buffer to copy into, whose extent determines the number of slices.
+     */
+    public void copySlabTo(int firstSlice, EDTScratch destination) {
+        int areaXY = extent.areaXY();
+        for (int z = 0; z < destination.getExtent().z(); z++) {
+            slices[firstSlice + z].duplicate().get(destination.slice(z), 0, areaXY);
+        }
+    }
+
+    /**
+     * Closes the file, and deletes it, or if it cannot yet be deleted, deletes it when the JVM
+     * exits.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(slices, null);
+        channel.close();
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            // the file is typically still mapped, which some platforms do not allow to be deleted
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    /** Maps each slab of neighbouring slices, and creates a view of each slice. */
+    private void mapSlabs() throws IOException {
+        int areaXY = extent.areaXY();
+        for (int slab = 0; slab < extent.z(); slab += slicesPerSlab) {
+            int numberSlices = Math.min(slicesPerSlab, extent.z() - slab);
+            FloatBuffer mapped =
+                    channel.map(
+                                    MapMode.READ_WRITE,
+                                    (long) slab * areaXY * BYTES_PER_FLOAT,
+                                    (long) numberSlices * areaXY * BYTES_PER_FLOAT)
+                            .order(ByteOrder.nativeOrder())
+                            .asFloatBuffer();
+            for (int i = 0; i < numberSlices; i++) {
+                mapped.limit((i + 1) * areaXY).position(i * areaXY);
+                slices[slab + i] = mapped.slice();
+            }
+        }
+    }
+
+    /**
+     * Checks that a slab can be memory-mapped, as no single mapping may exceed two gigabytes.
+     *
+     * @throws IOException if a slab, or even a single slice, is too large.
+     */
+    private static void checkSlabSize(Extent extent, int slicesPerSlab) throws IOException {
+        long bytesPerSlice = (long) extent.areaXY() * BYTES_PER_FLOAT;
+        if (bytesPerSlice > Integer.MAX_VALUE) {
+            throw new IOException(
+                    String.format(
+                            "A single slice of %d x %d voxels needs %d bytes of squared"
+                                    + " distances, but at most %d bytes can be memory-mapped at"
+                                    + " once. Transform in memory instead.",
+                            extent.x(), extent.y(), bytesPerSlice, Integer.MAX_VALUE));
+        }
+        if (slicesPerSlab * bytesPerSlice > Integer.MAX_VALUE) {
+            throw new IOException(
+                    String.format(
+                            "A slab of %d slices needs %d bytes, but at most %d bytes can be"
+                                    + " memory-mapped at once.",
+                            slicesPerSlab, slicesPerSlab * bytesPerSlice, Integer.MAX_VALUE));
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space to calculate the lower envelope of parabolae for a single row.
+ *
+ * <p>The arrays are overwritten for every row, so each worker thread needs its own instance.
+ *
+ * <p>When distances are not multiplied, and every finite squared distance is an integer below
+ * {@link #INTEGER_LIMIT}, an integer kernel may be used instead. The intersections of parabolae
+ * are then calculated exactly, by integer division, rather than with a float division whose
+ * rounding can misplace voxels near an intersection. As every integer below the limit is exactly
+ * representable as a float, the squared distances remain exact, and are identical on every JVM.
+ */
+class LowerEnvelope {
+
+    /**
+     * Squared distances must be below this, for the integer kernel to be used.
+     *
+     * <p>Every integer below it is exactly representable as a float, and the sums in the integer
+     * kernel never overflow.
+     */
+    public static final int INTEGER_LIMIT = 1 << 24;
+
+    private final int extent;
+
+    /*
+     * parabola k is defined by y[k] (v in the paper)
+     * and f[k] (f(v[k]) in the paper): (y, f) is the
+     * coordinate of the minimum of the parabola.
+     * z[k] determines the left bound of the interval
+     * in which the k-th parabola determines the lower
+     * envelope.
+     */
+    private final float[] f, z; // NOSONAR
+    private final int[] y;
+
+    /** Like {@code f} and {@code z} but for the integer kernel, or null if it is not used. */
+    private final int[] fInteger, zInteger; // NOSONAR
+
+    /** A run of a row, with a background voxel on either side, for labelled rows. */
+    private final float[] run;
+
+    /** A copy of the features of a row, before they are replaced. */
+    private final int[] featuresBefore;
+
+    /**
+     * Transformed values are saturated at this value, and parabolae whose minimum is not below it
+     * are ignored.
+     */
+    private final float capSquared;
+
+    /**
+     * Creates scratch space for rows of a particular length.
+     *
+     * @param extent the number of voxels in each row
+     * @param capSquared transformed values are saturated at this value, which may be {@link
+     *     Float#POSITIVE_INFINITY} so values are never saturated
+     * @param integerKernel if true, rows without features are transformed by the integer kernel,
+     *     which requires that the multiplication constant is always one, and that every finite
+     *     value is an integer below {@link #INTEGER_LIMIT}
+     */
+    public LowerEnvelope(int extent, float capSquared, boolean integerKernel) {
+        this.extent = extent;
+        this.capSquared = capSquared;
+        f = new float[extent + 3];
+        z = new float[extent + 3];
+        y = new int[extent + 3];
+        run = new float[extent + 2];
+        featuresBefore = new int[extent];
+        fInteger = integerKernel ? new int[extent + 2] : null;
+        zInteger = integerKernel ? new int[extent + 2] : null;
+    }
+
+    /**
+     * Replaces each value in a row with the minimum of the lower envelope at that position.
+     *
+     * @param row the values of the row, which are replaced in-place by the transformed values
+     * @param multiplyConstant the constant to multiply the squared distance along the row by
+     */
+    public void transformRow(float[] row, float multiplyConstant) {
+        transform(row, null, extent, multiplyConstant);
+    }
+
+    /**
+     * Like {@link #transformRow} but also replaces each voxel's feature with the feature of the
+     * voxel whose parabola is the minimum at that position.
+     *
+     * <p>Across all passes, this carries the feature of the nearest seed voxel to every voxel.
+     *
+     * @param row the values of the row, which are replaced in-place by the transformed values
+     * @param features the feature of each voxel in the row, which are replaced in-place, and
+     *     become zero where the value is saturated
+     * @param multiplyConstant the constant to multiply the squared distance along the row by
+     */
+    public void transformRow(float[] row, int[] features, float multiplyConstant) {
+        transform(row, features, extent, multiplyConstant);
+    }
+
+    /**
+     * Like {@link #transformRow} but each voxel only considers voxels with the same label as
+     * itself, every voxel with a different label being treated as background.
+     *
+     * <p>The row is split into runs of identical labels. Any voxel beyond a neighbouring voxel
+     * with a different label is further away than that neighbour, so each run is transformed
+     * separately, with a background voxel either side of it where a neighbour exists. Runs with
+     * label zero are background.
+     *
+     * @param row the values of the row, which are replaced in-place by the transformed values
+     * @param labels the label of each voxel in the row
+     * @param multiplyConstant the constant to multiply the squared distance along the row by
+     */
+    public void transformRuns(float[] row, int[] labels, float multiplyConstant) {
+        int start = 0;
+        while (start < extent) {
+            int label = labels[start];
+            int end = start + 1;
+            while (end < extent && labels[end] == label) {
+                end++;
+            }
+
+            if (label == 0) {
+                Arrays.fill(row, start, end, 0.0f);
+            } else if (start == 0 && end == extent) {
+                transform(row, null, extent, multiplyConstant);
+            } else {
+                transformRun(row, start, end, multiplyConstant);
+            }
+            start = end;
+        }
+    }
+
+    /** Transforms the voxels from {@code start} (inclusive) to {@code end} (exclusive). */
+    private void transformRun(float[] row, int start, int end, float multiplyConstant) {
+        int offset = start > 0 ? 1 : 0;
+        int length = end - start;
+        run[0] = 0.0f;
+        System.arraycopy(row, start, run, offset, length);
+        int lengthWithBackground = offset + length;
+        if (end < extent) {
+            run[lengthWithBackground++] = 0.0f;
+        }
+        transform(run, null, lengthWithBackground, multiplyConstant);
+        System.arraycopy(run, offset, row, start, length);
+    }
+
+    /**
+     * Transforms the first {@code length} values of {@code row} in-place, and if non-null, the
+     * corresponding {@code features}.
+     */
+    private void transform(float[] row, int[] features, int length, float multiplyConstant) {
+        if (fInteger != null && features == null) {
+            transformInteger(row, length);
+            return;
+        }
+
+        // calculate the parabolae ("lower envelope")
+        f[0] = Float.MAX_VALUE;
+        y[0] = -1;
+        z[0] = Float.MAX_VALUE;
+        int k = 0;
+        float fx, s; // NOSONAR
+        for (int x = 0; x < length; x++) {
+            fx = row[x];
+            if (fx >= capSquared) {
+                // the parabola can never drop below the cap, so is irrelevant
+                continue;
+            }
+            for (; ; ) { // NOSONAR
+                // calculate the intersection
+                s = ((fx + x * x) - (f[k] + y[k] * y[k])) / 2 / (x - y[k]);
+                if (s > z[k]) break;
+                if (--k < 0) break;
+            }
+            k++;
+            y[k] = x;
+            f[k] = fx;
+            z[k] = s;
+        }
+        if (y[0] == -1) {
+            // no parabola is below the cap, so every value is saturated
+            Arrays.fill(row, 0, length, capSquared);
+            if (features != null) {
+                Arrays.fill(features, 0, length, 0);
+            }
+            return;
+        }
+        z[++k] = Float.MAX_VALUE;
+        // calculate g(x)
+        int i = 0;
+        if (features == null) {
+            // a segment at a time, so the inner loop has no dependencies, and can be vectorised
+            int start = 0;
+            for (; i < k && start < length; i++) {
+                int end = lastPositionNotAfter(z[i + 1], length);
+                float yi = y[i];
+                float fi = f[i];
+                for (int x = start; x <= end; x++) {
+                    float distance = x - yi;
+                    row[x] = Math.min(multiplyConstant * distance * distance + fi, capSquared);
+                }
+                start = Math.max(start, end + 1);
+            }
+        } else {
+            System.arraycopy(features, 0, featuresBefore, 0, length);
+            for (int x = 0; x < length; x++) {
+                while (z[i + 1] < x) {
+                    i++;
+                }
+                float value = multiplyConstant * (x - y[i]) * (x - y[i]) + f[i];
+                if (value < capSquared) {
+                    row[x] = value;
+                    features[x] = featuresBefore[y[i]];
+                } else {
+                    // no seed is closer than the cap
+                    row[x] = capSquared;
+                    features[x] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The last position in a row, that is not after a particular intersection.
+     *
+     * @param intersection the intersection.
+     * @param length the number of voxels in the row.
+     * @return the largest position that is at or before {@code intersection}, and less than
+     *     {@code length}, which may be negative.
+     */
+    private static int lastPositionNotAfter(float intersection, int length) {
+        if (intersection >= length - 1) {
+            return length - 1;
+        } else if (intersection < 0) {
+            return -1;
+        } else {
+            return (int) intersection;
+        }
+    }
+
+    /**
+     * Like {@link #transform} but with integer arithmetic, and a multiplication constant of one.
+     *
+     * <p>Parabola {@code k} is the minimum for positions after {@code zInteger[k]} up to and
+     * including {@code zInteger[k + 1]}. As only integer positions are evaluated, an intersection
+     * is rounded down, and a parabola is discarded when it is the minimum for no integer position.
+     *
+     * <p>Values at or above {@link #INTEGER_LIMIT} are infinite. As any finite parabola is lower
+     * everywhere in the row, they are ignored, as are values at or above the cap.
+     */
+    private void transformInteger(float[] row, int length) {
+        float limit = Math.min(capSquared, INTEGER_LIMIT);
+        int k = -1;
+        for (int x = 0; x < length; x++) {
+            if (row[x] >= limit) {
+                continue;
+            }
+            int fx = (int) row[x];
+            int s = Integer.MIN_VALUE;
+            while (k >= 0) {
+                // the intersection, rounded down, is after zInteger[k], only if the numerator
+                // reaches the next integer, avoiding a division for every discarded parabola
+                int numerator = (fx + x * x) - (fInteger[k] + y[k] * y[k]);
+                int denominator = 2 * (x - y[k]);
+                if (numerator >= (zInteger[k] + 1L) * denominator) {
+                    s = Math.floorDiv(numerator, denominator);
+                    break;
+                }
+                k--;
+            }
+            k++;
+            y[k] = x;
+            fInteger[k] = fx;
+            zInteger[k] = s;
+        }
+        if (k < 0) {
+            // no parabola is finite and below the cap
+            Arrays.fill(row, 0, length, Math.min(capSquared, Float.MAX_VALUE));
+            return;
+        }
+        // calculate g(x), a segment at a time, so the inner loop has no dependencies
+        for (int i = 0; i <= k; i++) {
+            int start = Math.max(zInteger[i] + 1, 0);
+            int end = i < k ? Math.min(zInteger[i + 1], length - 1) : length - 1;
+            int yi = y[i];
+            int fi = fInteger[i];
+            for (int x = start; x <= end; x++) {
+                int distance = x - yi;
+                row[x] = Math.min(distance * distance + fi, capSquared);
+            }
+        }
+    }
+}
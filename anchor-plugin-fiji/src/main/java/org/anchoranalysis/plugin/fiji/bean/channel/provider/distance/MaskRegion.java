@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/** Finds and extracts regions of a mask, so only part of a volume need be transformed. */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class MaskRegion {
+
+    /**
+     * The bounding-box of the foreground voxels, grown by one voxel on every side, but clamped to
+     * the mask.
+     *
+     * @param mask the mask, where zero indicates background, and any other value foreground.
+     * @param suppressZ if true, the box is not grown along the Z-axis, as slices are transformed
+     *     independently.
+     * @param parallel how the slices are distributed across threads.
+     * @return the grown box, or {@link Optional#empty} if there are no foreground voxels.
+     */
+    public static Optional<BoundingBox> foregroundGrownByOne(
+            Voxels<UnsignedByteBuffer> mask, boolean suppressZ, ParallelRows parallel) {
+        Extent extent = mask.extent();
+
+        // The minimum and maximum foreground x and y of each slice, or -1 if there are none
+        int[][] eachSlice = new int[extent.z()][];
+        parallel.forEachRow(
+                extent.z(), () -> null, (unused, z) -> eachSlice[z] = foregroundInSlice(mask, z));
+
+        int minX = extent.x();
+        int minY = extent.y();
+        int minZ = extent.z();
+        int maxX = -1;
+        int maxY = -1;
+        int maxZ = -1;
+        for (int z = 0; z < extent.z(); z++) {
+            int[] slice = eachSlice[z];
+            if (slice != null) {
+                minX = Math.min(minX, slice[0]);
+                minY = Math.min(minY, slice[1]);
+                maxX = Math.max(maxX, slice[2]);
+                maxY = Math.max(maxY, slice[3]);
+                minZ = Math.min(minZ, z);
+                maxZ = z;
+            }
+        }
+
+        if (maxZ < 0) {
+            return Optional.empty();
+        }
+
+        int growZ = suppressZ ? 0 : 1;
+        Point3i corner =
+                new Point3i(
+                        Math.max(minX - 1, 0), Math.max(minY - 1, 0), Math.max(minZ - growZ, 0));
+        Extent grown =
+                new Extent(
+                        Math.min(maxX + 1, extent.x() - 1) - corner.x() + 1,
+                        Math.min(maxY + 1, extent.y() - 1) - corner.y() + 1,
+                        Math.min(maxZ + growZ, extent.z() - 1) - corner.z() + 1);
+        return Optional.of(BoundingBox.createReuse(corner, grown));
+    }
+
+    /**
+     * Copies a region of a mask into newly created voxels.
+     *
+     * @param mask the mask to copy from.
+     * @param corner the minimum corner of the region in {@code mask}.
+     * @param extent the size of the region.
+     * @return newly created voxels, with the size of the region.
+     */
+    public static Voxels<UnsignedByteBuffer> extract(
+            Voxels<UnsignedByteBuffer> mask, ReadableTuple3i corner, Extent extent) {
+        Voxels<UnsignedByteBuffer> region =
+                VoxelsFactory.getUnsignedByte().createUninitialized(extent);
+        int sizeX = mask.extent().x();
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] source = mask.sliceBuffer(corner.z() + z).array();
+            byte[] destination = region.sliceBuffer(z).array();
+            for (int y = 0; y < extent.y(); y++) {
+                System.arraycopy(
+                        source,
+                        (corner.y() + y) * sizeX + corner.x(),
+                        destination,
+                        y * extent.x(),
+                        extent.x());
+            }
+        }
+        return region;
+    }
+
+    /** The minimum x, minimum y, maximum x and maximum y of the foreground in a slice. */
+    private static int[] foregroundInSlice(Voxels<UnsignedByteBuffer> mask, int z) {
+        Extent extent = mask.extent();
+        byte[] slice = mask.sliceBuffer(z).array();
+        int[] box = null;
+        for (int y = 0; y < extent.y(); y++) {
+            int offset = y * extent.x();
+            int first = firstForeground(slice, offset, extent.x());
+            if (first >= 0) {
+                int last = lastForeground(slice, offset, extent.x());
+                if (box == null) {
+                    box = new int[] {first, y, last, y};
+                } else {
+                    box[0] = Math.min(box[0], first);
+                    box[2] = Math.max(box[2], last);
+                    box[3] = y;
+                }
+            }
+        }
+        return box;
+    }
+
+    /** The index of the first foreground voxel in a row, or -1 if there is none. */
+    private static int firstForeground(byte[] slice, int offset, int sizeX) {
+        for (int x = 0; x < sizeX; x++) {
+            if (slice[offset + x] != 0) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /** The index of the last foreground voxel in a row, which must contain at least one. */
+    private static int lastForeground(byte[] slice, int offset, int sizeX) {
+        int x = sizeX - 1;
+        while (slice[offset + x] == 0) {
+            x--;
+        }
+        return x;
+    }
+}
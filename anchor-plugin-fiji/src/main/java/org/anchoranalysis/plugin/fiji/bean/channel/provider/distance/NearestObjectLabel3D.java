@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.NonNegative;
+import org.anchoranalysis.bean.annotation.Positive;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.bean.provider.ObjectCollectionProvider;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.core.dimensions.Dimensions;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedShortBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.plugin.image.bean.channel.provider.FromDimensionsBase;
+
+/**
+ * Assigns each voxel the label of the nearest object, a discrete Voronoi partition of the objects.
+ *
+ * <p>The first object has label one, the second two, and so on. Voxels inside an object have that
+ * object's label (the later object, where objects overlap).
+ *
+ * <p>This is a feature transform: the Euclidean Distance Transform from all object voxels, which
+ * carries the label of the nearest object voxel through each pass, in linear time.
+ *
+ * <p>A new unsigned 16-bit channel is always created, so there may be at most 65535 objects.
+ */
+public class NearestObjectLabel3D extends FromDimensionsBase {
+
+    /** The maximum number of objects, so that every label fits in the channel. */
+    private static final int MAX_NUMBER_OBJECTS = UnsignedShortVoxelType.MAX_VALUE_INT;
+
+    /** The multiplication factors for each dimension, as the resolution is never applied. */
+    private static final float[] MULTIPLY_DIMENSIONS = new float[] {1.0f, 1.0f, 1.0f};
+
+    // START PROPERTIES
+    /** The objects whose labels are assigned. */
+    @BeanField @Getter @Setter private ObjectCollectionProvider objects;
+
+    /** If true, each slice is partitioned independently. */
+    @BeanField @Getter @Setter private boolean suppressZ = false;
+
+    /**
+     * If positive, voxels further than this distance from every object are assigned zero.
+     *
+     * <p>Zero disables any maximum, so every voxel is assigned an object, if any exist.
+     */
+    @BeanField @NonNegative @Getter @Setter private float maxDistance = 0;
+
+    /**
+     * The maximum number of threads to use.
+     *
+     * <p>By default, a single thread, as jobs are usually already run in parallel. See {@link
+     * DistanceTransform3D}.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
+    // END PROPERTIES
+
+    @Override
+    protected Channel createFromDimensions(Dimensions dimensions) throws ProvisionFailedException {
+
+        ObjectCollection collection = objects.get();
+        if (collection.size() > MAX_NUMBER_OBJECTS) {
+            throw new ProvisionFailedException(
+                    String.format(
+                            "At most %d objects are supported, but there are %d.",
+                            MAX_NUMBER_OBJECTS, collection.size()));
+        }
+
+        boolean excludeZDimension =
+                suppressZ || DistanceTransform3D.hasNanZResolution(dimensions.resolution());
+
+        EDTFeatures features = EDTFeatures.fromObjects(collection, dimensions.extent());
+
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            // The distances themselves are not needed, so are placed in the scratch buffer
+            EDTScratch scratch = EDTScratch.allocate(dimensions.extent());
+            EDT.computeFeatures(
+                    features,
+                    new EDTOutputFloat(scratch, true),
+                    excludeZDimension,
+                    MULTIPLY_DIMENSIONS,
+                    maxDistance > 0 ? maxDistance : EDT.UNBOUNDED,
+                    parallel);
+        }
+
+        Channel out =
+                ChannelFactory.instance()
+                        .createUninitialised(dimensions, UnsignedShortVoxelType.INSTANCE);
+        copyFeatures(features, out.voxels().asShort());
+        return out;
+    }
+
+    /** Copies the features, which are all small enough to be unsigned 16-bit, to the channel. */
+    private static void copyFeatures(EDTFeatures features, Voxels<UnsignedShortBuffer> voxels) {
+        int areaXY = features.getExtent().areaXY();
+        for (int z = 0; z < features.getExtent().z(); z++) {
+            int[] in = features.slice(z);
+            short[] out = voxels.sliceBuffer(z).array();
+            for (int i = 0; i < areaXY; i++) {
+                out[i] = (short) in[i];
+            }
+        }
+    }
+}
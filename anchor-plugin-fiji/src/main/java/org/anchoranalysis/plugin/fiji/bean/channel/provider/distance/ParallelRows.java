@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Distributes independent rows across the threads of a {@link ForkJoinPool}.
+ *
+ * <p>The rows are split into contiguous ranges, and each range is processed by a single task with
+ * its own scratch-space, so no scratch-space is ever shared between threads.
+ *
+ * <p>The pool is only created if more than one thread is requested, and is shut down by {@link
+ * #close}.
+ *
+ * @author Owen Feehan
+ */
+class ParallelRows implements AutoCloseable {
+
+    /** How many tasks to create per thread, so work is balanced if some ranges finish early. */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /** The maximum number of threads to use. */
+    private final int numberThreads;
+
+    /** The pool, lazily created when first needed. */
+    private ForkJoinPool pool;
+
+    /**
+     * Creates to use a particular number of threads.
+     *
+     * @param numberThreads the maximum number of threads to use, which should be at least one.
+     */
+    public ParallelRows(int numberThreads) {
+        this.numberThreads = numberThreads;
+    }
+
+    /**
+     * Processes each row, possibly in parallel.
+     *
+     * @param <S> the type of scratch-space used when processing a row.
+     * @param numberRows the total number of rows, which are indexed from zero.
+     * @param createScratch creates new scratch-space, called at most once for each task.
+     * @param processRow processes a single row, given the scratch-space for the current task and
+     *     the index of the row.
+     */
+    public <S> void forEachRow(
+            int numberRows, Supplier<S> createScratch, ObjIntConsumer<S> processRow) {
+        int numberTasks = Math.min(numberRows, numberThreads * TASKS_PER_THREAD);
+
+        if (numberThreads <= 1 || numberTasks <= 1) {
+            processRange(0, numberRows, createScratch, processRow);
+            return;
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(numberTasks);
+        for (int task = 0; task < numberTasks; task++) {
+            int start = rangeBoundary(task, numberRows, numberTasks);
+            int end = rangeBoundary(task + 1, numberRows, numberTasks);
+            tasks.add(
+                    ForkJoinTask.adapt(() -> processRange(start, end, createScratch, processRow)));
+        }
+        pool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(numberThreads);
+        }
+        return pool;
+    }
+
+    private static <S> void processRange(
+            int start, int end, Supplier<S> createScratch, ObjIntConsumer<S> processRow) {
+        S scratch = createScratch.get();
+        for (int row = start; row < end; row++) {
+            processRow.accept(scratch, row);
+        }
+    }
+
+    /** The first row of a particular task, or the total number of rows after the last task. */
+    private static int rangeBoundary(int task, int numberRows, int numberTasks) {
+        return (int) ((long) numberRows * task / numberTasks);
+    }
+}
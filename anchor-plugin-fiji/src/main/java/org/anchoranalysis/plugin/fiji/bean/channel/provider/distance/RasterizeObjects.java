@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/** Rasterizes objects into an array of integer labels for each slice. */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class RasterizeObjects {
+
+    /**
+     * Assigns a distinct label to the voxels of each object.
+     *
+     * <p>The first object is labelled one, the second two, and so on. Voxels outside every object
+     * are zero. Where objects overlap, the later object's label is used.
+     *
+     * @param objects the objects, which must each lie inside {@code extent}.
+     * @param extent the size of the labelled region.
+     * @return a newly created array of labels for each slice.
+     */
+    public static int[][] labels(ObjectCollection objects, Extent extent) {
+        int[][] slices = new int[extent.z()][extent.areaXY()];
+        int label = 1;
+        for (ObjectMask object : objects) {
+            rasterize(object, label++, slices, extent.x());
+        }
+        return slices;
+    }
+
+    /** Assigns a label to every voxel inside an object. */
+    private static void rasterize(ObjectMask object, int label, int[][] slices, int sizeX) {
+        Extent objectExtent = object.extent();
+        ReadableTuple3i corner = object.boundingBox().cornerMin();
+        for (int z = 0; z < objectExtent.z(); z++) {
+            byte[] mask = object.voxels().sliceBuffer(z).array();
+            int[] slice = slices[corner.z() + z];
+            for (int y = 0; y < objectExtent.y(); y++) {
+                int offsetObject = y * objectExtent.x();
+                int offset = (corner.y() + y) * sizeX + corner.x();
+                for (int x = 0; x < objectExtent.x(); x++) {
+                    if (mask[offsetObject + x] != 0) {
+                        slice[offset + x] = label;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.anchoranalysis.bean.annotation.BeanField;
+import org.anchoranalysis.bean.annotation.NonNegative;
+import org.anchoranalysis.bean.annotation.Positive;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.core.dimensions.Resolution;
+import org.anchoranalysis.image.core.mask.Mask;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.plugin.image.bean.channel.provider.mask.FromMaskBase;
+
+/**
+ * Signed Euclidean Distance Transform, with distances both inside and outside a mask.
+ *
+ * <p>Inside the mask, each voxel is the (positive) distance to the nearest background voxel.
+ * Outside the mask, each voxel is the negated distance to the nearest foreground voxel.
+ *
+ * <p>Both sides are calculated together in a single run of the distance transform, by treating the
+ * mask as a label image with two labels, so that each voxel's distance is to the nearest voxel of
+ * the opposite phase. This needs a single float buffer, which becomes the output, rather than
+ * separately transforming the mask and its inverse.
+ *
+ * <p>The output is always a float channel, as there is no signed integer voxel type.
+ *
+ * <p>A new channel is always created i.e. the input channel is unchanged.
+ */
+public class SignedDistanceTransform3D extends FromMaskBase {
+
+    // START PROPERTIES
+    /** If true, suppresses the z-dimension in distance calculations. */
+    @BeanField @Getter @Setter private boolean suppressZ = false;
+
+    /**
+     * If true, the signed squared distance is output, rather than the signed distance.
+     *
+     * <p>This avoids a square-root for every voxel, and suffices when distances are only compared.
+     */
+    @BeanField @Getter @Setter private boolean squared = false;
+
+    /** If true, multiplies the distances along each dimension by the resolution, if it exists. */
+    @BeanField @Getter @Setter private boolean applyResolution = false;
+
+    /**
+     * If positive, the magnitude of distances is saturated at this distance.
+     *
+     * <p>It is always a distance, never a squared distance, after any resolution is applied. When
+     * {@code squared} is true, the magnitude instead saturates at the square of this value.
+     *
+     * <p>As in {@link DistanceTransform3D}, only the envelope work for saturated voxels is
+     * skipped, not the loading and storing of rows. Zero disables any maximum.
+     */
+    @BeanField @NonNegative @Getter @Setter private float maxDistance = 0;
+
+    /**
+     * The maximum number of threads to use when calculating the distance transform.
+     *
+     * <p>By default, a single thread, as jobs are usually already run in parallel. See {@link
+     * DistanceTransform3D}.
+     */
+    @BeanField @Positive @Getter @Setter private int numberThreads = 1;
+    // END PROPERTIES
+
+    @Override
+    protected Channel createFromMask(Mask mask) throws ProvisionFailedException {
+        if (mask.binaryValuesInt().getOn() != 255) {
+            throw new ProvisionFailedException("Binary On must be 255");
+        }
+
+        if (mask.binaryValuesInt().getOff() != 0) {
+            throw new ProvisionFailedException("Binary Off must be 0");
+        }
+
+        boolean excludeZDimension =
+                suppressZ || DistanceTransform3D.hasNanZResolution(mask.resolution());
+
+        float[] multipliers =
+                new float[] {
+                    DistanceTransform3D.multiplicationFactor(
+                            1.0f, applyResolution, mask, Resolution::x),
+                    DistanceTransform3D.multiplicationFactor(
+                            1.0f, applyResolution, mask, Resolution::y),
+                    DistanceTransform3D.multiplicationFactor(
+                            1.0f, applyResolution, mask, Resolution::z)
+                };
+
+        Channel distances =
+                ChannelFactory.instance()
+                        .createUninitialised(mask.dimensions(), FloatVoxelType.INSTANCE);
+        try (ParallelRows parallel = new ParallelRows(numberThreads)) {
+            EDT.computeLabels(
+                    EDTLabels.fromMask(mask.voxels()),
+                    new EDTOutputSignedFloat(
+                            distances.voxels().asFloat(), mask.voxels(), squared),
+                    excludeZDimension,
+                    multipliers,
+                    maxDistance > 0 ? maxDistance : EDT.UNBOUNDED,
+                    parallel);
+        }
+        return distances;
+    }
+}
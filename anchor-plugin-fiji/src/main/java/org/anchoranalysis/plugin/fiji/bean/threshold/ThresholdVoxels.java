@@ -0,0 +1,245 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2020 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.threshold;
+
+import java.util.Arrays;
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.binary.BinaryVoxels;
+import org.anchoranalysis.image.voxel.binary.BinaryVoxelsFactory;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesByte;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Counts the intensities of voxels, and binarises voxels against a threshold, each in a single
+ * pass directly over the voxel buffers.
+ *
+ * <p>Optionally, only the voxels inside an object are considered, and only the voxels in its
+ * bounding-box are read. Counting then costs the size of the object, rather than of the voxels.
+ * Binarising must still create an output with the same extent as the voxels, as a {@link
+ * org.anchoranalysis.image.bean.threshold.Thresholder} requires, so its cost remains proportional
+ * to the voxels, but each output voxel is written at most once.
+ *
+ * <p>Only unsigned 8-bit and unsigned 16-bit voxels are supported.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class ThresholdVoxels {
+
+    /**
+     * Counts the number of voxels with each intensity.
+     *
+     * @param voxels the voxels to count.
+     * @param object if present, only voxels inside this object are counted.
+     * @return the count for each intensity, indexed by intensity, with an element for every
+     *     intensity representable by the data type.
+     * @throws OperationFailedException if the data type is not supported, or the object does not
+     *     lie entirely inside the voxels.
+     */
+    public static int[] histogram(VoxelsUntyped voxels, Optional<ObjectMask> object)
+            throws OperationFailedException {
+        boolean unsignedByte = isUnsignedByte(voxels);
+        Extent extent = voxels.extent();
+        BoundingBox box = boxFor(extent, object);
+        ReadableTuple3i corner = box.cornerMin();
+        Extent window = box.extent();
+        byte objectOn = objectOn(object);
+
+        int[] counts = new int[unsignedByte ? 256 : 65536];
+        for (int z = 0; z < window.z(); z++) {
+            byte[] byteSlice = unsignedByte ? byteSlice(voxels, corner.z() + z) : null;
+            short[] shortSlice = unsignedByte ? null : shortSlice(voxels, corner.z() + z);
+            byte[] objectSlice = objectSlice(object, z);
+            for (int y = 0; y < window.y(); y++) {
+                int offset = extent.offset(corner.x(), corner.y() + y);
+                int objectOffset = y * window.x();
+                for (int x = 0; x < window.x(); x++) {
+                    if (inside(objectSlice, objectOffset + x, objectOn)) {
+                        int intensity =
+                                unsignedByte
+                                        ? byteSlice[offset + x] & 0xFF
+                                        : shortSlice[offset + x] & 0xFFFF;
+                        counts[intensity]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Creates binary voxels, where a voxel is <i>on</i> if its intensity is greater than a
+     * threshold, and otherwise <i>off</i>.
+     *
+     * @param voxels the voxels to binarise, which are unchanged.
+     * @param threshold voxels with an intensity greater than this are <i>on</i>.
+     * @param binaryValues the values for <i>on</i> and <i>off</i> in the output.
+     * @param object if present, only voxels inside this object may be <i>on</i>, and every voxel
+     *     outside it is <i>off</i>. Only the voxels in its bounding-box are read, and voxels
+     *     outside it are only written when <i>off</i> is non-zero.
+     * @return newly created binary voxels, with the same extent as {@code voxels}.
+     * @throws OperationFailedException if the data type is not supported, or the object does not
+     *     lie entirely inside the voxels.
+     */
+    public static BinaryVoxels<UnsignedByteBuffer> binarize(
+            VoxelsUntyped voxels,
+            int threshold,
+            BinaryValuesByte binaryValues,
+            Optional<ObjectMask> object)
+            throws OperationFailedException {
+        boolean unsignedByte = isUnsignedByte(voxels);
+        Extent extent = voxels.extent();
+        BoundingBox box = boxFor(extent, object);
+        ReadableTuple3i corner = box.cornerMin();
+        Extent window = box.extent();
+        byte objectOn = objectOn(object);
+        byte on = binaryValues.getOn();
+        byte off = binaryValues.getOff();
+
+        // every voxel is initially zero, so voxels outside the bounding-box are only assigned if
+        // off differs
+        Voxels<UnsignedByteBuffer> out = VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        if (off != 0) {
+            for (int z = 0; z < extent.z(); z++) {
+                byte[] outSlice = out.sliceBuffer(z).array();
+                if (z >= corner.z() && z < corner.z() + window.z()) {
+                    fillOutsideWindow(outSlice, extent, corner, window, off);
+                } else {
+                    Arrays.fill(outSlice, 0, extent.areaXY(), off);
+                }
+            }
+        }
+
+        for (int z = 0; z < window.z(); z++) {
+            byte[] byteSlice = unsignedByte ? byteSlice(voxels, corner.z() + z) : null;
+            short[] shortSlice = unsignedByte ? null : shortSlice(voxels, corner.z() + z);
+            byte[] objectSlice = objectSlice(object, z);
+            byte[] outSlice = out.sliceBuffer(corner.z() + z).array();
+            for (int y = 0; y < window.y(); y++) {
+                int offset = extent.offset(corner.x(), corner.y() + y);
+                int objectOffset = y * window.x();
+                for (int x = 0; x < window.x(); x++) {
+                    if (inside(objectSlice, objectOffset + x, objectOn)) {
+                        int intensity =
+                                unsignedByte
+                                        ? byteSlice[offset + x] & 0xFF
+                                        : shortSlice[offset + x] & 0xFFFF;
+                        outSlice[offset + x] = intensity > threshold ? on : off;
+                    } else {
+                        outSlice[offset + x] = off;
+                    }
+                }
+            }
+        }
+        return BinaryVoxelsFactory.reuseByte(out, binaryValues.asInt());
+    }
+
+    /**
+     * Assigns a value to every voxel in a slice that lies outside the rows of a window.
+     *
+     * @param slice the slice, which is changed.
+     * @param extent the size of the slice.
+     * @param corner the minimum corner of the window.
+     * @param window the size of the window.
+     * @param value the value to assign.
+     */
+    private static void fillOutsideWindow(
+            byte[] slice, Extent extent, ReadableTuple3i corner, Extent window, byte value) {
+        int from = 0;
+        for (int y = 0; y < window.y(); y++) {
+            int rowStart = extent.offset(corner.x(), corner.y() + y);
+            Arrays.fill(slice, from, rowStart, value);
+            from = rowStart + window.x();
+        }
+        Arrays.fill(slice, from, extent.areaXY(), value);
+    }
+
+    /**
+     * Whether the voxels are unsigned 8-bit, rather than unsigned 16-bit.
+     *
+     * @throws OperationFailedException if the voxels are neither.
+     */
+    private static boolean isUnsignedByte(VoxelsUntyped voxels) throws OperationFailedException {
+        VoxelDataType dataType = voxels.getVoxelDataType();
+        if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+            return true;
+        } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+            return false;
+        } else {
+            throw new OperationFailedException(
+                    String.format("Unsupported data type for thresholding: %s", dataType));
+        }
+    }
+
+    /**
+     * The bounding-box of the object, or of all voxels, if there is no object.
+     *
+     * @throws OperationFailedException if the object does not lie entirely inside {@code extent}.
+     */
+    private static BoundingBox boxFor(Extent extent, Optional<ObjectMask> object)
+            throws OperationFailedException {
+        if (object.isPresent()) {
+            BoundingBox box = object.get().boundingBox();
+            if (!extent.contains(box)) {
+                throw new OperationFailedException(
+                        "The object must lie entirely inside the voxels to threshold");
+            }
+            return box;
+        } else {
+            return new BoundingBox(extent);
+        }
+    }
+
+    /** The value of voxels inside the object, or zero if there is no object. */
+    private static byte objectOn(Optional<ObjectMask> object) {
+        return object.map(objectMask -> objectMask.binaryValuesByte().getOn()).orElse((byte) 0);
+    }
+
+    /** A slice of the object, relative to its bounding-box, or null if there is no object. */
+    private static byte[] objectSlice(Optional<ObjectMask> object, int z) {
+        return object.map(objectMask -> objectMask.voxels().sliceBuffer(z).array()).orElse(null);
+    }
+
+    /** Whether a voxel lies inside the object, which is always true if there is no object. */
+    private static boolean inside(byte[] objectSlice, int objectOffset, byte objectOn) {
+        return objectSlice == null || objectSlice[objectOffset] == objectOn;
+    }
+
+    private static byte[] byteSlice(VoxelsUntyped voxels, int z) {
+        return voxels.asByte().sliceBuffer(z).array();
+    }
+
+    private static short[] shortSlice(VoxelsUntyped voxels, int z) {
+        return voxels.asShort().sliceBuffer(z).array();
+    }
+}
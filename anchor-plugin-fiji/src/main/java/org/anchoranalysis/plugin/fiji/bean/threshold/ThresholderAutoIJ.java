@@ -21,8 +21,9 @@
  */
 package org.anchoranalysis.plugin.fiji.bean.threshold;
 
-import fiji.threshold.Auto_Threshold;
-import ij.ImagePlus;
+import ij.process.AutoThresholder;
+import ij.process.AutoThresholder.Method;
+import java.util.Arrays;
 import java.util.Optional;
 import lombok.Getter;
 import lombok.Setter;
@@ -31,17 +32,30 @@ import org.anchoranalysis.core.exception.OperationFailedException;
 import org.anchoranalysis.image.bean.threshold.Thresholder;
 import org.anchoranalysis.image.voxel.VoxelsUntyped;
 import org.anchoranalysis.image.voxel.binary.BinaryVoxels;
-import org.anchoranalysis.image.voxel.binary.BinaryVoxelsFactory;
 import org.anchoranalysis.image.voxel.binary.values.BinaryValuesByte;
 import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
-import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
 import org.anchoranalysis.image.voxel.object.ObjectMask;
-import org.anchoranalysis.io.imagej.convert.ConvertFromImagePlus;
-import org.anchoranalysis.io.imagej.convert.ConvertToImagePlus;
-import org.anchoranalysis.io.imagej.convert.ImageJConversionException;
 import org.anchoranalysis.math.histogram.Histogram;
 
-/** Applies automatic thresholding using ImageJ's Auto_Threshold plugin. */
+/**
+ * Applies automatic thresholding using the methods of ImageJ's Auto_Threshold plugin.
+ *
+ * <p>The threshold is calculated from a histogram of the voxels, reusing the histogram that is
+ * passed, if any, and otherwise counting the voxels. Voxels with an intensity greater than the
+ * threshold are then <i>on</i>, in a single pass, without any conversion to or from an {@link
+ * ij.ImagePlus}.
+ *
+ * <p>If an object is passed, the histogram is instead always counted from only the voxels inside
+ * the object, and only these voxels may be <i>on</i>. Only the voxels in the bounding-box of the
+ * object are read, and none are copied. As a {@link Thresholder}, the output must still have the
+ * same extent as the voxels, so its allocation costs the size of the voxels, irrespective of the
+ * size of the object.
+ *
+ * <p>As in Auto_Threshold, the histogram is first narrowed to the range of intensities that
+ * occur. If only a single intensity occurs, every voxel is <i>off</i>.
+ *
+ * <p>Only unsigned 8-bit and unsigned 16-bit voxels are supported.
+ */
 public class ThresholderAutoIJ extends Thresholder {
 
     // START BEAN PROPERTIES
@@ -72,46 +86,91 @@ public class ThresholderAutoIJ extends Thresholder {
             Optional<ObjectMask> objectMask)
             throws OperationFailedException {
 
-        if (objectMask.isPresent()) {
-            throw new OperationFailedException("A mask is not supported for this operation");
+        int[] counts =
+                histogram.isPresent() && !objectMask.isPresent()
+                        ? countsFrom(histogram.get())
+                        : ThresholdVoxels.histogram(inputBuffer, objectMask);
+        return ThresholdVoxels.binarize(
+                inputBuffer, calculateThreshold(counts), binaryValues, objectMask);
+    }
+
+    /**
+     * Calculates the threshold from the count of voxels with each intensity.
+     *
+     * @param counts the count for each intensity, indexed by intensity, which is unchanged.
+     * @return the threshold, so that voxels with a greater intensity are <i>on</i>.
+     * @throws OperationFailedException if the method is unknown, or fails to find a threshold.
+     */
+    private int calculateThreshold(int[] counts) throws OperationFailedException {
+        Method methodToUse = methodFor(method);
+
+        // narrow the histogram to the range of intensities that occur, as Auto_Threshold does
+        int minBin = -1;
+        int maxBin = -1;
+        for (int value = noBlack ? 1 : 0; value < counts.length; value++) {
+            if (counts[value] > 0) {
+                if (minBin == -1) {
+                    minBin = value;
+                }
+                maxBin = value;
+            }
         }
 
-        try {
-            ImagePlus image = ConvertToImagePlus.from(inputBuffer);
-            applyThreshold(image);
-            return convertToBinary(image, binaryValues);
-        } catch (ImageJConversionException e) {
-            throw new OperationFailedException(e);
+        if (minBin == -1) {
+            // no voxels are considered, so every voxel is off
+            return counts.length - 1;
+        } else if (minBin == maxBin) {
+            return minBin;
+        }
+
+        int threshold =
+                new AutoThresholder()
+                        .getThreshold(methodToUse, Arrays.copyOfRange(counts, minBin, maxBin + 1));
+        if (threshold < 0) {
+            throw new OperationFailedException(
+                    String.format("The %s method could not calculate a threshold", methodToUse));
         }
+        return minBin + threshold;
     }
 
     /**
-     * Applies the threshold to the given {@link ImagePlus}.
+     * The count of voxels with each intensity, from a {@link Histogram}.
+     *
+     * <p>Intensities beneath the minimum bin of the histogram have a count of zero.
      *
-     * @param image the {@link ImagePlus} to threshold
+     * @throws OperationFailedException if the histogram has a bin for a negative intensity.
      */
-    private void applyThreshold(ImagePlus image) {
-        Auto_Threshold at = new Auto_Threshold();
-        at.exec(image, method, false, noBlack, true, false, false, true);
+    private static int[] countsFrom(Histogram histogram) throws OperationFailedException {
+        if (histogram.getMinBin() < 0) {
+            throw new OperationFailedException(
+                    String.format(
+                            "The histogram's minimum bin must not be negative, but is %d",
+                            histogram.getMinBin()));
+        }
+        int[] counts = new int[histogram.getMaxBin() + 1];
+        for (int value = histogram.getMinBin(); value < counts.length; value++) {
+            counts[value] = histogram.getCount(value);
+        }
+        return counts;
     }
 
     /**
-     * Converts a thresholded {@link ImagePlus} to {@link BinaryVoxels}.
+     * The ImageJ method corresponding to the name of a method.
      *
-     * @param image the thresholded {@link ImagePlus}
-     * @param binaryValues the {@link BinaryValuesByte} to use for the output
-     * @return the converted {@link BinaryVoxels}
-     * @throws OperationFailedException if the conversion fails
+     * @throws OperationFailedException if no method corresponds to {@code name}.
      */
-    private static BinaryVoxels<UnsignedByteBuffer> convertToBinary(
-            ImagePlus image, BinaryValuesByte binaryValues) throws OperationFailedException {
-        VoxelsUntyped thresholdedVoxels = ConvertFromImagePlus.toVoxels(image);
+    private static Method methodFor(String name) throws OperationFailedException {
+        if (name.isEmpty()) {
+            return Method.Default;
+        } else if (name.equals("MinError(I)")) {
+            return Method.MinError;
+        }
 
-        if (!thresholdedVoxels.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+        try {
+            return Method.valueOf(name);
+        } catch (IllegalArgumentException e) {
             throw new OperationFailedException(
-                    "The threshold operation returned a data-type that is not unsigned 8-bit");
+                    String.format("Unknown thresholding method: %s", name));
         }
-
-        return BinaryVoxelsFactory.reuseByte(thresholdedVoxels.asByte(), binaryValues.asInt());
     }
 }
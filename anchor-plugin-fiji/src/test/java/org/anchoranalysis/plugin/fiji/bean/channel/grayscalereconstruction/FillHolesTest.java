@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@link FillHoles} against known answers. */
+class FillHolesTest {
+
+    private static final Extent RING_EXTENT = new Extent(5, 5, 1);
+
+    /** A ring, which encloses a single voxel. */
+    private static final int[] RING = {
+        0, 0, 0, 0, 0, //
+        0, 255, 255, 255, 0, //
+        0, 255, 0, 255, 0, //
+        0, 255, 255, 255, 0, //
+        0, 0, 0, 0, 0
+    };
+
+    private static final int[] RING_FILLED = {
+        0, 0, 0, 0, 0, //
+        0, 255, 255, 255, 0, //
+        0, 255, 255, 255, 0, //
+        0, 255, 255, 255, 0, //
+        0, 0, 0, 0, 0
+    };
+
+    /** Fills a ring on a single slice, with the default settings, which are three-dimensional. */
+    @Test
+    void testRingSingleSliceDefault() {
+        FillHoles fillHoles = new FillHoles();
+        assertFilled(RING, RING_FILLED, RING_EXTENT, fillHoles.getConnectivity());
+    }
+
+    /** Fills a ring on a single slice identically, with every connectivity. */
+    @Test
+    void testRingSingleSliceEachConnectivity() {
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            assertFilled(RING, RING_FILLED, RING_EXTENT, connectivity);
+        }
+    }
+
+    /** A hole is raised to the lowest level at which it is connected to the boundary. */
+    @Test
+    void testGrayscaleHole() {
+        int[] image = {
+            100, 100, 100, 100, 100, //
+            100, 200, 180, 200, 100, //
+            100, 200, 50, 200, 100, //
+            100, 200, 200, 200, 100, //
+            100, 100, 100, 100, 100
+        };
+        int[] expected = {
+            100, 100, 100, 100, 100, //
+            100, 200, 180, 200, 100, //
+            100, 200, 180, 200, 100, //
+            100, 200, 200, 200, 100, //
+            100, 100, 100, 100, 100
+        };
+        assertFilled(image, expected, RING_EXTENT, 8);
+    }
+
+    /**
+     * A tube, with a ring on every slice, is only filled when each slice is processed
+     * independently, as in 3D its hole reaches the first and last slices.
+     */
+    @Test
+    void testTube() {
+        Extent extent = new Extent(5, 5, 3);
+        int[] tube = repeat(RING, 3);
+        assertFilled(tube, repeat(RING_FILLED, 3), extent, 8);
+        assertFilled(tube, tube, extent, 26);
+        assertFilled(tube, tube, extent, 6);
+    }
+
+    /** A cavity enclosed on every side is filled in 3D. */
+    @Test
+    void testEnclosedCavity() {
+        Extent extent = new Extent(5, 5, 3);
+        int[] solid = RING_FILLED;
+        int[] cavity = concatenate(solid, RING, solid);
+        int[] filled = repeat(solid, 3);
+        for (int connectivity : new int[] {6, 18, 26}) {
+            assertFilled(cavity, filled, extent, connectivity);
+        }
+    }
+
+    private static void assertFilled(int[] image, int[] expected, Extent extent, int connectivity) {
+        byte[][] slices = ReconstructionFixture.slices(extent, image);
+        byte[][] out =
+                ReconstructionFixture.reconstruct(new FillHoles(), slices, extent, connectivity);
+        byte[][] expectedSlices = ReconstructionFixture.slices(extent, expected);
+        byte[][] imageSlices = ReconstructionFixture.slices(extent, image);
+        for (int z = 0; z < extent.z(); z++) {
+            assertArrayEquals(expectedSlices[z], out[z], "slice " + z);
+            assertArrayEquals(imageSlices[z], slices[z]);
+        }
+    }
+
+    private static int[] repeat(int[] slice, int times) {
+        int[][] all = new int[times][];
+        for (int index = 0; index < times; index++) {
+            all[index] = slice;
+        }
+        return concatenate(all);
+    }
+
+    private static int[] concatenate(int[]... slices) {
+        int[] all = new int[slices.length * slices[0].length];
+        for (int index = 0; index < slices.length; index++) {
+            System.arraycopy(slices[index], 0, all, index * slices[0].length, slices[0].length);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link GrayscaleReconstruction2DIJ}, so each path reconstructs every slice independently,
+ * and returns voxels of the same size as the marker.
+ */
+class GrayscaleReconstruction2DIJTest {
+
+    private static final int NUMBER_IMAGES = 20;
+
+    /**
+     * Without an object, each slice is reconstructed with 8-connectivity, into a copy, including
+     * when levels are distributed across threads.
+     */
+    @Test
+    void testEachSlice() throws OperationFailedException {
+        Random random = new Random(16);
+        for (boolean thresholdEachLevel : new boolean[] {false, true}) {
+            GrayscaleReconstruction2DIJ bean = new GrayscaleReconstruction2DIJ();
+            bean.setThresholdEachLevel(thresholdEachLevel);
+            bean.setNumberThreads(3);
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 4);
+                byte[][] marker = ReconstructionFixture.randomBytes(random, extent, 30);
+                byte[][] mask = ReconstructionFixture.randomBytes(random, extent, 30);
+                VoxelsUntyped markerVoxels = ReconstructionFixture.toVoxels(marker, extent);
+
+                VoxelsUntyped reconstructed =
+                        bean.reconstruction(
+                                ReconstructionFixture.toVoxels(mask, extent),
+                                markerVoxels,
+                                Optional.empty());
+
+                assertEquals(extent, reconstructed.extent());
+                assertValues(
+                        ReconstructionFixture.bruteForceErosion(
+                                ReconstructionFixture.toFloat(marker),
+                                ReconstructionFixture.toFloat(mask),
+                                extent,
+                                8),
+                        ReconstructionFixture.valuesOf(reconstructed));
+                assertValues(
+                        ReconstructionFixture.toFloat(marker),
+                        ReconstructionFixture.valuesOf(markerVoxels));
+            }
+        }
+    }
+
+    /**
+     * With an object, the marker itself is reconstructed inside the object, on each slice, so the
+     * result has the same size as without an object.
+     */
+    @Test
+    void testContainingObject() throws OperationFailedException {
+        Random random = new Random(17);
+        GrayscaleReconstruction2DIJ bean = new GrayscaleReconstruction2DIJ();
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = ReconstructionFixture.randomExtent(random, 12, 4);
+            byte[][] marker = ReconstructionFixture.randomBytes(random, extent, 30);
+            byte[][] mask = ReconstructionFixture.randomBytes(random, extent, 30);
+            ObjectMask object = ReconstructionFixture.randomObject(random, extent);
+            VoxelsUntyped markerVoxels = ReconstructionFixture.toVoxels(marker, extent);
+
+            VoxelsUntyped reconstructed =
+                    bean.reconstruction(
+                            ReconstructionFixture.toVoxels(mask, extent),
+                            markerVoxels,
+                            Optional.of(object));
+
+            assertSame(markerVoxels, reconstructed);
+            assertEquals(extent, reconstructed.extent());
+            assertValues(
+                    ReconstructionFixture.bruteForceErosion(
+                            ReconstructionFixture.toFloat(marker),
+                            ReconstructionFixture.toFloat(mask),
+                            extent,
+                            8,
+                            ReconstructionFixture.regionOf(object, extent)),
+                    ReconstructionFixture.valuesOf(reconstructed));
+        }
+    }
+
+    private static void assertValues(float[][] expected, float[][] actual) {
+        for (int z = 0; z < expected.length; z++) {
+            assertArrayEquals(expected[z], actual[z], 0.0f, "slice " + z);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import java.util.Random;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link GreyscaleReconstructEachLevel}, so it is identical to {@link GreyscaleReconstruct_},
+ * whatever the number of threads.
+ */
+class GreyscaleReconstructEachLevelTest {
+
+    private static final int NUMBER_IMAGES = 20;
+
+    private static final int[] NUMBER_THREADS = {1, 2, 5};
+
+    /** Few levels, so plateaus are large and reconstruct across many voxels. */
+    @Test
+    void testFewLevels() {
+        compareRandomImages(new Random(21), 6);
+    }
+
+    /** Every level may occur, so many levels are reconstructed, and distributed among threads. */
+    @Test
+    void testAllLevels() {
+        compareRandomImages(new Random(22), 256);
+    }
+
+    /**
+     * Compares the reconstruction of random images with {@link GreyscaleReconstruct_}, for each
+     * connectivity and number of threads, checking that the mask and seed are unchanged.
+     */
+    private static void compareRandomImages(Random random, int levels) {
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = ReconstructionFixture.randomExtent(random, 24, 1);
+            byte[] mask = ReconstructionFixture.randomBytes(random, extent, levels)[0];
+            byte[] seed = ReconstructionFixture.randomBytes(random, extent, levels)[0];
+            byte[] maskCopy = mask.clone();
+            byte[] seedCopy = seed.clone();
+            for (boolean connect4 : new boolean[] {true, false}) {
+                byte[] expected = reconstructImageJ(mask, seed, extent, connect4);
+                for (int numberThreads : NUMBER_THREADS) {
+                    GreyscaleReconstructEachLevel reconstruct =
+                            new GreyscaleReconstructEachLevel(
+                                    extent.x(), extent.y(), connect4, numberThreads);
+                    assertArrayEquals(
+                            expected,
+                            reconstruct.reconstructByDilation(mask, seed),
+                            String.format(
+                                    "%s with connect4=%b and %d threads",
+                                    extent, connect4, numberThreads));
+                    assertArrayEquals(maskCopy, mask);
+                    assertArrayEquals(seedCopy, seed);
+                }
+            }
+        }
+    }
+
+    /** Reconstructs with {@link GreyscaleReconstruct_}, on copies of the mask and seed. */
+    private static byte[] reconstructImageJ(
+            byte[] mask, byte[] seed, Extent extent, boolean connect4) {
+        Object[] result =
+                new GreyscaleReconstruct_()
+                        .exec(
+                                imageOf(mask.clone(), extent),
+                                imageOf(seed.clone(), extent),
+                                null,
+                                false,
+                                connect4);
+        return (byte[]) ((ImagePlus) result[1]).getProcessor().getPixels();
+    }
+
+    private static ImagePlus imageOf(byte[] pixels, Extent extent) {
+        return new ImagePlus("", new ByteProcessor(extent.x(), extent.y(), pixels, null));
+    }
+}
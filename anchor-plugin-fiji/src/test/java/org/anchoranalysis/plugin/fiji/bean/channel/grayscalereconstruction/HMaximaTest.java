@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@link HMaxima} against known answers. */
+class HMaximaTest {
+
+    /** A row with a maximum of height 20, and another of height 5, separated by a saddle. */
+    private static final int[] ROW = {10, 50, 30, 35, 10};
+
+    private static final Extent ROW_EXTENT = new Extent(5, 1, 1);
+
+    /** Lowers each maximum on a single slice, with the default connectivity. */
+    @Test
+    void testSingleSlice() {
+        HMaxima operation = create(10, false);
+        assertResult(operation, ROW, new int[] {10, 40, 30, 30, 10}, ROW_EXTENT);
+    }
+
+    /** Extracts the domes removed by lowering each maximum, on a single slice. */
+    @Test
+    void testSingleSliceDomes() {
+        HMaxima operation = create(10, true);
+        assertResult(operation, ROW, new int[] {0, 10, 0, 5, 0}, ROW_EXTENT);
+    }
+
+    /** A height greater than every value removes every maximum, saturating at zero. */
+    @Test
+    void testHeightSaturates() {
+        HMaxima operation = create(100, false);
+        assertResult(operation, ROW, new int[] {0, 0, 0, 0, 0}, ROW_EXTENT);
+    }
+
+    /** Values propagate along the Z-axis only with a three-dimensional connectivity. */
+    @Test
+    void testAcrossSlices() {
+        Extent extent = new Extent(1, 1, 2);
+        int[] image = {50, 20};
+        HMaxima operation = create(10, false);
+
+        operation.setConnectivity(4);
+        assertResult(operation, image, new int[] {40, 10}, extent);
+
+        operation.setConnectivity(6);
+        assertResult(operation, image, new int[] {40, 20}, extent);
+    }
+
+    private static HMaxima create(int height, boolean domes) {
+        HMaxima operation = new HMaxima();
+        operation.setHeight(height);
+        operation.setDomes(domes);
+        return operation;
+    }
+
+    private static void assertResult(
+            HMaxima operation, int[] image, int[] expected, Extent extent) {
+        byte[][] slices = ReconstructionFixture.slices(extent, image);
+        byte[][] out =
+                ReconstructionFixture.reconstruct(
+                        operation, slices, extent, operation.getConnectivity());
+        byte[][] expectedSlices = ReconstructionFixture.slices(extent, expected);
+        for (int z = 0; z < extent.z(); z++) {
+            assertArrayEquals(expectedSlices[z], out[z], "slice " + z);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import java.util.Random;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link HybridReconstruction} on unsigned 8-bit voxels.
+ *
+ * <p>Reconstructions are compared with reconstructing by brute force, for every connectivity, and
+ * in 2D, with {@link GreyscaleReconstruct_}.
+ */
+class HybridReconstructionTest {
+
+    private static final int NUMBER_IMAGES = 40;
+
+    @Test
+    void testDilation() {
+        Random random = new Random(1);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 4);
+                int levels = 2 + random.nextInt(255);
+                byte[][] marker = ReconstructionFixture.randomBytes(random, extent, levels);
+                byte[][] mask = ReconstructionFixture.randomBytes(random, extent, levels);
+
+                float[][] expected =
+                        ReconstructionFixture.bruteForceDilation(
+                                ReconstructionFixture.toFloat(marker),
+                                ReconstructionFixture.toFloat(mask),
+                                extent,
+                                connectivity);
+                byte[][] maskBefore = ReconstructionFixture.copy(mask);
+                new HybridReconstruction(extent, new Neighborhood(connectivity))
+                        .reconstructByDilation(marker, mask);
+
+                assertEquals(expected, ReconstructionFixture.toFloat(marker));
+                assertEquals(maskBefore, mask);
+            }
+        }
+    }
+
+    @Test
+    void testErosion() {
+        Random random = new Random(2);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 4);
+                int levels = 2 + random.nextInt(255);
+                byte[][] marker = ReconstructionFixture.randomBytes(random, extent, levels);
+                byte[][] mask = ReconstructionFixture.randomBytes(random, extent, levels);
+
+                float[][] expected =
+                        ReconstructionFixture.bruteForceErosion(
+                                ReconstructionFixture.toFloat(marker),
+                                ReconstructionFixture.toFloat(mask),
+                                extent,
+                                connectivity);
+                byte[][] maskBefore = ReconstructionFixture.copy(mask);
+                new HybridReconstruction(extent, new Neighborhood(connectivity))
+                        .reconstructByErosion(marker, mask);
+
+                assertEquals(expected, ReconstructionFixture.toFloat(marker));
+                assertEquals(maskBefore, mask);
+            }
+        }
+    }
+
+    /**
+     * Reconstruction by erosion must be identical to inverting the marker and mask, reconstructing
+     * by dilation, and inverting the result.
+     */
+    @Test
+    void testErosionIsDualOfDilation() {
+        Random random = new Random(6);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 16, 4);
+                byte[][] marker = ReconstructionFixture.randomBytes(random, extent, 256);
+                byte[][] mask = ReconstructionFixture.randomBytes(random, extent, 256);
+
+                byte[][] inverted = invert(marker);
+                new HybridReconstruction(extent, new Neighborhood(connectivity))
+                        .reconstructByDilation(inverted, invert(mask));
+
+                new HybridReconstruction(extent, new Neighborhood(connectivity))
+                        .reconstructByErosion(marker, mask);
+                assertEquals(invert(inverted), marker);
+            }
+        }
+    }
+
+    /** Compares with {@link GreyscaleReconstruct_}, which only supports a single 8-bit slice. */
+    @Test
+    void testAgainstGreyscaleReconstruct() {
+        Random random = new Random(3);
+        for (boolean connect4 : new boolean[] {false, true}) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 30, 1);
+                int levels = 2 + random.nextInt(255);
+                byte[][] marker = ReconstructionFixture.randomBytes(random, extent, levels);
+                byte[][] mask = ReconstructionFixture.randomBytes(random, extent, levels);
+
+                Object[] result =
+                        new GreyscaleReconstruct_()
+                                .exec(
+                                        imageFor(mask[0], extent),
+                                        imageFor(marker[0], extent),
+                                        null,
+                                        false,
+                                        connect4);
+                byte[] expected = (byte[]) ((ImagePlus) result[1]).getProcessor().getPixels();
+
+                new HybridReconstruction(extent, new Neighborhood(connect4 ? 4 : 8))
+                        .reconstructByDilation(marker, mask);
+                assertArrayEquals(expected, marker[0]);
+            }
+        }
+    }
+
+    @Test
+    void testRejectsTooManyVoxels() {
+        Extent extent = new Extent(1 << 16, 1 << 16, 1);
+        Neighborhood neighborhood = new Neighborhood(26);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new HybridReconstruction(extent, neighborhood));
+    }
+
+    /** An image of a copy of a single slice. */
+    private static ImagePlus imageFor(byte[] slice, Extent extent) {
+        return new ImagePlus(
+                "slice", new ByteProcessor(extent.x(), extent.y(), slice.clone(), null));
+    }
+
+    /** Newly created voxels, with each value subtracted from the maximum unsigned 8-bit value. */
+    private static byte[][] invert(byte[][] slices) {
+        byte[][] inverted = new byte[slices.length][];
+        for (int z = 0; z < slices.length; z++) {
+            inverted[z] = new byte[slices[z].length];
+            for (int offset = 0; offset < slices[z].length; offset++) {
+                inverted[z][offset] = (byte) (255 - (slices[z][offset] & 0xFF));
+            }
+        }
+        return inverted;
+    }
+
+    private static void assertEquals(float[][] expected, float[][] actual) {
+        for (int z = 0; z < expected.length; z++) {
+            assertArrayEquals(expected[z], actual[z], 0.0f, "slice " + z);
+        }
+    }
+
+    private static void assertEquals(byte[][] expected, byte[][] actual) {
+        for (int z = 0; z < expected.length; z++) {
+            assertArrayEquals(expected[z], actual[z], "slice " + z);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@link IntQueue}. */
+class IntQueueTest {
+
+    private static final int NUMBER_OPERATIONS = 100000;
+
+    /**
+     * Random pushes and pops must remove elements in the same order as a {@link ArrayDeque},
+     * including when the array grows while wrapped around its end.
+     */
+    @Test
+    void testFirstInFirstOut() {
+        Random random = new Random(4);
+        IntQueue queue = new IntQueue(1);
+        Deque<Integer> expected = new ArrayDeque<>();
+        for (int i = 0; i < NUMBER_OPERATIONS; i++) {
+            // slightly more pushes than pops, so the queue gradually grows
+            if (expected.isEmpty() || random.nextInt(100) < 52) {
+                queue.push(i);
+                expected.add(i);
+            } else {
+                assertEquals(expected.remove().intValue(), queue.pop());
+            }
+            assertEquals(expected.isEmpty(), queue.isEmpty());
+        }
+        while (!expected.isEmpty()) {
+            assertEquals(expected.remove().intValue(), queue.pop());
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link OpeningByReconstruction} against known answers.
+ *
+ * <p>Bright structures are a square or cube, with a line joined to it, and an isolated voxel. The
+ * isolated voxel is removed, but the line is restored.
+ */
+class OpeningByReconstructionTest {
+
+    private static final int BACKGROUND = 0;
+    private static final int FOREGROUND = 200;
+    private static final int ISOLATED = 150;
+
+    /** Reconstructs a single slice, with the default connectivity. */
+    @Test
+    void testSingleSliceDefault() {
+        OpeningByReconstruction operation = new OpeningByReconstruction();
+        assertResult(
+                operation,
+                ReconstructionFixture.squareWithLine(BACKGROUND, FOREGROUND, ISOLATED),
+                ReconstructionFixture.squareWithLine(BACKGROUND, FOREGROUND, BACKGROUND),
+                ReconstructionFixture.SQUARE_EXTENT,
+                operation.getConnectivity());
+    }
+
+    /** Reconstructs a single slice identically, with every connectivity. */
+    @Test
+    void testSingleSliceEachConnectivity() {
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            assertResult(
+                    new OpeningByReconstruction(),
+                    ReconstructionFixture.squareWithLine(BACKGROUND, FOREGROUND, ISOLATED),
+                    ReconstructionFixture.squareWithLine(BACKGROUND, FOREGROUND, BACKGROUND),
+                    ReconstructionFixture.SQUARE_EXTENT,
+                    connectivity);
+        }
+    }
+
+    /** Reconstructs a volume, with every connectivity. */
+    @Test
+    void testVolume() {
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            assertResult(
+                    new OpeningByReconstruction(),
+                    ReconstructionFixture.cubeWithLine(BACKGROUND, FOREGROUND, ISOLATED),
+                    ReconstructionFixture.cubeWithLine(BACKGROUND, FOREGROUND, BACKGROUND),
+                    ReconstructionFixture.CUBE_EXTENT,
+                    connectivity);
+        }
+    }
+
+    /** Enough iterations remove the square entirely, so nothing is restored. */
+    @Test
+    void testIterationsRemoveEverything() {
+        OpeningByReconstruction operation = new OpeningByReconstruction();
+        operation.setIterations(2);
+        assertResult(
+                operation,
+                ReconstructionFixture.squareWithLine(BACKGROUND, FOREGROUND, ISOLATED),
+                ReconstructionFixture.squareWithLine(BACKGROUND, BACKGROUND, BACKGROUND),
+                ReconstructionFixture.SQUARE_EXTENT,
+                8);
+    }
+
+    private static void assertResult(
+            OpeningByReconstruction operation,
+            byte[][] image,
+            byte[][] expected,
+            Extent extent,
+            int connectivity) {
+        byte[][] imageBefore = ReconstructionFixture.copy(image);
+        byte[][] out = ReconstructionFixture.reconstruct(operation, image, extent, connectivity);
+        for (int z = 0; z < extent.z(); z++) {
+            assertArrayEquals(expected[z], out[z], "slice " + z);
+            assertArrayEquals(imageBefore[z], image[z]);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link ReconstructVoxels}, as used by {@link GrayscaleReconstruction3D}.
+ *
+ * <p>Reconstructions by erosion are compared with reconstructing by brute force. The mask must be
+ * unchanged, and so must the marker, unless it is reconstructed in place.
+ */
+class ReconstructVoxelsTest {
+
+    private static final int NUMBER_IMAGES = 30;
+
+    @Test
+    void testErosion() throws OperationFailedException {
+        Random random = new Random(5);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 5);
+                int levels = 2 + random.nextInt(255);
+                VoxelsUntyped marker =
+                        ReconstructionFixture.toVoxels(
+                                ReconstructionFixture.randomBytes(random, extent, levels), extent);
+                VoxelsUntyped mask =
+                        ReconstructionFixture.toVoxels(
+                                ReconstructionFixture.randomBytes(random, extent, levels), extent);
+
+                float[][] markerBefore = ReconstructionFixture.valuesOf(marker);
+                float[][] maskBefore = ReconstructionFixture.valuesOf(mask);
+                VoxelsUntyped reconstructed =
+                        ReconstructVoxels.reconstructForBean(
+                                mask, marker, new Neighborhood(connectivity), Optional.empty());
+
+                assertEquals(
+                        ReconstructionFixture.bruteForceErosion(
+                                markerBefore, maskBefore, extent, connectivity),
+                        ReconstructionFixture.valuesOf(reconstructed));
+                assertEquals(markerBefore, ReconstructionFixture.valuesOf(marker));
+                assertEquals(maskBefore, ReconstructionFixture.valuesOf(mask));
+            }
+        }
+    }
+
+    @Test
+    void testErosionUnsignedShort() throws OperationFailedException {
+        doTestErosion(UnsignedShortVoxelType.INSTANCE, 65536, 1.0f, 0.0f);
+    }
+
+    /** Float values are fractional, and may be negative. */
+    @Test
+    void testErosionFloat() throws OperationFailedException {
+        doTestErosion(FloatVoxelType.INSTANCE, 1000, 0.37f, -100.0f);
+    }
+
+    /** Without an object, the marker can also be reconstructed in place. */
+    @Test
+    void testErosionInPlace() throws OperationFailedException {
+        Random random = new Random(6);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            Extent extent = ReconstructionFixture.randomExtent(random, 12, 5);
+            VoxelsUntyped marker =
+                    ReconstructionFixture.toVoxels(
+                            ReconstructionFixture.randomBytes(random, extent, 20), extent);
+            VoxelsUntyped mask =
+                    ReconstructionFixture.toVoxels(
+                            ReconstructionFixture.randomBytes(random, extent, 20), extent);
+
+            float[][] markerBefore = ReconstructionFixture.valuesOf(marker);
+            float[][] maskBefore = ReconstructionFixture.valuesOf(mask);
+            ReconstructVoxels.reconstructByErosion(
+                    mask, marker, new Neighborhood(connectivity), Optional.empty());
+
+            assertEquals(
+                    ReconstructionFixture.bruteForceErosion(
+                            markerBefore, maskBefore, extent, connectivity),
+                    ReconstructionFixture.valuesOf(marker));
+        }
+    }
+
+    /**
+     * With a containing object, the marker is reconstructed in place, only voxels inside the object
+     * are reconstructed, values only propagate through the object, and every other voxel is
+     * unchanged.
+     */
+    @Test
+    void testContainingObject() throws OperationFailedException {
+        Random random = new Random(7);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 5);
+                int levels = 2 + random.nextInt(255);
+                VoxelsUntyped marker =
+                        ReconstructionFixture.toVoxels(
+                                ReconstructionFixture.randomBytes(random, extent, levels), extent);
+                VoxelsUntyped mask =
+                        ReconstructionFixture.toVoxels(
+                                ReconstructionFixture.randomBytes(random, extent, levels), extent);
+                ObjectMask object = ReconstructionFixture.randomObject(random, extent);
+
+                float[][] markerBefore = ReconstructionFixture.valuesOf(marker);
+                float[][] maskBefore = ReconstructionFixture.valuesOf(mask);
+                VoxelsUntyped reconstructed =
+                        ReconstructVoxels.reconstructForBean(
+                                mask, marker, new Neighborhood(connectivity), Optional.of(object));
+
+                assertSame(marker, reconstructed);
+                assertEquals(
+                        ReconstructionFixture.bruteForceErosion(
+                                markerBefore,
+                                maskBefore,
+                                extent,
+                                connectivity,
+                                ReconstructionFixture.regionOf(object, extent)),
+                        ReconstructionFixture.valuesOf(marker));
+                assertEquals(maskBefore, ReconstructionFixture.valuesOf(mask));
+            }
+        }
+    }
+
+    /**
+     * Reconstructs random voxels of a particular data type by erosion, and compares with brute
+     * force.
+     *
+     * <p>Each value is a random integer between zero (inclusive) and {@code levels} (exclusive),
+     * multiplied by {@code scale} and added to {@code shift}.
+     */
+    private static void doTestErosion(
+            VoxelDataType dataType, int levels, float scale, float shift)
+            throws OperationFailedException {
+        Random random = new Random(8);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 5);
+                int levelsInImage = 2 + random.nextInt(levels - 1);
+                VoxelsUntyped marker =
+                        ReconstructionFixture.toVoxels(
+                                randomValues(random, extent, levelsInImage, scale, shift),
+                                extent,
+                                dataType);
+                VoxelsUntyped mask =
+                        ReconstructionFixture.toVoxels(
+                                randomValues(random, extent, levelsInImage, scale, shift),
+                                extent,
+                                dataType);
+
+                float[][] markerBefore = ReconstructionFixture.valuesOf(marker);
+                float[][] maskBefore = ReconstructionFixture.valuesOf(mask);
+                VoxelsUntyped reconstructed =
+                        ReconstructVoxels.reconstructForBean(
+                                mask, marker, new Neighborhood(connectivity), Optional.empty());
+
+                assertSame(dataType, reconstructed.getVoxelDataType());
+                assertEquals(
+                        ReconstructionFixture.bruteForceErosion(
+                                markerBefore, maskBefore, extent, connectivity),
+                        ReconstructionFixture.valuesOf(reconstructed));
+                assertEquals(markerBefore, ReconstructionFixture.valuesOf(marker));
+                assertEquals(maskBefore, ReconstructionFixture.valuesOf(mask));
+            }
+        }
+    }
+
+    /** Random values, each a random integer level, multiplied and shifted. */
+    private static float[][] randomValues(
+            Random random, Extent extent, int levels, float scale, float shift) {
+        float[][] values = new float[extent.z()][extent.areaXY()];
+        for (float[] slice : values) {
+            for (int offset = 0; offset < slice.length; offset++) {
+                slice[offset] = random.nextInt(levels) * scale + shift;
+            }
+        }
+        return values;
+    }
+
+    private static void assertEquals(float[][] expected, float[][] actual) {
+        for (int z = 0; z < expected.length; z++) {
+            assertArrayEquals(expected[z], actual[z], 0.0f, "slice " + z);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import java.util.Random;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/**
+ * Creates random markers and masks, and reconstructs them by brute force, to compare with the
+ * reconstruction engines.
+ *
+ * <p>It also creates particular voxels, whose reconstruction has a known answer.
+ *
+ * <p>Voxels are stored as an array for each slice.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class ReconstructionFixture {
+
+    /** Every connectivity that is supported, in 2D and 3D. */
+    public static final int[] CONNECTIVITIES = new int[] {4, 8, 6, 18, 26};
+
+    /** The value of voxels inside an object. */
+    public static final byte OBJECT_ON = (byte) 255;
+
+    /** The size of the voxels created by {@link #cubeWithLine}. */
+    public static final Extent CUBE_EXTENT = new Extent(7, 7, 7);
+
+    /** The size of the voxels created by {@link #squareWithLine}. */
+    public static final Extent SQUARE_EXTENT = new Extent(7, 7, 1);
+
+    /**
+     * Unsigned 8-bit voxels with random values.
+     *
+     * @param random the source of randomness.
+     * @param extent the size of the voxels.
+     * @param levels values are between zero (inclusive) and this (exclusive), so fewer levels
+     *     produce larger plateaus.
+     * @return newly created voxels.
+     */
+    public static byte[][] randomBytes(Random random, Extent extent, int levels) {
+        byte[][] slices = new byte[extent.z()][extent.areaXY()];
+        for (byte[] slice : slices) {
+            for (int offset = 0; offset < slice.length; offset++) {
+                slice[offset] = (byte) random.nextInt(levels);
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * A random extent, with each dimension between one and a maximum, inclusive.
+     *
+     * @param random the source of randomness.
+     * @param max the maximum size along X and Y.
+     * @param maxZ the maximum size along Z.
+     * @return the extent.
+     */
+    public static Extent randomExtent(Random random, int max, int maxZ) {
+        return new Extent(
+                1 + random.nextInt(max), 1 + random.nextInt(max), 1 + random.nextInt(maxZ));
+    }
+
+    /**
+     * A deep copy of voxels.
+     *
+     * @param slices the voxels.
+     * @return newly created voxels with identical values.
+     */
+    public static byte[][] copy(byte[][] slices) {
+        byte[][] copy = new byte[slices.length][];
+        for (int z = 0; z < slices.length; z++) {
+            copy[z] = slices[z].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Unsigned 8-bit voxels with particular values.
+     *
+     * @param extent the size of the voxels.
+     * @param values the value of every voxel, in raster order, first by slice, then row.
+     * @return newly created voxels.
+     */
+    public static byte[][] slices(Extent extent, int... values) {
+        byte[][] slices = new byte[extent.z()][extent.areaXY()];
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                slices[z][offset] = (byte) values[z * extent.areaXY() + offset];
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Unsigned 8-bit voxels, with a cube, a line joined to the cube, and an isolated voxel.
+     *
+     * <p>The volume is 7x7x7. The cube occupies 1 to 3 along every axis, the line continues from
+     * the center of one face to X of 5, and the isolated voxel is at (5,5,2).
+     *
+     * @param background the value of every other voxel.
+     * @param foreground the value of the cube and the line.
+     * @param isolated the value of the isolated voxel.
+     * @return newly created voxels, with an extent of {@link #CUBE_EXTENT}.
+     */
+    public static byte[][] cubeWithLine(int background, int foreground, int isolated) {
+        byte[][] slices = new byte[CUBE_EXTENT.z()][CUBE_EXTENT.areaXY()];
+        for (int z = 0; z < CUBE_EXTENT.z(); z++) {
+            for (int y = 0; y < CUBE_EXTENT.y(); y++) {
+                for (int x = 0; x < CUBE_EXTENT.x(); x++) {
+                    boolean cube = inCube(x) && inCube(y) && inCube(z);
+                    boolean line = x <= 5 && y == 2 && z == 2;
+                    slices[z][CUBE_EXTENT.offset(x, y)] =
+                            (byte) (cube || line ? foreground : background);
+                }
+            }
+        }
+        slices[2][CUBE_EXTENT.offset(5, 5)] = (byte) isolated;
+        return slices;
+    }
+
+    /**
+     * The middle slice of {@link #cubeWithLine}, with a square, a line joined to the square, and
+     * an isolated voxel.
+     *
+     * @param background the value of every other voxel.
+     * @param foreground the value of the square and the line.
+     * @param isolated the value of the isolated voxel.
+     * @return newly created voxels, with an extent of {@link #SQUARE_EXTENT}.
+     */
+    public static byte[][] squareWithLine(int background, int foreground, int isolated) {
+        return new byte[][] {cubeWithLine(background, foreground, isolated)[2]};
+    }
+
+    /**
+     * An object in a random bounding-box, with about three quarters of its voxels on.
+     *
+     * @param random the source of randomness.
+     * @param extent the object lies entirely inside voxels of this size.
+     * @return the object.
+     */
+    public static ObjectMask randomObject(Random random, Extent extent) {
+        Point3i corner =
+                new Point3i(
+                        random.nextInt(extent.x()),
+                        random.nextInt(extent.y()),
+                        random.nextInt(extent.z()));
+        Extent size =
+                new Extent(
+                        1 + random.nextInt(extent.x() - corner.x()),
+                        1 + random.nextInt(extent.y() - corner.y()),
+                        1 + random.nextInt(extent.z() - corner.z()));
+        Voxels<UnsignedByteBuffer> voxels = VoxelsFactory.getUnsignedByte().createInitialized(size);
+        for (int z = 0; z < size.z(); z++) {
+            byte[] slice = voxels.sliceBuffer(z).array();
+            for (int offset = 0; offset < size.areaXY(); offset++) {
+                slice[offset] = random.nextInt(4) != 0 ? OBJECT_ON : 0;
+            }
+        }
+        return new ObjectMask(BoundingBox.createReuse(corner, size), voxels);
+    }
+
+    /**
+     * For each slice of the entire volume, non-zero for voxels inside an object.
+     *
+     * @param object the object.
+     * @param extent the size of the entire volume, which the object lies inside.
+     * @return newly created voxels.
+     */
+    public static byte[][] regionOf(ObjectMask object, Extent extent) {
+        byte[][] region = new byte[extent.z()][extent.areaXY()];
+        ReadableTuple3i corner = object.boundingBox().cornerMin();
+        Extent size = object.extent();
+        for (int z = 0; z < size.z(); z++) {
+            byte[] slice = object.voxels().sliceBuffer(z).array();
+            for (int y = 0; y < size.y(); y++) {
+                for (int x = 0; x < size.x(); x++) {
+                    region[corner.z() + z][extent.offset(corner.x() + x, corner.y() + y)] =
+                            slice[size.offset(x, y)];
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Builds a marker from an image, and reconstructs it, with a particular connectivity.
+     *
+     * @param operation the operation.
+     * @param image the image, which must be unchanged.
+     * @param extent the size of {@code image}.
+     * @param connectivity the connectivity of {@link Neighborhood}.
+     * @return newly created voxels with the result.
+     */
+    public static byte[][] reconstruct(
+            MorphologicalReconstructionBase operation,
+            byte[][] image,
+            Extent extent,
+            int connectivity) {
+        byte[][] out = new byte[extent.z()][extent.areaXY()];
+        operation.reconstruct(image, out, extent, new Neighborhood(connectivity));
+        return out;
+    }
+
+    /**
+     * Copies unsigned 8-bit voxels into newly created {@link Voxels}.
+     *
+     * @param slices the voxels.
+     * @param extent the size of the voxels.
+     * @return newly created voxels with identical values.
+     */
+    public static VoxelsUntyped toVoxels(byte[][] slices, Extent extent) {
+        Voxels<UnsignedByteBuffer> voxels =
+                VoxelsFactory.getUnsignedByte().createUninitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            System.arraycopy(slices[z], 0, voxels.sliceBuffer(z).array(), 0, extent.areaXY());
+        }
+        return new VoxelsUntyped(voxels);
+    }
+
+    /**
+     * Copies values into newly created {@link Voxels} of a particular data type.
+     *
+     * @param values the values, for each slice, which must be integers for unsigned 8-bit or
+     *     16-bit types, and in the range of the type.
+     * @param extent the size of the voxels.
+     * @param dataType the data type, which must be unsigned 8-bit, unsigned 16-bit or float.
+     * @return newly created voxels with identical values.
+     */
+    public static VoxelsUntyped toVoxels(float[][] values, Extent extent, VoxelDataType dataType) {
+        VoxelsUntyped voxels = VoxelsFactory.instance().createEmpty(extent, dataType);
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                float value = values[z][offset];
+                if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+                    voxels.asByte().sliceBuffer(z).array()[offset] = (byte) value;
+                } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+                    voxels.asShort().sliceBuffer(z).array()[offset] = (short) value;
+                } else {
+                    voxels.asFloat().sliceBuffer(z).array()[offset] = value;
+                }
+            }
+        }
+        return voxels;
+    }
+
+    /**
+     * The values of unsigned 8-bit, unsigned 16-bit or float {@link Voxels}, as floats.
+     *
+     * @param voxels the voxels.
+     * @return newly created values, for each slice.
+     */
+    public static float[][] valuesOf(VoxelsUntyped voxels) {
+        VoxelDataType dataType = voxels.getVoxelDataType();
+        Extent extent = voxels.extent();
+        float[][] values = new float[extent.z()][extent.areaXY()];
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+                    values[z][offset] = voxels.asByte().sliceBuffer(z).array()[offset] & 0xFF;
+                } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+                    values[z][offset] = voxels.asShort().sliceBuffer(z).array()[offset] & 0xFFFF;
+                } else {
+                    values[z][offset] = voxels.asFloat().sliceBuffer(z).array()[offset];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Converts unsigned 8-bit voxels to float voxels.
+     *
+     * @param slices the voxels.
+     * @return newly created voxels with identical values.
+     */
+    public static float[][] toFloat(byte[][] slices) {
+        float[][] converted = new float[slices.length][];
+        for (int z = 0; z < slices.length; z++) {
+            converted[z] = new float[slices[z].length];
+            for (int offset = 0; offset < slices[z].length; offset++) {
+                converted[z][offset] = slices[z][offset] & 0xFF;
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Reconstructs a marker by dilation beneath a mask, by brute force.
+     *
+     * <p>Each voxel is repeatedly replaced by the maximum of itself and its neighbors, limited by
+     * the mask, until no voxel changes.
+     *
+     * @param marker the marker, which is unchanged.
+     * @param mask the mask, which is unchanged.
+     * @param extent the size of the marker and mask.
+     * @param connectivity which voxels are neighbors, as for {@link Neighborhood}.
+     * @return the newly created reconstruction.
+     */
+    public static float[][] bruteForceDilation(
+            float[][] marker, float[][] mask, Extent extent, int connectivity) {
+        return bruteForceDilation(marker, mask, extent, connectivity, null);
+    }
+
+    /**
+     * Like {@link #bruteForceDilation(float[][], float[][], Extent, int)} but only reconstructing
+     * voxels inside a region.
+     *
+     * <p>Voxels outside the region are identical to the marker, and are not neighbors of any
+     * voxel.
+     *
+     * @param marker the marker, which is unchanged.
+     * @param mask the mask, which is unchanged.
+     * @param extent the size of the marker and mask.
+     * @param connectivity which voxels are neighbors, as for {@link Neighborhood}.
+     * @param region for each slice, non-zero for voxels inside the region, or null to reconstruct
+     *     every voxel.
+     * @return the newly created reconstruction.
+     */
+    public static float[][] bruteForceDilation(
+            float[][] marker, float[][] mask, Extent extent, int connectivity, byte[][] region) {
+        float[][] reconstruction = new float[extent.z()][extent.areaXY()];
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                reconstruction[z][offset] =
+                        inside(region, z, offset)
+                                ? Math.min(marker[z][offset], mask[z][offset])
+                                : marker[z][offset];
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int z = 0; z < extent.z(); z++) {
+                for (int y = 0; y < extent.y(); y++) {
+                    for (int x = 0; x < extent.x(); x++) {
+                        int offset = extent.offset(x, y);
+                        if (!inside(region, z, offset)) {
+                            continue;
+                        }
+                        float value =
+                                Math.min(
+                                        maxNeighbor(
+                                                reconstruction,
+                                                extent,
+                                                connectivity,
+                                                region,
+                                                x,
+                                                y,
+                                                z),
+                                        mask[z][offset]);
+                        if (value != reconstruction[z][offset]) {
+                            reconstruction[z][offset] = value;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return reconstruction;
+    }
+
+    /**
+     * Reconstructs a marker by erosion above a mask, by brute force.
+     *
+     * @param marker the marker, which is unchanged.
+     * @param mask the mask, which is unchanged.
+     * @param extent the size of the marker and mask.
+     * @param connectivity which voxels are neighbors, as for {@link Neighborhood}.
+     * @return the newly created reconstruction.
+     */
+    public static float[][] bruteForceErosion(
+            float[][] marker, float[][] mask, Extent extent, int connectivity) {
+        return bruteForceErosion(marker, mask, extent, connectivity, null);
+    }
+
+    /**
+     * Like {@link #bruteForceErosion(float[][], float[][], Extent, int)} but only reconstructing
+     * voxels inside a region.
+     *
+     * @param marker the marker, which is unchanged.
+     * @param mask the mask, which is unchanged.
+     * @param extent the size of the marker and mask.
+     * @param connectivity which voxels are neighbors, as for {@link Neighborhood}.
+     * @param region for each slice, non-zero for voxels inside the region, or null to reconstruct
+     *     every voxel.
+     * @return the newly created reconstruction.
+     */
+    public static float[][] bruteForceErosion(
+            float[][] marker, float[][] mask, Extent extent, int connectivity, byte[][] region) {
+        return negate(
+                bruteForceDilation(negate(marker), negate(mask), extent, connectivity, region));
+    }
+
+    /** The maximum of a voxel and its neighbors inside the region. */
+    private static float maxNeighbor(
+            float[][] voxels,
+            Extent extent,
+            int connectivity,
+            byte[][] region,
+            int x,
+            int y,
+            int z) {
+        float max = voxels[z][extent.offset(x, y)];
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if (isNeighbor(dx, dy, dz, connectivity)
+                            && extent.contains(x + dx, y + dy, z + dz)
+                            && inside(region, z + dz, extent.offset(x + dx, y + dy))) {
+                        max = Math.max(max, voxels[z + dz][extent.offset(x + dx, y + dy)]);
+                    }
+                }
+            }
+        }
+        return max;
+    }
+
+    /** Whether a voxel lies inside a region, where a null region includes every voxel. */
+    private static boolean inside(byte[][] region, int z, int offset) {
+        return region == null || region[z][offset] != 0;
+    }
+
+    /** Whether a voxel at a particular displacement is a neighbor. */
+    private static boolean isNeighbor(int dx, int dy, int dz, int connectivity) {
+        int nonZero = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+        switch (connectivity) {
+            case 4:
+                return dz == 0 && nonZero == 1;
+            case 8:
+                return dz == 0 && nonZero > 0;
+            case 6:
+                return nonZero == 1;
+            case 18:
+                return nonZero == 1 || nonZero == 2;
+            default:
+                return nonZero > 0;
+        }
+    }
+
+    /** Newly created voxels with every value negated. */
+    private static float[][] negate(float[][] slices) {
+        float[][] negated = new float[slices.length][];
+        for (int z = 0; z < slices.length; z++) {
+            negated[z] = new float[slices[z].length];
+            for (int offset = 0; offset < slices[z].length; offset++) {
+                negated[z][offset] = -slices[z][offset];
+            }
+        }
+        return negated;
+    }
+
+    private static boolean inCube(int value) {
+        return value >= 1 && value <= 3;
+    }
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.grayscalereconstruction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import java.util.Random;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link SeededFlood}, as used by {@link BinaryReconstruction3D}.
+ *
+ * <p>Single slices are compared with {@link BinaryReconstruct_}, and volumes with a brute-force
+ * grayscale reconstruction of binary values.
+ */
+class SeededFloodTest {
+
+    private static final int NUMBER_IMAGES = 40;
+
+    private static final byte ON = (byte) 255;
+
+    /** A different value for reconstructed voxels, so it cannot be confused with the mask. */
+    private static final byte RECONSTRUCTED = (byte) 1;
+
+    /** Compares with {@link BinaryReconstruct_}, which only supports a single slice. */
+    @Test
+    void testAgainstBinaryReconstruct() {
+        Random random = new Random(9);
+        for (boolean connect4 : new boolean[] {false, true}) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 30, 1);
+                byte[][] mask = randomBinary(random, extent, 0.6);
+                byte[][] seed = randomBinary(random, extent, 0.05);
+
+                Object[] result =
+                        new BinaryReconstruct_()
+                                .exec(
+                                        imageFor(mask[0], extent),
+                                        imageFor(seed[0], extent),
+                                        null,
+                                        false,
+                                        true,
+                                        connect4);
+                byte[] expected = (byte[]) ((ImagePlus) result[1]).getProcessor().getPixels();
+
+                byte[][] reconstruction = flood(extent, connect4 ? 4 : 8, mask, seed, ON);
+                assertArrayEquals(expected, reconstruction[0]);
+            }
+        }
+    }
+
+    /** Compares with a brute-force reconstruction, in 2D and 3D. */
+    @Test
+    void testAgainstBruteForce() {
+        Random random = new Random(10);
+        for (int connectivity : ReconstructionFixture.CONNECTIVITIES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                Extent extent = ReconstructionFixture.randomExtent(random, 12, 5);
+                byte[][] mask = randomBinary(random, extent, 0.5);
+                byte[][] seed = randomBinary(random, extent, 0.03);
+                byte[][] maskBefore = ReconstructionFixture.copy(mask);
+                byte[][] seedBefore = ReconstructionFixture.copy(seed);
+
+                float[][] expected =
+                        ReconstructionFixture.bruteForceDilation(
+                                ReconstructionFixture.toFloat(seed),
+                                ReconstructionFixture.toFloat(mask),
+                                extent,
+                                connectivity);
+                byte[][] reconstruction = flood(extent, connectivity, mask, seed, RECONSTRUCTED);
+
+                for (int z = 0; z < extent.z(); z++) {
+                    for (int offset = 0; offset < extent.areaXY(); offset++) {
+                        assertEquals(
+                                expected[z][offset] != 0,
+                                reconstruction[z][offset] == RECONSTRUCTED,
+                                "voxel " + offset + " in slice " + z);
+                    }
+                    assertArrayEquals(maskBefore[z], mask[z]);
+                    assertArrayEquals(seedBefore[z], seed[z]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Two voxels in adjacent slices, sharing only a corner, are connected with 26-connectivity,
+     * but not with 6 or 18.
+     */
+    @Test
+    void testConnectivityAcrossSlices() {
+        Extent extent = new Extent(2, 2, 2);
+        byte[][] mask = new byte[2][extent.areaXY()];
+        mask[0][extent.offset(0, 0)] = ON;
+        mask[1][extent.offset(1, 1)] = ON;
+        byte[][] seed = new byte[2][extent.areaXY()];
+        seed[0][extent.offset(0, 0)] = ON;
+
+        assertEquals(1, countReconstructed(flood(extent, 6, mask, seed, ON)));
+        assertEquals(1, countReconstructed(flood(extent, 18, mask, seed, ON)));
+        assertEquals(2, countReconstructed(flood(extent, 26, mask, seed, ON)));
+    }
+
+    /** When the seed does not overlap the mask, nothing is reconstructed. */
+    @Test
+    void testSeedOutsideMask() {
+        Extent extent = new Extent(5, 4, 3);
+        byte[][] mask = new byte[3][extent.areaXY()];
+        byte[][] seed = new byte[3][extent.areaXY()];
+        mask[1][extent.offset(2, 2)] = ON;
+        mask[1][extent.offset(3, 2)] = ON;
+        seed[1][extent.offset(0, 0)] = ON;
+
+        assertEquals(0, countReconstructed(flood(extent, 26, mask, seed, ON)));
+    }
+
+    /** Reconstructs the entire volume, into newly created voxels. */
+    private static byte[][] flood(
+            Extent extent, int connectivity, byte[][] mask, byte[][] seed, byte reconstructionOn) {
+        byte[][] reconstruction = new byte[extent.z()][extent.areaXY()];
+        new SeededFlood(extent, new Neighborhood(connectivity), new Point3i(0, 0, 0), extent, null)
+                .reconstruct(mask, ON, seed, ON, reconstruction, reconstructionOn);
+        return reconstruction;
+    }
+
+    /** Binary voxels, where each voxel is independently on with a particular probability. */
+    private static byte[][] randomBinary(Random random, Extent extent, double probabilityOn) {
+        byte[][] slices = new byte[extent.z()][extent.areaXY()];
+        for (byte[] slice : slices) {
+            for (int offset = 0; offset < slice.length; offset++) {
+                slice[offset] = random.nextDouble() < probabilityOn ? ON : 0;
+            }
+        }
+        return slices;
+    }
+
+    private static int countReconstructed(byte[][] reconstruction) {
+        int count = 0;
+        for (byte[] slice : reconstruction) {
+            for (byte value : slice) {
+                if (value != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** An image of a copy of a single slice. */
+    private static ImagePlus imageFor(byte[] slice, Extent extent) {
+        return new ImagePlus(
+                "slice", new ByteProcessor(extent.x(), extent.y(), slice.clone(), null));
+    }
+}
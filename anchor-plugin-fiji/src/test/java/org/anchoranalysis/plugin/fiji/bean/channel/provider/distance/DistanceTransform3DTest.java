@@ -22,18 +22,30 @@
 package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
 import java.util.Optional;
 import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
 import org.anchoranalysis.core.exception.CreateException;
 import org.anchoranalysis.core.exception.friendly.AnchorImpossibleSituationException;
 import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.convert.ChannelConverter;
+import org.anchoranalysis.image.core.channel.convert.ConversionPolicy;
+import org.anchoranalysis.image.core.channel.convert.ToUnsignedByte;
+import org.anchoranalysis.image.core.channel.convert.ToUnsignedShort;
 import org.anchoranalysis.image.core.dimensions.Resolution;
 import org.anchoranalysis.image.core.mask.Mask;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
 import org.anchoranalysis.test.image.MaskFixture;
 import org.junit.jupiter.api.Test;
 
-/** Tests {@link DistanceTransform3D}. */
+/**
+ * Tests {@link DistanceTransform3D}, including that each output type is identical to how
+ * distances were previously converted.
+ */
 class DistanceTransform3DTest {
 
     private static final int EXPECTED_2D_WITHOUT_RESOLUTION = 4;
@@ -56,6 +68,15 @@ class DistanceTransform3DTest {
 
     private static final float Z_RESOLUTION = 2.5f;
 
+    /** A maximum distance below {@link #EXPECTED_2D_WITHOUT_RESOLUTION}. */
+    private static final int MAX_DISTANCE = 3;
+
+    /**
+     * Multiplies squared distances so the largest distance exceeds 255, and its square exceeds
+     * 65535, given {@link #EXPECTED_2D_WITHOUT_RESOLUTION}.
+     */
+    private static final float SATURATING_MULTIPLIER = 10000.0f;
+
     @Test
     void test2dWithoutResolution() throws ProvisionFailedException {
         doTest(EXPECTED_2D_WITHOUT_RESOLUTION, false, false, Optional.empty());
@@ -91,6 +112,160 @@ class DistanceTransform3DTest {
         doTest(EXPECTED_3D_WITH_RESOLUTION_Z_NAN, true, false, Optional.of(RESOLUTION_Z_NAN));
     }
 
+    @Test
+    void test3dMultipleThreads() throws ProvisionFailedException {
+        Mask mask = MaskFixture.create(true, Optional.of(RESOLUTION));
+
+        DistanceTransform3D singleThreaded = createTransformer(false);
+        singleThreaded.setNumberThreads(1);
+
+        DistanceTransform3D multiThreaded = createTransformer(false);
+        multiThreaded.setNumberThreads(4);
+
+        assertTrue(
+                singleThreaded
+                        .createFromMask(mask)
+                        .equalsDeep(multiThreaded.createFromMask(mask)));
+    }
+
+    @Test
+    void testMaxDistance() throws ProvisionFailedException {
+        assertEquals(MAX_DISTANCE, maxIntensityWithMaxDistance(false));
+    }
+
+    @Test
+    void testMaxDistanceSquared() throws ProvisionFailedException {
+        assertEquals(MAX_DISTANCE * MAX_DISTANCE, maxIntensityWithMaxDistance(true));
+    }
+
+    /**
+     * 8-bit and 16-bit outputs are identical to converting the float output, as distances were
+     * previously converted, including the truncation of fractional distances and the saturation
+     * of large distances.
+     */
+    @Test
+    void testUnsignedSameAsConverted() throws ProvisionFailedException {
+        for (boolean do3D : new boolean[] {false, true}) {
+            for (Optional<Resolution> resolution :
+                    Arrays.asList(Optional.<Resolution>empty(), Optional.of(RESOLUTION))) {
+                Mask mask = MaskFixture.create(do3D, resolution);
+                for (float multiplyBy : new float[] {1.0f, SATURATING_MULTIPLIER}) {
+                    for (boolean squared : new boolean[] {false, true}) {
+                        DistanceTransform3D transformer = createTransformer(false);
+                        transformer.setMultiplyBy(multiplyBy);
+                        transformer.setSquared(squared);
+                        assertSameAsConverted(mask, transformer, false);
+                        assertSameAsConverted(mask, transformer, true);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Distances beyond the range of 8-bit and 16-bit outputs are saturated at their maximum. */
+    @Test
+    void testUnsignedSaturated() throws ProvisionFailedException {
+        Mask mask = MaskFixture.create(false, Optional.empty());
+
+        DistanceTransform3D transformer = createTransformer(false);
+        transformer.setMultiplyBy(SATURATING_MULTIPLIER);
+        assertEquals(
+                UnsignedByteVoxelType.MAX_VALUE_INT,
+                transformer.createFromMask(mask).extract().voxelWithMaxIntensity());
+
+        transformer.setSquared(true);
+        transformer.setCreateShort(true);
+        assertEquals(
+                UnsignedShortVoxelType.MAX_VALUE_INT,
+                transformer.createFromMask(mask).extract().voxelWithMaxIntensity());
+    }
+
+    /**
+     * A float output is created, even when a short output is also requested, and its distances are
+     * the square-root of the squared distances, without truncation.
+     */
+    @Test
+    void testCreateFloat() throws ProvisionFailedException {
+        Mask mask = MaskFixture.create(true, Optional.of(RESOLUTION));
+
+        DistanceTransform3D transformer = createTransformer(false);
+        transformer.setCreateShort(true);
+        transformer.setCreateFloat(true);
+        Channel distances = transformer.createFromMask(mask);
+
+        transformer.setSquared(true);
+        Channel squaredDistances = transformer.createFromMask(mask);
+
+        assertEquals(FloatVoxelType.INSTANCE, distances.getVoxelDataType());
+        boolean anyFraction = false;
+        for (int z = 0; z < mask.extent().z(); z++) {
+            float[] slice = distances.voxels().asFloat().sliceBuffer(z).array();
+            float[] squaredSlice = squaredDistances.voxels().asFloat().sliceBuffer(z).array();
+            for (int offset = 0; offset < slice.length; offset++) {
+                assertEquals(Math.sqrt(squaredSlice[offset]), slice[offset], 1e-4 * slice[offset]);
+                anyFraction |= slice[offset] != Math.floor(slice[offset]);
+            }
+        }
+        assertTrue(anyFraction);
+    }
+
+    /**
+     * When the z-dimension is suppressed, transforming all slices together, across several
+     * threads, is identical to transforming each slice separately.
+     */
+    @Test
+    void testSuppressZSameAsEachSlice() throws ProvisionFailedException {
+        Mask mask = MaskFixture.create(true, Optional.of(RESOLUTION));
+        for (boolean createFloat : new boolean[] {false, true}) {
+            DistanceTransform3D transformer = createTransformer(true);
+            transformer.setCreateFloat(createFloat);
+            transformer.setNumberThreads(3);
+
+            Channel batched = transformer.createFromMask(mask);
+
+            for (int z = 0; z < mask.extent().z(); z++) {
+                Channel slice = transformer.createFromMask(mask.extractSlice(z));
+                assertTrue(slice.equalsDeep(batched.extractSlice(z)), "slice " + z);
+            }
+        }
+    }
+
+    /**
+     * Asserts that an 8-bit or 16-bit output is identical to converting the float output, as the
+     * baseline did.
+     */
+    private static void assertSameAsConverted(
+            Mask mask, DistanceTransform3D transformer, boolean createShort)
+            throws ProvisionFailedException {
+        transformer.setCreateShort(createShort);
+
+        transformer.setCreateFloat(true);
+        Channel distances = transformer.createFromMask(mask);
+
+        transformer.setCreateFloat(false);
+        Channel unsigned = transformer.createFromMask(mask);
+
+        ChannelConverter<?> converter = createShort ? new ToUnsignedShort() : new ToUnsignedByte();
+        Channel converted = converter.convert(distances, ConversionPolicy.CHANGE_EXISTING_CHANNEL);
+        assertTrue(
+                converted.equalsDeep(unsigned),
+                String.format(
+                        "short=%b squared=%b multiplyBy=%f",
+                        createShort, transformer.isSquared(), transformer.getMultiplyBy()));
+    }
+
+    /** The maximum intensity of a 2D float distance map, saturated at {@link #MAX_DISTANCE}. */
+    private int maxIntensityWithMaxDistance(boolean squared) throws ProvisionFailedException {
+        Mask mask = MaskFixture.create(false, Optional.empty());
+
+        DistanceTransform3D transformer = createTransformer(false);
+        transformer.setCreateFloat(true);
+        transformer.setSquared(squared);
+        transformer.setMaxDistance(MAX_DISTANCE);
+
+        return transformer.createFromMask(mask).extract().voxelWithMaxIntensity();
+    }
+
     private void doTest(
             double expectedMaxIntensity,
             boolean do3D,
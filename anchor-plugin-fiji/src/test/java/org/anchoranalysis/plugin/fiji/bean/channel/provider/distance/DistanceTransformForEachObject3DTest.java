@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.dimensions.Dimensions;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.image.voxel.object.ObjectCollectionFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link DistanceTransformForEachObject3D}.
+ *
+ * <p>Each voxel must equal the maximum, across the objects containing it, of transforming that
+ * object alone with {@link DistanceTransform3D}.
+ */
+class DistanceTransformForEachObject3DTest {
+
+    private static final int NUMBER_IMAGES = 10;
+
+    private static final int MAX_NUMBER_OBJECTS = 8;
+
+    /** The maximum size of an object along X and Y. */
+    private static final int MAX_OBJECT_SIZE = 12;
+
+    /** The probability that a voxel inside an object's bounding-box is not part of the object. */
+    private static final double BACKGROUND_PROBABILITY = 0.1;
+
+    private static final Extent EXTENT = new Extent(24, 20, 4);
+
+    @Test
+    void testOverlapping() throws ProvisionFailedException {
+        doTest(false, false, false, 1);
+    }
+
+    @Test
+    void testOverlappingShort() throws ProvisionFailedException {
+        doTest(true, false, false, 1);
+    }
+
+    @Test
+    void testOverlappingMultipleThreads() throws ProvisionFailedException {
+        doTest(false, false, false, 4);
+    }
+
+    @Test
+    void testSuppressZ() throws ProvisionFailedException {
+        doTest(false, true, false, 1);
+    }
+
+    /**
+     * With {@code singlePass}, the objects must not overlap, and each must be surrounded by
+     * background inside its bounding-box, as background beyond the bounding-box is otherwise also
+     * considered.
+     */
+    @Test
+    void testSinglePass() throws ProvisionFailedException {
+        doTest(false, false, true, 1);
+    }
+
+    @Test
+    void testSinglePassShort() throws ProvisionFailedException {
+        doTest(true, false, true, 4);
+    }
+
+    private static void doTest(
+            boolean createShort, boolean suppressZ, boolean singlePass, int numberThreads)
+            throws ProvisionFailedException {
+        Random random = new Random(createShort ? 5 : 6);
+        for (int i = 0; i < NUMBER_IMAGES; i++) {
+            ObjectCollection objects =
+                    singlePass ? separateObjects(random) : overlappingObjects(random);
+
+            DistanceTransformForEachObject3D transform = new DistanceTransformForEachObject3D();
+            transform.setObjects(EDTFixture.providerOf(objects));
+            transform.setCreateShort(createShort);
+            transform.setSuppressZ(suppressZ);
+            transform.setSinglePass(singlePass);
+            transform.setNumberThreads(numberThreads);
+            Channel channel = transform.createFromDimensions(new Dimensions(EXTENT));
+
+            assertEquals(
+                    createShort
+                            ? UnsignedShortVoxelType.INSTANCE
+                            : UnsignedByteVoxelType.INSTANCE,
+                    channel.getVoxelDataType());
+
+            float[][] expected = maximumOfEachObject(objects, createShort, suppressZ);
+            for (int z = 0; z < EXTENT.z(); z++) {
+                for (int offset = 0; offset < EXTENT.areaXY(); offset++) {
+                    assertEquals(
+                            expected[z][offset], EDTFixture.valueAt(channel.voxels(), z, offset));
+                }
+            }
+        }
+    }
+
+    /**
+     * The maximum, across the objects containing each voxel, of transforming each object alone.
+     */
+    private static float[][] maximumOfEachObject(
+            ObjectCollection objects, boolean createShort, boolean suppressZ)
+            throws ProvisionFailedException {
+        DistanceTransform3D reference = new DistanceTransform3D();
+        reference.setCreateShort(createShort);
+        reference.setSuppressZ(suppressZ);
+
+        float[][] maximum = new float[EXTENT.z()][EXTENT.areaXY()];
+        for (ObjectMask object : objects) {
+            VoxelsUntyped distances = EDTFixture.transformWithBean(reference, object.voxels());
+            Extent extent = object.extent();
+            ReadableTuple3i corner = object.boundingBox().cornerMin();
+            for (int z = 0; z < extent.z(); z++) {
+                byte[] mask = object.voxels().sliceBuffer(z).array();
+                for (int y = 0; y < extent.y(); y++) {
+                    for (int x = 0; x < extent.x(); x++) {
+                        int offset = y * extent.x() + x;
+                        if (mask[offset] != 0) {
+                            int destination = EXTENT.offset(corner.x() + x, corner.y() + y);
+                            float[] slice = maximum[corner.z() + z];
+                            slice[destination] =
+                                    Math.max(
+                                            slice[destination],
+                                            EDTFixture.valueAt(distances, z, offset));
+                        }
+                    }
+                }
+            }
+        }
+        return maximum;
+    }
+
+    /** Random objects at random positions, whose bounding-boxes often overlap. */
+    private static ObjectCollection overlappingObjects(Random random) {
+        ObjectMask[] objects = new ObjectMask[2 + random.nextInt(MAX_NUMBER_OBJECTS - 1)];
+        for (int i = 0; i < objects.length; i++) {
+            Extent size =
+                    new Extent(
+                            1 + random.nextInt(MAX_OBJECT_SIZE),
+                            1 + random.nextInt(MAX_OBJECT_SIZE),
+                            1 + random.nextInt(EXTENT.z()));
+            Point3i corner =
+                    new Point3i(
+                            random.nextInt(EXTENT.x() - size.x() + 1),
+                            random.nextInt(EXTENT.y() - size.y() + 1),
+                            random.nextInt(EXTENT.z() - size.z() + 1));
+            objects[i] = randomObject(random, corner, size, false);
+        }
+        return ObjectCollectionFactory.of(objects);
+    }
+
+    /**
+     * Random objects, each in a separate column along the X-axis, and each surrounded by
+     * background inside its bounding-box.
+     */
+    private static ObjectCollection separateObjects(Random random) {
+        int numberObjects = 2 + random.nextInt(3);
+        int columnWidth = EXTENT.x() / numberObjects;
+        ObjectMask[] objects = new ObjectMask[numberObjects];
+        for (int i = 0; i < numberObjects; i++) {
+            Extent size =
+                    new Extent(
+                            1 + random.nextInt(columnWidth),
+                            1 + random.nextInt(EXTENT.y()),
+                            1 + random.nextInt(EXTENT.z()));
+            Point3i corner =
+                    new Point3i(
+                            i * columnWidth + random.nextInt(columnWidth - size.x() + 1),
+                            random.nextInt(EXTENT.y() - size.y() + 1),
+                            random.nextInt(EXTENT.z() - size.z() + 1));
+            objects[i] = randomObject(random, corner, size, true);
+        }
+        return ObjectCollectionFactory.of(objects);
+    }
+
+    /**
+     * An object with a random mask, optionally with background on every face of its
+     * bounding-box.
+     */
+    private static ObjectMask randomObject(
+            Random random, Point3i corner, Extent size, boolean surrounded) {
+        Voxels<UnsignedByteBuffer> voxels =
+                EDTFixture.randomMask(random, size, BACKGROUND_PROBABILITY);
+        if (surrounded) {
+            for (int z = 0; z < size.z(); z++) {
+                byte[] slice = voxels.sliceBuffer(z).array();
+                for (int y = 0; y < size.y(); y++) {
+                    for (int x = 0; x < size.x(); x++) {
+                        if (onFace(x, size.x()) || onFace(y, size.y()) || onFace(z, size.z())) {
+                            slice[size.offset(x, y)] = 0;
+                        }
+                    }
+                }
+            }
+        }
+        return new ObjectMask(BoundingBox.createReuse(corner, size), voxels);
+    }
+
+    private static boolean onFace(int index, int size) {
+        return index == 0 || index == size - 1;
+    }
+}
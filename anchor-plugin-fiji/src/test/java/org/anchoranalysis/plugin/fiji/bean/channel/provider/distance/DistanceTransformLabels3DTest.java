@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedShortBuffer;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link DistanceTransformLabels3D}.
+ *
+ * <p>Inside each label, the distances must be identical to transforming a mask of that label alone
+ * with {@link DistanceTransform3D}.
+ */
+class DistanceTransformLabels3DTest {
+
+    private static final int NUMBER_IMAGES = 8;
+
+    private static final int NUMBER_LABELS = 4;
+
+    private static final double BACKGROUND_PROBABILITY = 0.01;
+
+    /** Multiplies each label of 16-bit labels, so that labels exceed the range of 8-bit. */
+    private static final int SHORT_LABEL_FACTOR = 1000;
+
+    @Test
+    void testUnsignedByteLabels() throws ProvisionFailedException {
+        doTest(false, false, false, 1);
+    }
+
+    @Test
+    void testUnsignedShortLabels() throws ProvisionFailedException {
+        doTest(true, false, false, 1);
+    }
+
+    @Test
+    void testCreateShort() throws ProvisionFailedException {
+        doTest(false, true, false, 1);
+    }
+
+    @Test
+    void testSuppressZ() throws ProvisionFailedException {
+        doTest(false, false, true, 1);
+    }
+
+    @Test
+    void testMultipleThreads() throws ProvisionFailedException {
+        doTest(true, true, false, 3);
+    }
+
+    /** Float labels are rejected. */
+    @Test
+    void testFloatLabelsRejected() {
+        Voxels<FloatBuffer> voxels =
+                VoxelsFactory.getFloat().createInitialized(new Extent(5, 4, 2));
+        Channel labels =
+                ChannelFactory.instance()
+                        .get(FloatVoxelType.INSTANCE)
+                        .create(voxels, Optional.empty());
+        DistanceTransformLabels3D transform = new DistanceTransformLabels3D();
+        assertThrows(ProvisionFailedException.class, () -> transform.createFromChannel(labels));
+    }
+
+    private static void doTest(
+            boolean shortLabels, boolean createShort, boolean suppressZ, int numberThreads)
+            throws ProvisionFailedException {
+        Random random = new Random(shortLabels ? 21 : 22);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 40, 6);
+            Voxels<UnsignedByteBuffer> labels =
+                    EDTFixture.randomLabels(random, extent, NUMBER_LABELS, BACKGROUND_PROBABILITY);
+
+            DistanceTransformLabels3D transform = new DistanceTransformLabels3D();
+            transform.setCreateShort(createShort);
+            transform.setSuppressZ(suppressZ);
+            transform.setNumberThreads(numberThreads);
+            VoxelsUntyped distances =
+                    transform.createFromChannel(channelFor(labels, shortLabels)).voxels();
+            assertEquals(
+                    createShort
+                            ? UnsignedShortVoxelType.INSTANCE
+                            : UnsignedByteVoxelType.INSTANCE,
+                    distances.getVoxelDataType());
+
+            DistanceTransform3D reference = new DistanceTransform3D();
+            reference.setCreateShort(createShort);
+            reference.setSuppressZ(suppressZ);
+            VoxelsUntyped[] expected = new VoxelsUntyped[NUMBER_LABELS + 1];
+            for (int label = 1; label <= NUMBER_LABELS; label++) {
+                expected[label] =
+                        EDTFixture.transformWithBean(reference, EDTFixture.maskOf(labels, label));
+            }
+
+            for (int z = 0; z < extent.z(); z++) {
+                byte[] slice = labels.sliceBuffer(z).array();
+                for (int offset = 0; offset < extent.areaXY(); offset++) {
+                    int label = slice[offset];
+                    // unlabelled voxels are background, with distance zero
+                    float value =
+                            label == 0 ? 0 : EDTFixture.valueAt(expected[label], z, offset);
+                    assertEquals(value, EDTFixture.valueAt(distances, z, offset), "label " + label);
+                }
+            }
+        }
+    }
+
+    /** A channel with the labels, either as 8-bit, or scaled up as 16-bit. */
+    private static Channel channelFor(Voxels<UnsignedByteBuffer> labels, boolean shortLabels) {
+        if (shortLabels) {
+            Extent extent = labels.extent();
+            Voxels<UnsignedShortBuffer> scaled =
+                    VoxelsFactory.getUnsignedShort().createInitialized(extent);
+            for (int z = 0; z < extent.z(); z++) {
+                byte[] in = labels.sliceBuffer(z).array();
+                short[] out = scaled.sliceBuffer(z).array();
+                for (int offset = 0; offset < extent.areaXY(); offset++) {
+                    out[offset] = (short) ((in[offset] & 0xFF) * SHORT_LABEL_FACTOR);
+                }
+            }
+            return ChannelFactory.instance()
+                    .get(UnsignedShortVoxelType.INSTANCE)
+                    .create(scaled, Optional.empty());
+        } else {
+            return ChannelFactory.instance()
+                    .get(UnsignedByteVoxelType.INSTANCE)
+                    .create(labels, Optional.empty());
+        }
+    }
+}
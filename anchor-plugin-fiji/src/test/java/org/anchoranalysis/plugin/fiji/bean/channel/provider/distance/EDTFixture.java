@@ -0,0 +1,388 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+import java.util.Random;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.bean.provider.ObjectCollectionProvider;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.core.mask.Mask;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesInt;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.image.voxel.object.ObjectCollectionFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+
+/**
+ * Creates random masks and labels, and transforms them, to compare the variants of {@link EDT}, and
+ * the beans that use them.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class EDTFixture {
+
+    /** The value of foreground voxels in a mask. */
+    public static final byte ON = (byte) 255;
+
+    /** Multiplication factors that leave distances unchanged. */
+    public static final float[] UNIT_MULTIPLIERS = new float[] {1.0f, 1.0f, 1.0f};
+
+    /**
+     * Creates a mask where each voxel is independently background with a particular probability.
+     *
+     * @param random the source of randomness.
+     * @param extent the size of the mask.
+     * @param backgroundProbability the probability that a voxel is background.
+     * @return a newly created mask, with zero for background and {@link #ON} for foreground.
+     */
+    public static Voxels<UnsignedByteBuffer> randomMask(
+            Random random, Extent extent, double backgroundProbability) {
+        Voxels<UnsignedByteBuffer> mask =
+                VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] slice = mask.sliceBuffer(z).array();
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                slice[offset] = random.nextDouble() < backgroundProbability ? 0 : ON;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * A random extent, with each dimension between a minimum and maximum, inclusive.
+     *
+     * @param random the source of randomness.
+     * @param min the minimum size along any dimension.
+     * @param max the maximum size along X and Y.
+     * @param maxZ the maximum size along Z.
+     * @return the extent.
+     */
+    public static Extent randomExtent(Random random, int min, int max, int maxZ) {
+        return new Extent(
+                min + random.nextInt(max - min + 1),
+                min + random.nextInt(max - min + 1),
+                Math.min(min, maxZ) + random.nextInt(maxZ - Math.min(min, maxZ) + 1));
+    }
+
+    /**
+     * Transforms a mask in memory, with the default kernel, into float voxels.
+     *
+     * @param mask the mask.
+     * @param squared if true, squared distances are placed.
+     * @param suppressZ if true, each slice is transformed independently.
+     * @param multiplyDimensions array of multiplication factors for each dimension [x, y, z]
+     * @param maxDistance distances are saturated at this value, or {@link EDT#UNBOUNDED}.
+     * @return newly created voxels with the distances.
+     */
+    public static Voxels<FloatBuffer> transform(
+            Voxels<UnsignedByteBuffer> mask,
+            boolean squared,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance) {
+        Voxels<FloatBuffer> distances = VoxelsFactory.getFloat().createInitialized(mask.extent());
+        EDTOutputFloat output = new EDTOutputFloat(distances, squared);
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.compute(
+                    mask,
+                    output.scratch().get(), // NOSONAR
+                    output,
+                    suppressZ,
+                    multiplyDimensions,
+                    maxDistance,
+                    parallel);
+        }
+        return distances;
+    }
+
+    /**
+     * All values of float voxels, indexed by slice and then offset in the slice.
+     *
+     * @param voxels the voxels.
+     * @return a newly created array.
+     */
+    public static float[] flatten(Voxels<FloatBuffer> voxels) {
+        Extent extent = voxels.extent();
+        float[] flattened = new float[extent.calculateVolumeAsInt()];
+        for (int z = 0; z < extent.z(); z++) {
+            System.arraycopy(
+                    voxels.sliceBuffer(z).array(),
+                    0,
+                    flattened,
+                    z * extent.areaXY(),
+                    extent.areaXY());
+        }
+        return flattened;
+    }
+
+    /**
+     * A provider that always provides particular objects.
+     *
+     * @param objects the objects to provide.
+     * @return a newly created provider.
+     */
+    public static ObjectCollectionProvider providerOf(ObjectCollection objects) {
+        return new ObjectCollectionProvider() {
+            @Override
+            public ObjectCollection get() {
+                return objects;
+            }
+        };
+    }
+
+    /**
+     * Labels each voxel with the nearest of several random centers, except for a few random
+     * voxels, which are left unlabelled.
+     *
+     * @param random the source of randomness.
+     * @param extent the size of the labels.
+     * @param numberLabels the number of centers, and so labels, from one to {@code numberLabels}.
+     * @param backgroundProbability the probability that a voxel is unlabelled.
+     * @return newly created labels, with zero for unlabelled voxels.
+     */
+    public static Voxels<UnsignedByteBuffer> randomLabels(
+            Random random, Extent extent, int numberLabels, double backgroundProbability) {
+        int[][] centers = new int[numberLabels][];
+        for (int label = 0; label < numberLabels; label++) {
+            centers[label] =
+                    new int[] {
+                        random.nextInt(extent.x()),
+                        random.nextInt(extent.y()),
+                        random.nextInt(extent.z())
+                    };
+        }
+
+        Voxels<UnsignedByteBuffer> labels =
+                VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] slice = labels.sliceBuffer(z).array();
+            for (int y = 0; y < extent.y(); y++) {
+                for (int x = 0; x < extent.x(); x++) {
+                    if (random.nextDouble() >= backgroundProbability) {
+                        slice[extent.offset(x, y)] = (byte) (nearest(centers, x, y, z) + 1);
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    /** The index of the center nearest to a point. */
+    private static int nearest(int[][] centers, int x, int y, int z) {
+        int nearest = 0;
+        long nearestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < centers.length; i++) {
+            long dx = x - centers[i][0];
+            long dy = y - centers[i][1];
+            long dz = z - centers[i][2];
+            long distance = dx * dx + dy * dy + dz * dz;
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * A mask where only the voxels with a particular label are foreground.
+     *
+     * @param labels the labels.
+     * @param label the label of the foreground.
+     * @return a newly created mask, with zero for background and {@link #ON} for foreground.
+     */
+    public static Voxels<UnsignedByteBuffer> maskOf(Voxels<UnsignedByteBuffer> labels, int label) {
+        Extent extent = labels.extent();
+        Voxels<UnsignedByteBuffer> mask = VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] in = labels.sliceBuffer(z).array();
+            byte[] out = mask.sliceBuffer(z).array();
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                out[offset] = in[offset] == label ? ON : 0;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * A newly created mask, with foreground and background swapped.
+     *
+     * @param mask the mask, with zero for background and {@link #ON} for foreground.
+     * @return the inverted mask.
+     */
+    public static Voxels<UnsignedByteBuffer> invert(Voxels<UnsignedByteBuffer> mask) {
+        Extent extent = mask.extent();
+        Voxels<UnsignedByteBuffer> inverted =
+                VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        for (int z = 0; z < extent.z(); z++) {
+            byte[] in = mask.sliceBuffer(z).array();
+            byte[] out = inverted.sliceBuffer(z).array();
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                out[offset] = in[offset] == 0 ? ON : 0;
+            }
+        }
+        return inverted;
+    }
+
+    /**
+     * Transforms a mask with a {@link DistanceTransform3D} bean.
+     *
+     * @param transform the bean, with any properties already assigned.
+     * @param mask the mask, with zero for background and {@link #ON} for foreground.
+     * @return the distances.
+     * @throws ProvisionFailedException if the bean fails.
+     */
+    public static VoxelsUntyped transformWithBean(
+            DistanceTransform3D transform, Voxels<UnsignedByteBuffer> mask)
+            throws ProvisionFailedException {
+        Channel channel =
+                ChannelFactory.instance()
+                        .get(UnsignedByteVoxelType.INSTANCE)
+                        .create(mask, Optional.empty());
+        return transform.createFromMask(new Mask(channel, BinaryValuesInt.getDefault())).voxels();
+    }
+
+    /**
+     * The value of a voxel, for unsigned 8-bit, unsigned 16-bit or float voxels.
+     *
+     * @param voxels the voxels.
+     * @param z the index of the slice.
+     * @param offset the offset of the voxel in the slice.
+     * @return the value.
+     */
+    public static float valueAt(VoxelsUntyped voxels, int z, int offset) {
+        VoxelDataType dataType = voxels.getVoxelDataType();
+        if (dataType.equals(UnsignedByteVoxelType.INSTANCE)) {
+            return voxels.asByte().sliceBuffer(z).array()[offset] & 0xFF;
+        } else if (dataType.equals(UnsignedShortVoxelType.INSTANCE)) {
+            return voxels.asShort().sliceBuffer(z).array()[offset] & 0xFFFF;
+        } else {
+            return voxels.asFloat().sliceBuffer(z).array()[offset];
+        }
+    }
+
+    /**
+     * Small random cuboid objects, which may overlap.
+     *
+     * @param random the source of randomness.
+     * @param extent the size of the volume, in which every object lies.
+     * @param maxNumberObjects the maximum number of objects, of which there is at least one.
+     * @param maxObjectSize the maximum size of an object along each dimension.
+     * @return the objects.
+     */
+    public static ObjectCollection randomObjects(
+            Random random, Extent extent, int maxNumberObjects, int maxObjectSize) {
+        ObjectMask[] objects = new ObjectMask[1 + random.nextInt(maxNumberObjects)];
+        for (int i = 0; i < objects.length; i++) {
+            Point3i corner =
+                    new Point3i(
+                            random.nextInt(extent.x()),
+                            random.nextInt(extent.y()),
+                            random.nextInt(extent.z()));
+            Extent size =
+                    new Extent(
+                            randomSize(random, extent.x() - corner.x(), maxObjectSize),
+                            randomSize(random, extent.y() - corner.y(), maxObjectSize),
+                            randomSize(random, extent.z() - corner.z(), maxObjectSize));
+            objects[i] = cuboid(corner, size);
+        }
+        return ObjectCollectionFactory.of(objects);
+    }
+
+    /**
+     * An object with every voxel of a box.
+     *
+     * @param corner the minimum corner of the box.
+     * @param size the size of the box.
+     * @return a newly created object.
+     */
+    public static ObjectMask cuboid(Point3i corner, Extent size) {
+        Voxels<UnsignedByteBuffer> voxels = VoxelsFactory.getUnsignedByte().createInitialized(size);
+        for (int z = 0; z < size.z(); z++) {
+            byte[] slice = voxels.sliceBuffer(z).array();
+            for (int offset = 0; offset < size.areaXY(); offset++) {
+                slice[offset] = ON;
+            }
+        }
+        return new ObjectMask(BoundingBox.createReuse(corner, size), voxels);
+    }
+
+    /**
+     * The squared distance from a point to the nearest seed, by brute force.
+     *
+     * @param seeds the label of the seed at each voxel, or zero, indexed by slice and then offset.
+     * @param extent the size of the volume.
+     * @param point the point.
+     * @param label only seeds with this label are considered, or any seed if zero.
+     * @param suppressZ if true, only seeds in the same slice as the point are considered.
+     * @param multiplyDimensions the factors multiplying the squared distance along each dimension.
+     * @return the squared distance, or infinity if no seed is considered.
+     */
+    public static double nearestSeed(
+            int[][] seeds,
+            Extent extent,
+            Point3i point,
+            int label,
+            boolean suppressZ,
+            float[] multiplyDimensions) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int z = 0; z < extent.z(); z++) {
+            if (suppressZ && z != point.z()) {
+                continue;
+            }
+            for (int y = 0; y < extent.y(); y++) {
+                for (int x = 0; x < extent.x(); x++) {
+                    int seed = seeds[z][extent.offset(x, y)];
+                    if (seed != 0 && (label == 0 || seed == label)) {
+                        double distance =
+                                multiplyDimensions[0] * square(x - point.x())
+                                        + multiplyDimensions[1] * square(y - point.y())
+                                        + multiplyDimensions[2] * square(z - point.z());
+                        nearest = Math.min(nearest, distance);
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    private static int randomSize(Random random, int remaining, int maxObjectSize) {
+        return 1 + random.nextInt(Math.min(maxObjectSize, remaining));
+    }
+
+    private static double square(int value) {
+        return (double) value * value;
+    }
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link EDTIncremental}.
+ *
+ * <p>Random masks are edited inside a random box, and the updated distances must be identical to
+ * transforming the edited mask again.
+ */
+class EDTIncrementalTest {
+
+    private static final int NUMBER_EDITS = 40;
+
+    /** Small enough that some distances exceed the initial margin around the affected voxels. */
+    private static final double BACKGROUND_PROBABILITY = 0.002;
+
+    private static final float MAX_DISTANCE = 5.5f;
+
+    @Test
+    void testDistances() {
+        doTest(false, false, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testSquaredDistances() {
+        doTest(true, false, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testSuppressZ() {
+        doTest(false, true, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testMaxDistance() {
+        doTest(false, false, MAX_DISTANCE);
+    }
+
+    @Test
+    void testSquaredMaxDistance() {
+        doTest(true, false, MAX_DISTANCE);
+    }
+
+    private static void doTest(boolean squared, boolean suppressZ, float maxDistance) {
+        Random random = new Random(squared ? 1 : 2);
+        for (int edit = 0; edit < NUMBER_EDITS; edit++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 60, 8);
+            Voxels<UnsignedByteBuffer> mask =
+                    EDTFixture.randomMask(random, extent, BACKGROUND_PROBABILITY);
+            Voxels<FloatBuffer> distances =
+                    EDTFixture.transform(
+                            mask, squared, suppressZ, EDTFixture.UNIT_MULTIPLIERS, maxDistance);
+
+            BoundingBox changed = editRandomBox(random, mask);
+            try (ParallelRows parallel = new ParallelRows(1)) {
+                EDTIncremental.update(
+                        mask, distances, squared, changed, suppressZ, maxDistance, parallel);
+            }
+
+            Voxels<FloatBuffer> expected =
+                    EDTFixture.transform(
+                            mask, squared, suppressZ, EDTFixture.UNIT_MULTIPLIERS, maxDistance);
+            assertArrayEquals(EDTFixture.flatten(expected), EDTFixture.flatten(distances));
+        }
+    }
+
+    /**
+     * Replaces the voxels of a random box in a mask, either with all foreground, or with random
+     * voxels, some of which are background.
+     *
+     * @return the box.
+     */
+    private static BoundingBox editRandomBox(Random random, Voxels<UnsignedByteBuffer> mask) {
+        Extent extent = mask.extent();
+        Point3i corner =
+                new Point3i(
+                        random.nextInt(extent.x()),
+                        random.nextInt(extent.y()),
+                        random.nextInt(extent.z()));
+        Extent size =
+                new Extent(
+                        1 + random.nextInt(Math.min(8, extent.x() - corner.x())),
+                        1 + random.nextInt(Math.min(8, extent.y() - corner.y())),
+                        1 + random.nextInt(Math.min(3, extent.z() - corner.z())));
+        boolean fill = random.nextBoolean();
+        for (int z = corner.z(); z < corner.z() + size.z(); z++) {
+            byte[] slice = mask.sliceBuffer(z).array();
+            for (int y = corner.y(); y < corner.y() + size.y(); y++) {
+                for (int x = corner.x(); x < corner.x() + size.x(); x++) {
+                    boolean background = !fill && random.nextInt(4) == 0;
+                    slice[extent.offset(x, y)] = background ? 0 : EDTFixture.ON;
+                }
+            }
+        }
+        return BoundingBox.createReuse(corner, size);
+    }
+}
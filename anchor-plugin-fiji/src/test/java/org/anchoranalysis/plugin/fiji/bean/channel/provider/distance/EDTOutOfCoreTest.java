@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedShortBuffer;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link EDT#computeOutOfCore}.
+ *
+ * <p>The distances must be identical to transforming in memory, whatever the size of the slabs.
+ */
+class EDTOutOfCoreTest {
+
+    private static final int NUMBER_IMAGES = 10;
+
+    private static final double BACKGROUND_PROBABILITY = 0.01;
+
+    private static final float[] ANISOTROPIC_MULTIPLIERS = new float[] {1.0f, 1.0f, 2.5f};
+
+    @Test
+    void testSlabSmallerThanSlice() throws IOException {
+        doTest(false, EDTFixture.UNIT_MULTIPLIERS, slices -> 1);
+    }
+
+    @Test
+    void testSlabOfSeveralSlices() throws IOException {
+        doTest(false, EDTFixture.UNIT_MULTIPLIERS, slices -> slices * 3L);
+    }
+
+    @Test
+    void testSlabOfEntireVolume() throws IOException {
+        doTest(false, EDTFixture.UNIT_MULTIPLIERS, slices -> Long.MAX_VALUE);
+    }
+
+    @Test
+    void testSuppressZ() throws IOException {
+        doTest(true, EDTFixture.UNIT_MULTIPLIERS, slices -> slices * 2L);
+    }
+
+    @Test
+    void testAnisotropic() throws IOException {
+        doTest(false, ANISOTROPIC_MULTIPLIERS, slices -> slices * 2L);
+    }
+
+    @Test
+    void testSliceTooLargeToMap() {
+        Extent extent = new Extent(1 << 15, 1 << 15, 2);
+        assertThrows(IOException.class, () -> new EDTScratchFile(extent, 1).close());
+    }
+
+    /**
+     * Compares with transforming in memory.
+     *
+     * @param slabBytes the number of bytes in each slab, given the number of bytes in a slice.
+     */
+    private static void doTest(
+            boolean suppressZ, float[] multiplyDimensions, LongUnaryOperator slabBytes)
+            throws IOException {
+        Random random = new Random(9);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 40, 12);
+            Voxels<UnsignedByteBuffer> mask =
+                    EDTFixture.randomMask(random, extent, BACKGROUND_PROBABILITY);
+
+            Voxels<UnsignedShortBuffer> inMemory = createVoxels(extent);
+            try (ParallelRows parallel = new ParallelRows(1)) {
+                EDT.compute(
+                        mask,
+                        EDTScratch.allocate(extent),
+                        new EDTOutputUnsignedShort(inMemory, true),
+                        suppressZ,
+                        multiplyDimensions,
+                        EDT.UNBOUNDED,
+                        parallel);
+            }
+
+            Voxels<UnsignedShortBuffer> outOfCore = createVoxels(extent);
+            try (ParallelRows parallel = new ParallelRows(1)) {
+                EDT.computeOutOfCore(
+                        mask,
+                        new EDTOutputUnsignedShort(outOfCore, true),
+                        suppressZ,
+                        multiplyDimensions,
+                        EDT.UNBOUNDED,
+                        slabBytes.applyAsLong((long) extent.areaXY() * Float.BYTES),
+                        parallel);
+            }
+
+            for (int z = 0; z < extent.z(); z++) {
+                assertArrayEquals(
+                        inMemory.sliceBuffer(z).array(),
+                        outOfCore.sliceBuffer(z).array(),
+                        "slice " + z);
+            }
+        }
+    }
+
+    private static Voxels<UnsignedShortBuffer> createVoxels(Extent extent) {
+        return VoxelsFactory.getUnsignedShort().createInitialized(extent);
+    }
+}
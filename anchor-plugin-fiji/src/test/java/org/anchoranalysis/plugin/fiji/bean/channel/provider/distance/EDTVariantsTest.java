@@ -0,0 +1,297 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.nio.FloatBuffer;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.anchoranalysis.core.exception.CreateException;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * Tests the variants of {@link EDT} that transform labels, signed distances and features, each
+ * with the same cases, on several random images.
+ *
+ * <ul>
+ *   <li>{@link EDT#computeLabels}: the distances inside each label must be identical to
+ *       transforming a mask of that label alone.
+ *   <li>{@link EDTOutputSignedFloat}, as used by {@link SignedDistanceTransform3D}: inside the
+ *       mask, the signed distances must be identical to a plain transform of the mask, and outside
+ *       the mask, to the negated plain transform of the inverted mask.
+ *   <li>{@link EDT#computeFeatures}: each voxel's distance must equal the distance to the nearest
+ *       seed found by brute force, and its feature must be that of a seed at this distance. Where
+ *       several seeds are equally near, any of their features is accepted.
+ * </ul>
+ */
+class EDTVariantsTest {
+
+    private static final int NUMBER_IMAGES = 15;
+
+    private static final int NUMBER_LABELS = 5;
+
+    /** The probability that a voxel is unlabelled, i.e. background. */
+    private static final double BACKGROUND_PROBABILITY = 0.01;
+
+    private static final int MAX_NUMBER_OBJECTS = 6;
+
+    /** The maximum size of an object along each dimension. */
+    private static final int MAX_OBJECT_SIZE = 3;
+
+    /** The relative tolerance for squared distances, as rounding may differ from brute force. */
+    private static final double RELATIVE_TOLERANCE = 1e-5;
+
+    /** Not an integer, so no squared distance between voxels ties with the maximum. */
+    private static final float MAX_DISTANCE = 3.5f;
+
+    /** How the variants are transformed, in each test. */
+    private enum Case {
+        DISTANCES(false, false, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED),
+        SQUARED_DISTANCES(true, false, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED),
+        SUPPRESS_Z(false, true, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED),
+        ANISOTROPIC(false, false, new float[] {1.0f, 1.5f, 2.5f}, EDT.UNBOUNDED),
+        MAX_DISTANCE(false, false, EDTFixture.UNIT_MULTIPLIERS, EDTVariantsTest.MAX_DISTANCE),
+        SQUARED_MAX_DISTANCE(
+                true, false, EDTFixture.UNIT_MULTIPLIERS, EDTVariantsTest.MAX_DISTANCE);
+
+        private final boolean squared;
+        private final boolean suppressZ;
+        private final float[] multiplyDimensions;
+        private final float maxDistance;
+
+        Case(boolean squared, boolean suppressZ, float[] multiplyDimensions, float maxDistance) {
+            this.squared = squared;
+            this.suppressZ = suppressZ;
+            this.multiplyDimensions = multiplyDimensions;
+            this.maxDistance = maxDistance;
+        }
+    }
+
+    /** Checks a variant on a single random image. */
+    @FunctionalInterface
+    private interface Variant {
+        void check(Random random, Case transform) throws CreateException;
+    }
+
+    @TestFactory
+    Stream<DynamicTest> testVariants() {
+        EnumSet<Case> allCases = EnumSet.allOf(Case.class);
+        // with multiplied distances, the passes only approximate the nearest seed, so brute force
+        // is no reference
+        EnumSet<Case> exactCases = EnumSet.complementOf(EnumSet.of(Case.ANISOTROPIC));
+        return Stream.of(
+                        variant("labels", EDTVariantsTest::checkLabels, allCases),
+                        variant("signed", EDTVariantsTest::checkSigned, allCases),
+                        variant("features", EDTVariantsTest::checkFeatures, exactCases))
+                .flatMap(tests -> tests);
+    }
+
+    /** A test of a variant for each case. */
+    private static Stream<DynamicTest> variant(
+            String name, Variant variant, EnumSet<Case> cases) {
+        return cases.stream()
+                .map(
+                        transform ->
+                                dynamicTest(
+                                        name + " " + transform,
+                                        () -> checkImages(name, variant, transform)));
+    }
+
+    /** Checks a variant in a particular case, on its own random images. */
+    private static void checkImages(String name, Variant variant, Case transform)
+            throws CreateException {
+        Random random = new Random(31L * name.hashCode() + transform.ordinal());
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            variant.check(random, transform);
+        }
+    }
+
+    private static void checkLabels(Random random, Case transform) throws CreateException {
+        Voxels<UnsignedByteBuffer> labels =
+                EDTFixture.randomLabels(
+                        random,
+                        EDTFixture.randomExtent(random, 5, 40, 8),
+                        NUMBER_LABELS,
+                        BACKGROUND_PROBABILITY);
+
+        Voxels<FloatBuffer> distances = VoxelsFactory.getFloat().createInitialized(labels.extent());
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.computeLabels(
+                    EDTLabels.fromVoxels(new VoxelsUntyped(labels)),
+                    new EDTOutputFloat(distances, transform.squared),
+                    transform.suppressZ,
+                    transform.multiplyDimensions,
+                    transform.maxDistance,
+                    parallel);
+        }
+
+        float[] actual = EDTFixture.flatten(distances);
+        byte[] flattenedLabels = flatten(labels);
+        for (int label = 1; label <= NUMBER_LABELS; label++) {
+            float[] expected =
+                    EDTFixture.flatten(transformMask(EDTFixture.maskOf(labels, label), transform));
+            for (int i = 0; i < actual.length; i++) {
+                if (flattenedLabels[i] == label) {
+                    assertEquals(expected[i], actual[i], "label " + label + " at " + i);
+                }
+            }
+        }
+        for (int i = 0; i < actual.length; i++) {
+            if (flattenedLabels[i] == 0) {
+                assertEquals(0.0f, actual[i]);
+            }
+        }
+    }
+
+    private static void checkSigned(Random random, Case transform) {
+        Extent extent = EDTFixture.randomExtent(random, 5, 40, 8);
+        Voxels<UnsignedByteBuffer> mask =
+                EDTFixture.randomMask(random, extent, 0.02 + random.nextDouble() * 0.5);
+
+        Voxels<FloatBuffer> signed = VoxelsFactory.getFloat().createInitialized(extent);
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.computeLabels(
+                    EDTLabels.fromMask(mask),
+                    new EDTOutputSignedFloat(signed, mask, transform.squared),
+                    transform.suppressZ,
+                    transform.multiplyDimensions,
+                    transform.maxDistance,
+                    parallel);
+        }
+
+        float[] inside = EDTFixture.flatten(transformMask(mask, transform));
+        float[] outside = EDTFixture.flatten(transformMask(EDTFixture.invert(mask), transform));
+        float[] actual = EDTFixture.flatten(signed);
+        for (int i = 0; i < actual.length; i++) {
+            float expected = inside[i] > 0 ? inside[i] : -outside[i];
+            assertEquals(expected, actual[i], "voxel " + i);
+        }
+    }
+
+    private static void checkFeatures(Random random, Case transform) {
+        Extent extent = EDTFixture.randomExtent(random, 4, 30, 6);
+        ObjectCollection objects =
+                EDTFixture.randomObjects(random, extent, MAX_NUMBER_OBJECTS, MAX_OBJECT_SIZE);
+
+        EDTFeatures features = EDTFeatures.fromObjects(objects, extent);
+        int[][] seeds = RasterizeObjects.labels(objects, extent);
+        Voxels<FloatBuffer> distances = VoxelsFactory.getFloat().createInitialized(extent);
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.computeFeatures(
+                    features,
+                    new EDTOutputFloat(distances, transform.squared),
+                    transform.suppressZ,
+                    transform.multiplyDimensions,
+                    transform.maxDistance,
+                    parallel);
+        }
+
+        for (int z = 0; z < extent.z(); z++) {
+            for (int y = 0; y < extent.y(); y++) {
+                for (int x = 0; x < extent.x(); x++) {
+                    int offset = extent.offset(x, y);
+                    assertVoxel(
+                            seeds,
+                            extent,
+                            new Point3i(x, y, z),
+                            features.slice(z)[offset],
+                            distances.sliceBuffer(z).array()[offset],
+                            transform);
+                }
+            }
+        }
+    }
+
+    /** Transforms a mask, as a reference, with the default kernel. */
+    private static Voxels<FloatBuffer> transformMask(
+            Voxels<UnsignedByteBuffer> mask, Case transform) {
+        return EDTFixture.transform(
+                mask,
+                transform.squared,
+                transform.suppressZ,
+                transform.multiplyDimensions,
+                transform.maxDistance);
+    }
+
+    /** Checks the feature and distance of a voxel against brute force. */
+    private static void assertVoxel(
+            int[][] seeds,
+            Extent extent,
+            Point3i point,
+            int feature,
+            float distance,
+            Case transform) {
+        float capSquared = transform.maxDistance * transform.maxDistance;
+        double nearest = EDTFixture.nearestSeed(
+                        seeds, extent, point, 0, transform.suppressZ, transform.multiplyDimensions);
+        if (Double.isInfinite(nearest) || nearest > capSquared) {
+            // without any seed in reach, the distance saturates at the largest finite value
+            assertEquals(0, feature, point.toString());
+            float saturated = Math.min(capSquared, Float.MAX_VALUE);
+            assertEquals(
+                    transform.squared ? saturated : (float) Math.sqrt(saturated),
+                    distance,
+                    point.toString());
+        } else {
+            double tolerance = RELATIVE_TOLERANCE * Math.max(nearest, 1.0);
+            assertEquals(
+                    transform.squared ? nearest : Math.sqrt(nearest),
+                    distance,
+                    tolerance,
+                    point.toString());
+            double nearestWithFeature = EDTFixture.nearestSeed(
+                            seeds,
+                            extent,
+                            point,
+                            feature,
+                            transform.suppressZ,
+                            transform.multiplyDimensions);
+            assertEquals(nearest, nearestWithFeature, tolerance, point.toString());
+        }
+    }
+
+    /** All labels, indexed by slice and then offset in the slice. */
+    private static byte[] flatten(Voxels<UnsignedByteBuffer> labels) {
+        Extent extent = labels.extent();
+        byte[] flattened = new byte[extent.calculateVolumeAsInt()];
+        for (int z = 0; z < extent.z(); z++) {
+            System.arraycopy(
+                    labels.sliceBuffer(z).array(),
+                    0,
+                    flattened,
+                    z * extent.areaXY(),
+                    extent.areaXY());
+        }
+        return flattened;
+    }
+}
@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link EDT#computeWithinBoundingBox}.
+ *
+ * <p>The distances must be identical to transforming the entire volume in memory.
+ */
+class EDTWithinBoundingBoxTest {
+
+    private static final int NUMBER_IMAGES = 30;
+
+    private static final float[] ANISOTROPIC_MULTIPLIERS = new float[] {1.0f, 1.5f, 2.5f};
+
+    @Test
+    void testDistances() {
+        doTest(false, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testSuppressZ() {
+        doTest(true, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testAnisotropic() {
+        doTest(false, ANISOTROPIC_MULTIPLIERS, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testMaxDistance() {
+        doTest(false, EDTFixture.UNIT_MULTIPLIERS, 3.5f);
+    }
+
+    /**
+     * A volume too large for the integer kernel, with foreground small enough that its
+     * bounding-box alone would use it.
+     */
+    @Test
+    void testKernelOfEntireVolume() {
+        Extent extent = new Extent(2900, 2900, 2);
+        Random random = new Random(13);
+        Voxels<UnsignedByteBuffer> mask = VoxelsFactory.getUnsignedByte().createInitialized(extent);
+        fillRandomly(random, mask, new Point3i(1400, 1400, 0), new Extent(200, 150, 2));
+        assertEquals(mask, false, EDTFixture.UNIT_MULTIPLIERS, EDT.UNBOUNDED);
+    }
+
+    private static void doTest(boolean suppressZ, float[] multiplyDimensions, float maxDistance) {
+        Random random = new Random(14);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 50, 10);
+            Voxels<UnsignedByteBuffer> mask =
+                    VoxelsFactory.getUnsignedByte().createInitialized(extent);
+            if (random.nextInt(5) != 0) {
+                // otherwise, the mask is entirely background
+                Point3i corner =
+                        new Point3i(
+                                random.nextInt(extent.x()),
+                                random.nextInt(extent.y()),
+                                random.nextInt(extent.z()));
+                Extent size =
+                        new Extent(
+                                1 + random.nextInt(extent.x() - corner.x()),
+                                1 + random.nextInt(extent.y() - corner.y()),
+                                1 + random.nextInt(extent.z() - corner.z()));
+                fillRandomly(random, mask, corner, size);
+            }
+            assertEquals(mask, suppressZ, multiplyDimensions, maxDistance);
+        }
+    }
+
+    /** Asserts that transforming the bounding-box and the entire volume are identical. */
+    private static void assertEquals(
+            Voxels<UnsignedByteBuffer> mask,
+            boolean suppressZ,
+            float[] multiplyDimensions,
+            float maxDistance) {
+        Voxels<FloatBuffer> distances = VoxelsFactory.getFloat().createInitialized(mask.extent());
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.computeWithinBoundingBox(
+                    mask,
+                    new EDTOutputFloat(distances, true),
+                    suppressZ,
+                    multiplyDimensions,
+                    maxDistance,
+                    parallel);
+        }
+        Voxels<FloatBuffer> expected =
+                EDTFixture.transform(mask, true, suppressZ, multiplyDimensions, maxDistance);
+        assertArrayEquals(EDTFixture.flatten(expected), EDTFixture.flatten(distances));
+    }
+
+    /** Makes the voxels in a box mostly foreground, leaving every other voxel unchanged. */
+    private static void fillRandomly(
+            Random random, Voxels<UnsignedByteBuffer> mask, Point3i corner, Extent size) {
+        Extent extent = mask.extent();
+        for (int z = corner.z(); z < corner.z() + size.z(); z++) {
+            byte[] slice = mask.sliceBuffer(z).array();
+            for (int y = corner.y(); y < corner.y() + size.y(); y++) {
+                for (int x = corner.x(); x < corner.x() + size.x(); x++) {
+                    if (random.nextInt(50) != 0) {
+                        slice[extent.offset(x, y)] = EDTFixture.ON;
+                    }
+                }
+            }
+        }
+    }
+}
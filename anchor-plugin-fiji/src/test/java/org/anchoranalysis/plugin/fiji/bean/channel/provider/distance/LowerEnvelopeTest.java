@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link LowerEnvelope}, and that its integer and float kernels agree.
+ *
+ * <p>Rows are compared with the lower envelope found by brute force, and entire volumes are
+ * compared when transformed with each kernel.
+ */
+class LowerEnvelopeTest {
+
+    private static final int NUMBER_ROWS = 2000;
+
+    private static final int NUMBER_IMAGES = 20;
+
+    /** The largest finite value in a random row. */
+    private static final int MAX_VALUE = 2000;
+
+    /** Not the square of an integer, so no squared distance ties with it. */
+    private static final float CAP_SQUARED = 20.25f;
+
+    @Test
+    void testIntegerRows() {
+        doTestRows(true, Float.POSITIVE_INFINITY);
+    }
+
+    @Test
+    void testFloatRows() {
+        doTestRows(false, Float.POSITIVE_INFINITY);
+    }
+
+    @Test
+    void testIntegerRowsCapped() {
+        doTestRows(true, CAP_SQUARED);
+    }
+
+    @Test
+    void testFloatRowsCapped() {
+        doTestRows(false, CAP_SQUARED);
+    }
+
+    @Test
+    void testVolumes() {
+        doTestVolumes(false, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testVolumesSuppressZ() {
+        doTestVolumes(true, EDT.UNBOUNDED);
+    }
+
+    @Test
+    void testVolumesMaxDistance() {
+        doTestVolumes(false, 4.5f);
+    }
+
+    /** Transforms random rows with one kernel, and compares with brute force. */
+    private static void doTestRows(boolean integerKernel, float capSquared) {
+        Random random = new Random(integerKernel ? 10 : 11);
+        for (int i = 0; i < NUMBER_ROWS; i++) {
+            float[] row = randomRow(random, 1 + random.nextInt(60));
+            float[] expected = bruteForce(row, capSquared);
+            new LowerEnvelope(row.length, capSquared, integerKernel).transformRow(row, 1.0f);
+            assertArrayEquals(expected, row, Arrays.toString(expected));
+        }
+    }
+
+    /** Transforms random masks with each kernel, and compares. */
+    private static void doTestVolumes(boolean suppressZ, float maxDistance) {
+        Random random = new Random(12);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 50, 10);
+            Voxels<UnsignedByteBuffer> mask =
+                    EDTFixture.randomMask(random, extent, random.nextDouble() * 0.1);
+            assertArrayEquals(
+                    transform(mask, suppressZ, maxDistance, false),
+                    transform(mask, suppressZ, maxDistance, true));
+        }
+    }
+
+    /** Transforms a mask into squared distances, with a particular kernel. */
+    private static float[] transform(
+            Voxels<UnsignedByteBuffer> mask,
+            boolean suppressZ,
+            float maxDistance,
+            boolean integerKernel) {
+        Voxels<FloatBuffer> distances = VoxelsFactory.getFloat().createInitialized(mask.extent());
+        EDTOutputFloat output = new EDTOutputFloat(distances, true);
+        try (ParallelRows parallel = new ParallelRows(1)) {
+            EDT.compute(
+                    mask,
+                    output.scratch().get(), // NOSONAR
+                    output,
+                    suppressZ,
+                    EDTFixture.UNIT_MULTIPLIERS,
+                    maxDistance,
+                    integerKernel,
+                    parallel);
+        }
+        return EDTFixture.flatten(distances);
+    }
+
+    /**
+     * A row of random values, as after an earlier pass: a mixture of zero, integers, and {@link
+     * Float#MAX_VALUE} where no background was reached.
+     */
+    private static float[] randomRow(Random random, int length) {
+        float[] row = new float[length];
+        for (int x = 0; x < length; x++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    row[x] = 0.0f;
+                    break;
+                case 1:
+                    row[x] = random.nextInt(MAX_VALUE);
+                    break;
+                default:
+                    row[x] = Float.MAX_VALUE;
+            }
+        }
+        return row;
+    }
+
+    /** The minimum of the parabolae at each position, saturated at a cap. */
+    private static float[] bruteForce(float[] row, float capSquared) {
+        float[] envelope = new float[row.length];
+        for (int x = 0; x < row.length; x++) {
+            double minimum = Float.MAX_VALUE;
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] < Float.MAX_VALUE) {
+                    minimum = Math.min(minimum, (double) (x - i) * (x - i) + row[i]);
+                }
+            }
+            envelope[x] = (float) Math.min(minimum, capSquared);
+        }
+        return envelope;
+    }
+}
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.core.dimensions.Dimensions;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.object.ObjectCollection;
+import org.anchoranalysis.image.voxel.object.ObjectCollectionFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link NearestObjectLabel3D}.
+ *
+ * <p>Each voxel must have the label of an object at the least distance found by brute force, where
+ * several objects are equally near, any of them. Voxels inside objects have the label of the later
+ * object.
+ */
+class NearestObjectLabel3DTest {
+
+    private static final int NUMBER_IMAGES = 10;
+
+    private static final int MAX_NUMBER_OBJECTS = 6;
+
+    /** The maximum size of an object along each dimension. */
+    private static final int MAX_OBJECT_SIZE = 4;
+
+    /** Not an integer, so no squared distance between voxels ties with the maximum. */
+    private static final float MAX_DISTANCE = 3.5f;
+
+    /** The largest number of objects that can be labelled. */
+    private static final int MAX_LABEL = UnsignedShortVoxelType.MAX_VALUE_INT;
+
+    @Test
+    void testNearestObject() throws ProvisionFailedException {
+        doTest(false, 0, 1);
+    }
+
+    @Test
+    void testSuppressZ() throws ProvisionFailedException {
+        doTest(true, 0, 1);
+    }
+
+    @Test
+    void testMaxDistance() throws ProvisionFailedException {
+        doTest(false, MAX_DISTANCE, 1);
+    }
+
+    @Test
+    void testMultipleThreads() throws ProvisionFailedException {
+        doTest(false, 0, 3);
+    }
+
+    /** The maximum number of objects are labelled, up to the largest unsigned 16-bit value. */
+    @Test
+    void testMaximumNumberObjects() throws ProvisionFailedException {
+        Extent extent = new Extent(256, 256, 1);
+        VoxelsUntyped labels =
+                createLabels(singleVoxelObjects(MAX_LABEL, extent), extent, false, 0, 1);
+        for (int label = 1; label <= MAX_LABEL; label++) {
+            assertEquals(label, EDTFixture.valueAt(labels, 0, label - 1));
+        }
+    }
+
+    /** More objects than can be labelled are rejected. */
+    @Test
+    void testTooManyObjects() {
+        Extent extent = new Extent(256, 257, 1);
+        ObjectCollection objects = singleVoxelObjects(MAX_LABEL + 1, extent);
+        assertThrows(
+                ProvisionFailedException.class,
+                () -> createLabels(objects, extent, false, 0, 1));
+    }
+
+    private static void doTest(boolean suppressZ, float maxDistance, int numberThreads)
+            throws ProvisionFailedException {
+        Random random = new Random(suppressZ ? 26 : 27);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 4, 20, 4);
+            ObjectCollection objects =
+                    EDTFixture.randomObjects(random, extent, MAX_NUMBER_OBJECTS, MAX_OBJECT_SIZE);
+
+            VoxelsUntyped labels =
+                    createLabels(objects, extent, suppressZ, maxDistance, numberThreads);
+            assertEquals(UnsignedShortVoxelType.INSTANCE, labels.getVoxelDataType());
+
+            int[][] seeds = RasterizeObjects.labels(objects, extent);
+            float maxSquared = maxDistance > 0 ? maxDistance * maxDistance : Float.MAX_VALUE;
+            for (int z = 0; z < extent.z(); z++) {
+                for (int y = 0; y < extent.y(); y++) {
+                    for (int x = 0; x < extent.x(); x++) {
+                        Point3i point = new Point3i(x, y, z);
+                        int label = (int) EDTFixture.valueAt(labels, z, extent.offset(x, y));
+                        double nearest = nearestSeed(seeds, extent, point, 0, suppressZ);
+                        if (nearest > maxSquared) {
+                            assertEquals(0, label, point.toString());
+                        } else if (nearest == 0) {
+                            assertEquals(seeds[z][extent.offset(x, y)], label, point.toString());
+                        } else {
+                            assertEquals(
+                                    nearest,
+                                    nearestSeed(seeds, extent, point, label, suppressZ),
+                                    point.toString());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static VoxelsUntyped createLabels(
+            ObjectCollection objects,
+            Extent extent,
+            boolean suppressZ,
+            float maxDistance,
+            int numberThreads)
+            throws ProvisionFailedException {
+        NearestObjectLabel3D nearest = new NearestObjectLabel3D();
+        nearest.setObjects(EDTFixture.providerOf(objects));
+        nearest.setSuppressZ(suppressZ);
+        nearest.setMaxDistance(maxDistance);
+        nearest.setNumberThreads(numberThreads);
+        return nearest.createFromDimensions(new Dimensions(extent)).voxels();
+    }
+
+    /** Objects of a single voxel each, in successive voxels of a slice. */
+    private static ObjectCollection singleVoxelObjects(int numberObjects, Extent extent) {
+        ObjectMask[] objects = new ObjectMask[numberObjects];
+        for (int i = 0; i < numberObjects; i++) {
+            objects[i] =
+                    EDTFixture.cuboid(
+                            new Point3i(i % extent.x(), i / extent.x(), 0), new Extent(1, 1, 1));
+        }
+        return ObjectCollectionFactory.of(objects);
+    }
+
+    private static double nearestSeed(
+            int[][] seeds, Extent extent, Point3i point, int label, boolean suppressZ) {
+        return EDTFixture.nearestSeed(
+                seeds, extent, point, label, suppressZ, EDTFixture.UNIT_MULTIPLIERS);
+    }
+}
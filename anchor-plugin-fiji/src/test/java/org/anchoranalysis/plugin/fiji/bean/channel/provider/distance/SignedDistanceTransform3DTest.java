@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.channel.provider.distance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.bean.xml.exception.ProvisionFailedException;
+import org.anchoranalysis.image.core.channel.Channel;
+import org.anchoranalysis.image.core.channel.factory.ChannelFactory;
+import org.anchoranalysis.image.core.mask.Mask;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesInt;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.FloatVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link SignedDistanceTransform3D}.
+ *
+ * <p>Inside the mask, the signed distances must be identical to transforming the mask with a float
+ * {@link DistanceTransform3D}, and outside the mask, to the negated transform of the inverted mask.
+ */
+class SignedDistanceTransform3DTest {
+
+    private static final int NUMBER_IMAGES = 10;
+
+    private static final float MAX_DISTANCE = 3.5f;
+
+    @Test
+    void testDistances() throws ProvisionFailedException {
+        doTest(false, false, 0, 1);
+    }
+
+    @Test
+    void testSquaredDistances() throws ProvisionFailedException {
+        doTest(true, false, 0, 1);
+    }
+
+    @Test
+    void testSuppressZ() throws ProvisionFailedException {
+        doTest(false, true, 0, 1);
+    }
+
+    @Test
+    void testMaxDistance() throws ProvisionFailedException {
+        doTest(false, false, MAX_DISTANCE, 1);
+    }
+
+    @Test
+    void testSquaredMaxDistance() throws ProvisionFailedException {
+        doTest(true, false, MAX_DISTANCE, 1);
+    }
+
+    @Test
+    void testMultipleThreads() throws ProvisionFailedException {
+        doTest(false, false, 0, 3);
+    }
+
+    /** A mask whose <i>on</i> value is not 255 is rejected. */
+    @Test
+    void testOnRejected() {
+        assertRejected(new BinaryValuesInt(0, 1));
+    }
+
+    /** A mask whose <i>off</i> value is not 0 is rejected. */
+    @Test
+    void testOffRejected() {
+        assertRejected(new BinaryValuesInt(1, 255));
+    }
+
+    private static void doTest(
+            boolean squared, boolean suppressZ, float maxDistance, int numberThreads)
+            throws ProvisionFailedException {
+        Random random = new Random(squared ? 23 : 24);
+        for (int image = 0; image < NUMBER_IMAGES; image++) {
+            Extent extent = EDTFixture.randomExtent(random, 5, 40, 6);
+            Voxels<UnsignedByteBuffer> mask =
+                    EDTFixture.randomMask(random, extent, 0.02 + random.nextDouble() * 0.5);
+
+            SignedDistanceTransform3D transform = new SignedDistanceTransform3D();
+            transform.setSquared(squared);
+            transform.setSuppressZ(suppressZ);
+            transform.setMaxDistance(maxDistance);
+            transform.setNumberThreads(numberThreads);
+            Mask withDefaultValues = new Mask(channelFor(mask), BinaryValuesInt.getDefault());
+            VoxelsUntyped signed = transform.createFromMask(withDefaultValues).voxels();
+            assertEquals(FloatVoxelType.INSTANCE, signed.getVoxelDataType());
+
+            DistanceTransform3D reference = new DistanceTransform3D();
+            reference.setCreateFloat(true);
+            reference.setSquared(squared);
+            reference.setSuppressZ(suppressZ);
+            reference.setMaxDistance(maxDistance);
+            VoxelsUntyped inside = EDTFixture.transformWithBean(reference, mask);
+            VoxelsUntyped outside =
+                    EDTFixture.transformWithBean(reference, EDTFixture.invert(mask));
+
+            for (int z = 0; z < extent.z(); z++) {
+                byte[] slice = mask.sliceBuffer(z).array();
+                for (int offset = 0; offset < extent.areaXY(); offset++) {
+                    float expected =
+                            slice[offset] != 0
+                                    ? EDTFixture.valueAt(inside, z, offset)
+                                    : -EDTFixture.valueAt(outside, z, offset);
+                    assertEquals(expected, EDTFixture.valueAt(signed, z, offset));
+                }
+            }
+        }
+    }
+
+    private static void assertRejected(BinaryValuesInt binaryValues) {
+        Random random = new Random(25);
+        Voxels<UnsignedByteBuffer> mask = EDTFixture.randomMask(random, new Extent(6, 5, 2), 0.5);
+        Mask withValues = new Mask(channelFor(mask), binaryValues);
+        SignedDistanceTransform3D transform = new SignedDistanceTransform3D();
+        assertThrows(ProvisionFailedException.class, () -> transform.createFromMask(withValues));
+    }
+
+    private static Channel channelFor(Voxels<UnsignedByteBuffer> mask) {
+        return ChannelFactory.instance()
+                .get(UnsignedByteVoxelType.INSTANCE)
+                .create(mask, Optional.empty());
+    }
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.threshold;
+
+import java.util.Random;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.anchoranalysis.image.voxel.Voxels;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.factory.VoxelsFactory;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.BoundingBox;
+import org.anchoranalysis.spatial.box.Extent;
+import org.anchoranalysis.spatial.point.Point3i;
+import org.anchoranalysis.spatial.point.ReadableTuple3i;
+
+/** Creates random voxels and objects, to threshold. */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class ThresholdFixture {
+
+    /** The value of voxels inside an object. */
+    public static final byte ON = (byte) 255;
+
+    /**
+     * Voxels with intensities from two overlapping populations, and some black voxels.
+     *
+     * <p>Each population is normally distributed, and the second is brighter, so a threshold
+     * separates them.
+     *
+     * @param random the source of randomness.
+     * @param extent the size of the voxels.
+     * @param dataType unsigned 8-bit or unsigned 16-bit.
+     * @return newly created voxels.
+     */
+    public static VoxelsUntyped randomVoxels(Random random, Extent extent, VoxelDataType dataType) {
+        boolean unsignedByte = dataType.equals(UnsignedByteVoxelType.INSTANCE);
+        double scale = unsignedByte ? 1.0 : 20.0;
+        int maxValue = unsignedByte ? 255 : 65535;
+
+        VoxelsUntyped voxels = VoxelsFactory.instance().createEmpty(extent, dataType);
+        for (int z = 0; z < extent.z(); z++) {
+            for (int offset = 0; offset < extent.areaXY(); offset++) {
+                int intensity;
+                if (random.nextInt(10) == 0) {
+                    intensity = 0;
+                } else {
+                    double mean = random.nextBoolean() ? 70 : 170;
+                    double value = (mean + random.nextGaussian() * 20) * scale;
+                    intensity = (int) Math.max(0, Math.min(maxValue, Math.round(value)));
+                }
+                set(voxels, z, offset, intensity);
+            }
+        }
+        return voxels;
+    }
+
+    /**
+     * An object in a random bounding-box, with about three quarters of its voxels on.
+     *
+     * @param random the source of randomness.
+     * @param extent the object lies entirely inside voxels of this size.
+     * @return the object.
+     */
+    public static ObjectMask randomObject(Random random, Extent extent) {
+        Point3i corner =
+                new Point3i(
+                        random.nextInt(extent.x()),
+                        random.nextInt(extent.y()),
+                        random.nextInt(extent.z()));
+        Extent size =
+                new Extent(
+                        1 + random.nextInt(extent.x() - corner.x()),
+                        1 + random.nextInt(extent.y() - corner.y()),
+                        1 + random.nextInt(extent.z() - corner.z()));
+        Voxels<UnsignedByteBuffer> voxels = VoxelsFactory.getUnsignedByte().createInitialized(size);
+        for (int z = 0; z < size.z(); z++) {
+            byte[] slice = voxels.sliceBuffer(z).array();
+            for (int offset = 0; offset < size.areaXY(); offset++) {
+                slice[offset] = random.nextInt(4) != 0 ? ON : 0;
+            }
+        }
+        return new ObjectMask(BoundingBox.createReuse(corner, size), voxels);
+    }
+
+    /**
+     * Whether a voxel lies inside an object.
+     *
+     * @param object the object.
+     * @param x the X coordinate of the voxel, in the voxels the object lies inside.
+     * @param y the Y coordinate of the voxel, in the voxels the object lies inside.
+     * @param z the Z coordinate of the voxel, in the voxels the object lies inside.
+     * @return true if the voxel is inside the bounding-box of the object, and on.
+     */
+    public static boolean inside(ObjectMask object, int x, int y, int z) {
+        ReadableTuple3i corner = object.boundingBox().cornerMin();
+        Extent size = object.extent();
+        int relativeX = x - corner.x();
+        int relativeY = y - corner.y();
+        int relativeZ = z - corner.z();
+        if (!size.contains(relativeX, relativeY, relativeZ)) {
+            return false;
+        }
+        byte[] slice = object.voxels().sliceBuffer(relativeZ).array();
+        return slice[size.offset(relativeX, relativeY)] == ON;
+    }
+
+    /**
+     * The intensity of a voxel.
+     *
+     * @param voxels unsigned 8-bit or unsigned 16-bit voxels.
+     * @param z the slice.
+     * @param offset the offset in the slice.
+     * @return the intensity.
+     */
+    public static int get(VoxelsUntyped voxels, int z, int offset) {
+        if (voxels.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+            return voxels.asByte().sliceBuffer(z).array()[offset] & 0xFF;
+        } else {
+            return voxels.asShort().sliceBuffer(z).array()[offset] & 0xFFFF;
+        }
+    }
+
+    /**
+     * Assigns the intensity of a voxel.
+     *
+     * @param voxels unsigned 8-bit or unsigned 16-bit voxels.
+     * @param z the slice.
+     * @param offset the offset in the slice.
+     * @param intensity the intensity.
+     */
+    public static void set(VoxelsUntyped voxels, int z, int offset, int intensity) {
+        if (voxels.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE)) {
+            voxels.asByte().sliceBuffer(z).array()[offset] = (byte) intensity;
+        } else {
+            voxels.asShort().sliceBuffer(z).array()[offset] = (short) intensity;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.threshold;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.binary.BinaryVoxels;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesByte;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesInt;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link ThresholdVoxels}, so voxels outside an object are neither counted nor <i>on</i>.
+ */
+class ThresholdVoxelsTest {
+
+    private static final int NUMBER_IMAGES = 20;
+
+    private static final Extent EXTENT = new Extent(12, 9, 4);
+
+    private static final VoxelDataType[] DATA_TYPES = {
+        UnsignedByteVoxelType.INSTANCE, UnsignedShortVoxelType.INSTANCE
+    };
+
+    /** Only voxels inside the object are counted. */
+    @Test
+    void testHistogramInsideObject() throws OperationFailedException {
+        Random random = new Random(11);
+        for (VoxelDataType dataType : DATA_TYPES) {
+            for (int image = 0; image < NUMBER_IMAGES; image++) {
+                VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+                Optional<ObjectMask> object =
+                        Optional.of(ThresholdFixture.randomObject(random, EXTENT));
+                assertArrayEquals(
+                        bruteForceHistogram(voxels, object),
+                        ThresholdVoxels.histogram(voxels, object));
+            }
+        }
+    }
+
+    /** Every voxel is counted, without an object. */
+    @Test
+    void testHistogramWithoutObject() throws OperationFailedException {
+        Random random = new Random(12);
+        for (VoxelDataType dataType : DATA_TYPES) {
+            VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+            assertArrayEquals(
+                    bruteForceHistogram(voxels, Optional.empty()),
+                    ThresholdVoxels.histogram(voxels, Optional.empty()));
+        }
+    }
+
+    /**
+     * Only voxels inside the object may be <i>on</i>, including when <i>off</i> is non-zero, so
+     * voxels outside must be assigned.
+     */
+    @Test
+    void testBinarizeInsideObject() throws OperationFailedException {
+        Random random = new Random(13);
+        BinaryValuesByte[] binaryValues = {
+            BinaryValuesInt.getDefault().asByte(), new BinaryValuesInt(255, 0).asByte()
+        };
+        for (VoxelDataType dataType : DATA_TYPES) {
+            int threshold = dataType.equals(UnsignedByteVoxelType.INSTANCE) ? 120 : 2400;
+            for (BinaryValuesByte values : binaryValues) {
+                for (int image = 0; image < NUMBER_IMAGES; image++) {
+                    VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+                    ObjectMask object = ThresholdFixture.randomObject(random, EXTENT);
+
+                    BinaryVoxels<UnsignedByteBuffer> binary =
+                            ThresholdVoxels.binarize(
+                                    voxels, threshold, values, Optional.of(object));
+
+                    assertBinarized(voxels, object, threshold, values, binary);
+                }
+            }
+        }
+    }
+
+    /** Counts the voxels with each intensity, checking every voxel against the object. */
+    private static int[] bruteForceHistogram(VoxelsUntyped voxels, Optional<ObjectMask> object) {
+        boolean unsignedByte = voxels.getVoxelDataType().equals(UnsignedByteVoxelType.INSTANCE);
+        int[] counts = new int[unsignedByte ? 256 : 65536];
+        for (int z = 0; z < EXTENT.z(); z++) {
+            for (int y = 0; y < EXTENT.y(); y++) {
+                for (int x = 0; x < EXTENT.x(); x++) {
+                    if (!object.isPresent() || ThresholdFixture.inside(object.get(), x, y, z)) {
+                        counts[ThresholdFixture.get(voxels, z, EXTENT.offset(x, y))]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static void assertBinarized(
+            VoxelsUntyped voxels,
+            ObjectMask object,
+            int threshold,
+            BinaryValuesByte values,
+            BinaryVoxels<UnsignedByteBuffer> binary) {
+        for (int z = 0; z < EXTENT.z(); z++) {
+            byte[] slice = binary.voxels().sliceBuffer(z).array();
+            for (int y = 0; y < EXTENT.y(); y++) {
+                for (int x = 0; x < EXTENT.x(); x++) {
+                    int offset = EXTENT.offset(x, y);
+                    boolean on =
+                            ThresholdFixture.inside(object, x, y, z)
+                                    && ThresholdFixture.get(voxels, z, offset) > threshold;
+                    assertEquals(
+                            on ? values.getOn() : values.getOff(),
+                            slice[offset],
+                            String.format("voxel (%d,%d,%d)", x, y, z));
+                }
+            }
+        }
+    }
+}
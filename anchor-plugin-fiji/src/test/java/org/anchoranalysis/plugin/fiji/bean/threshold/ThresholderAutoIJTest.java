@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * anchor-plugin-fiji
+ * %%
+ * Copyright (C) 2010 - 2022 Owen Feehan, ETH Zurich, University of Zurich, Hoffmann-La Roche
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.anchoranalysis.plugin.fiji.bean.threshold;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import fiji.threshold.Auto_Threshold;
+import ij.ImagePlus;
+import ij.process.AutoThresholder.Method;
+import java.util.Optional;
+import java.util.Random;
+import org.anchoranalysis.core.exception.OperationFailedException;
+import org.anchoranalysis.image.voxel.VoxelsUntyped;
+import org.anchoranalysis.image.voxel.binary.BinaryVoxels;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesByte;
+import org.anchoranalysis.image.voxel.binary.values.BinaryValuesInt;
+import org.anchoranalysis.image.voxel.buffer.primitive.UnsignedByteBuffer;
+import org.anchoranalysis.image.voxel.datatype.UnsignedByteVoxelType;
+import org.anchoranalysis.image.voxel.datatype.UnsignedShortVoxelType;
+import org.anchoranalysis.image.voxel.datatype.VoxelDataType;
+import org.anchoranalysis.image.voxel.object.ObjectMask;
+import org.anchoranalysis.io.imagej.convert.ConvertFromImagePlus;
+import org.anchoranalysis.io.imagej.convert.ConvertToImagePlus;
+import org.anchoranalysis.io.imagej.convert.ImageJConversionException;
+import org.anchoranalysis.math.histogram.Histogram;
+import org.anchoranalysis.spatial.box.Extent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link ThresholderAutoIJ}.
+ *
+ * <p>Without an object, every method must threshold identically to converting to an {@link
+ * ImagePlus} and running ImageJ's Auto_Threshold plugin.
+ */
+class ThresholderAutoIJTest {
+
+    private static final Extent EXTENT = new Extent(24, 20, 3);
+
+    private static final VoxelDataType[] DATA_TYPES = {
+        UnsignedByteVoxelType.INSTANCE, UnsignedShortVoxelType.INSTANCE
+    };
+
+    private static final BinaryValuesByte BINARY_VALUES = BinaryValuesInt.getDefault().asByte();
+
+    /** Every method, with and without black voxels, has the same result as Auto_Threshold. */
+    @Test
+    void testSameAsAutoThreshold() throws OperationFailedException, ImageJConversionException {
+        Random random = new Random(14);
+        for (VoxelDataType dataType : DATA_TYPES) {
+            for (boolean noBlack : new boolean[] {false, true}) {
+                for (Method method : Method.values()) {
+                    VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+                    ThresholderAutoIJ thresholder = create(nameOf(method), noBlack);
+
+                    // before Auto_Threshold, which may replace the voxels it is passed
+                    BinaryVoxels<UnsignedByteBuffer> actual =
+                            thresholder.threshold(
+                                    voxels, BINARY_VALUES, Optional.empty(), Optional.empty());
+
+                    VoxelsUntyped expected = autoThreshold(voxels, nameOf(method), noBlack);
+
+                    String message = String.format("%s %s noBlack=%b", method, dataType, noBlack);
+                    for (int z = 0; z < EXTENT.z(); z++) {
+                        assertArrayEquals(
+                                expected.asByte().sliceBuffer(z).array(),
+                                actual.voxels().sliceBuffer(z).array(),
+                                message + " slice " + z);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * With an object, voxels outside it are <i>off</i>, and changing them does not change the
+     * result.
+     */
+    @Test
+    void testOutsideObjectIgnored() throws OperationFailedException {
+        Random random = new Random(15);
+        for (VoxelDataType dataType : DATA_TYPES) {
+            int maxValue = dataType.equals(UnsignedByteVoxelType.INSTANCE) ? 255 : 65535;
+            for (int image = 0; image < 20; image++) {
+                VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+                Optional<ObjectMask> object =
+                        Optional.of(ThresholdFixture.randomObject(random, EXTENT));
+                ThresholderAutoIJ thresholder = create("Otsu", false);
+
+                BinaryVoxels<UnsignedByteBuffer> before =
+                        thresholder.threshold(voxels, BINARY_VALUES, Optional.empty(), object);
+
+                // brighten every voxel outside the object, which would change the threshold
+                forEachOutside(
+                        object.get(),
+                        (z, offset) -> ThresholdFixture.set(voxels, z, offset, maxValue));
+
+                BinaryVoxels<UnsignedByteBuffer> after =
+                        thresholder.threshold(voxels, BINARY_VALUES, Optional.empty(), object);
+
+                for (int z = 0; z < EXTENT.z(); z++) {
+                    assertArrayEquals(
+                            before.voxels().sliceBuffer(z).array(),
+                            after.voxels().sliceBuffer(z).array());
+                }
+                forEachOutside(
+                        object.get(),
+                        (z, offset) ->
+                                assertEquals(
+                                        BINARY_VALUES.getOff(),
+                                        after.voxels().sliceBuffer(z).array()[offset]));
+            }
+        }
+    }
+
+    /**
+     * A histogram that is passed has the same result as counting the voxels, whether its bins
+     * span every intensity of the data-type, or only the intensities that occur.
+     */
+    @Test
+    void testPrecomputedHistogram() throws OperationFailedException {
+        Random random = new Random(16);
+        for (VoxelDataType dataType : DATA_TYPES) {
+            int maxValue = dataType.equals(UnsignedByteVoxelType.INSTANCE) ? 255 : 65535;
+            for (boolean noBlack : new boolean[] {false, true}) {
+                for (Method method : Method.values()) {
+                    VoxelsUntyped voxels = ThresholdFixture.randomVoxels(random, EXTENT, dataType);
+                    ThresholderAutoIJ thresholder = create(nameOf(method), noBlack);
+
+                    BinaryVoxels<UnsignedByteBuffer> expected =
+                            thresholder.threshold(
+                                    voxels, BINARY_VALUES, Optional.empty(), Optional.empty());
+
+                    int min = maxValue;
+                    int max = 0;
+                    for (int z = 0; z < EXTENT.z(); z++) {
+                        for (int offset = 0; offset < EXTENT.areaXY(); offset++) {
+                            int intensity = ThresholdFixture.get(voxels, z, offset);
+                            min = Math.min(min, intensity);
+                            max = Math.max(max, intensity);
+                        }
+                    }
+
+                    String message = String.format("%s %s noBlack=%b", method, dataType, noBlack);
+                    for (Histogram histogram :
+                            new Histogram[] {
+                                histogramOf(voxels, 0, maxValue), histogramOf(voxels, min, max)
+                            }) {
+                        BinaryVoxels<UnsignedByteBuffer> actual =
+                                thresholder.threshold(
+                                        voxels,
+                                        BINARY_VALUES,
+                                        Optional.of(histogram),
+                                        Optional.empty());
+                        for (int z = 0; z < EXTENT.z(); z++) {
+                            assertArrayEquals(
+                                    expected.voxels().sliceBuffer(z).array(),
+                                    actual.voxels().sliceBuffer(z).array(),
+                                    message + " minimum bin " + histogram.getMinBin());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** A histogram with a bin for a negative intensity is rejected. */
+    @Test
+    void testNegativeHistogramRejected() {
+        VoxelsUntyped voxels =
+                ThresholdFixture.randomVoxels(
+                        new Random(17), EXTENT, UnsignedByteVoxelType.INSTANCE);
+        Optional<Histogram> histogram = Optional.of(new Histogram(-1, 255));
+        ThresholderAutoIJ thresholder = create("Otsu", false);
+        assertThrows(
+                OperationFailedException.class,
+                () -> thresholder.threshold(voxels, BINARY_VALUES, histogram, Optional.empty()));
+    }
+
+    /** A voxel, identified by its slice, and offset in the slice. */
+    @FunctionalInterface
+    private interface VoxelConsumer {
+        void accept(int z, int offset);
+    }
+
+    private static void forEachOutside(ObjectMask object, VoxelConsumer consumer) {
+        for (int z = 0; z < EXTENT.z(); z++) {
+            for (int y = 0; y < EXTENT.y(); y++) {
+                for (int x = 0; x < EXTENT.x(); x++) {
+                    if (!ThresholdFixture.inside(object, x, y, z)) {
+                        consumer.accept(z, EXTENT.offset(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A histogram of every voxel, with a bin for each intensity from {@code min} to {@code max}.
+     */
+    private static Histogram histogramOf(VoxelsUntyped voxels, int min, int max) {
+        Histogram histogram = new Histogram(min, max);
+        for (int z = 0; z < EXTENT.z(); z++) {
+            for (int offset = 0; offset < EXTENT.areaXY(); offset++) {
+                histogram.incrementValue(ThresholdFixture.get(voxels, z, offset));
+            }
+        }
+        return histogram;
+    }
+
+    /** Thresholds as ThresholderAutoIJ previously did, with ImageJ's Auto_Threshold plugin. */
+    private static VoxelsUntyped autoThreshold(
+            VoxelsUntyped voxels, String method, boolean noBlack)
+            throws ImageJConversionException {
+        ImagePlus image = ConvertToImagePlus.from(voxels);
+        new Auto_Threshold().exec(image, method, false, noBlack, true, false, false, true);
+        return ConvertFromImagePlus.toVoxels(image);
+    }
+
+    /** The name of a method, as used by Auto_Threshold. */
+    private static String nameOf(Method method) {
+        return method == Method.MinError ? "MinError(I)" : method.name();
+    }
+
+    private static ThresholderAutoIJ create(String method, boolean noBlack) {
+        ThresholderAutoIJ thresholder = new ThresholderAutoIJ();
+        thresholder.setMethod(method);
+        thresholder.setNoBlack(noBlack);
+        return thresholder;
+    }
+}